@@ -0,0 +1,56 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * @fileoverview Serves the latencies of the requests to the board.
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.handler;
+
+import com.sun.net.httpserver.HttpExchange;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
+import java.io.IOException;
+
+/**
+ * Answers with the latency histograms of the clacks service as JSON. The
+ * query "reset" clears them afterwards. Only local requests are allowed.
+ *
+ * @author michael
+ */
+public class LatencyHandler extends AbstractHandler {
+
+    public LatencyHandler(AbbozzaServer abbozza) {
+        super(abbozza);
+    }
+
+    @Override
+    protected void handleRequest(HttpExchange exchg) throws IOException {
+        AbbozzaMonitor monitor = this._abbozzaServer.getMonitor();
+        if ( (monitor == null) || (monitor.getClacksService() == null) ) {
+            sendResponse(exchg, 400, "text/plain", "No monitor running!");
+            return;
+        }
+        String json = monitor.getClacksService().getLatencyStats().toJSON();
+        if ( "reset".equals(exchg.getRequestURI().getQuery()) ) {
+            monitor.getClacksService().getLatencyStats().clear();
+        }
+        sendResponse(exchg, 200, "application/json", json);
+    }
+    
+}
@@ -0,0 +1,61 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * @fileoverview Serves the statistics of the monitor listeners.
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.handler;
+
+import com.sun.net.httpserver.HttpExchange;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
+import java.io.IOException;
+
+/**
+ * Answers with the statistics of the monitor listeners as JSON, i.e. their
+ * calls, cpu time, queue depth and whether they are disabled. The query
+ * "enable=prefix" enables a disabled listener again. Only local requests
+ * are allowed.
+ *
+ * @author michael
+ */
+public class ListenerHandler extends AbstractHandler {
+
+    public ListenerHandler(AbbozzaServer abbozza) {
+        super(abbozza);
+    }
+
+    @Override
+    protected void handleRequest(HttpExchange exchg) throws IOException {
+        AbbozzaMonitor monitor = this._abbozzaServer.getMonitor();
+        if ( monitor == null ) {
+            sendResponse(exchg, 400, "text/plain", "No monitor running!");
+            return;
+        }
+        String query = exchg.getRequestURI().getQuery();
+        if ( (query != null) && query.startsWith("enable=") ) {
+            if ( !monitor.enableListener(query.substring(7)) ) {
+                sendResponse(exchg, 404, "text/plain", "No such listener!");
+                return;
+            }
+        }
+        sendResponse(exchg, 200, "application/json", monitor.getListenerStats());
+    }
+    
+}
@@ -56,8 +56,9 @@ public class MonitorHandler extends AbstractHandler {
         }
         
         if (result) {
-            String query = URLDecoder.decode(exchg.getRequestURI().getQuery(),"UTF-8");
+            String query = exchg.getRequestURI().getQuery();
             if ( query != null ) {
+              query = URLDecoder.decode(query,"UTF-8");
               query = query.replace('&', '\n');
               Properties props = new Properties();
               props.load(new StringReader(query));
@@ -111,6 +112,14 @@ public class MonitorHandler extends AbstractHandler {
 
     
     
+    /**
+     * Hand the port back to a monitor suspended for an upload. The port is
+     * reattached by the thread of the port as soon as the device is ready,
+     * the monitor keeps its connection, subscribers and data. A monitor which
+     * is not suspended is not affected.
+     * 
+     * @return false if there is no monitor
+     */
     public boolean resume() {
         if (monitor == null) {
             return false;
@@ -127,6 +136,10 @@ public class MonitorHandler extends AbstractHandler {
     
     
     
+    /**
+     * Release the port of the monitor for another program, without closing
+     * the monitor. The call returns as soon as the port is released.
+     */
     public void suspend() {
         try {
             if (monitor != null) {
@@ -0,0 +1,104 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * @fileoverview Registers commands to be polled periodically.
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.handler;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
+import de.uos.inf.did.abbozza.monitor.clacks.PollScheduler;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.util.Properties;
+
+/**
+ * Manages the commands polled by the monitor.
+ * <ul>
+ * <li>cmd=&lt;command&gt;&amp;period=&lt;ms&gt; polls the command
+ * periodically</li>
+ * <li>cmd=&lt;command&gt;&amp;period=0 stops polling it</li>
+ * <li>cancel stops all polls of the client</li>
+ * <li>without query the current schedules are returned as JSON</li>
+ * </ul>
+ * The client is given by the parameter client or, if missing, by the remote
+ * address. The answers can be fetched from /abbozza/snapshot or the
+ * WebSocket stream.
+ *
+ * @author michael
+ */
+public class PollHandler extends AbstractHandler {
+
+    public PollHandler(AbbozzaServer abbozza) {
+        super(abbozza,true);
+    }
+
+    @Override
+    protected void handleRequest(HttpExchange exchg) throws IOException {
+        AbbozzaMonitor monitor = this._abbozzaServer.getMonitor();
+        if ( (monitor == null) || (monitor.getClacksService() == null) ) {
+            sendResponse(exchg, 400, "text/plain", "No board listens!");
+            return;
+        }
+        PollScheduler scheduler = monitor.getClacksService().getPollScheduler();
+        Headers headers = exchg.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+
+        String query = exchg.getRequestURI().getRawQuery();
+        if ( query == null ) {
+            sendResponse(exchg, 200, "application/json", scheduler.toJSON());
+            return;
+        }
+        query = URLDecoder.decode(query.replace('&', '\n'),"UTF-8");
+        Properties props = new Properties();
+        props.load(new StringReader(query));
+        String client = props.getProperty("client", exchg.getRemoteAddress().getAddress().getHostAddress());
+        
+        if ( props.containsKey("cancel") ) {
+            scheduler.unregisterAll(client);
+            sendResponse(exchg, 200, "text/plain", "ok");
+            return;
+        }
+        String cmd = props.getProperty("cmd");
+        if ( (cmd == null) || cmd.trim().isEmpty() ) {
+            sendResponse(exchg, 400, "text/plain", "No command given!");
+            return;
+        }
+        long period;
+        try {
+            period = Long.parseLong(props.getProperty("period", "1000"));
+        } catch (NumberFormatException ex) {
+            sendResponse(exchg, 400, "text/plain", "Illegal period!");
+            return;
+        }
+        if ( period > 0 ) {
+            AbbozzaLogger.debug("PollHandler: " + client + " polls " + cmd + " every " + period + "ms");
+            scheduler.register(client, cmd, period);
+        } else {
+            scheduler.unregister(client, cmd);
+        }
+        sendResponse(exchg, 200, "text/plain", "ok");
+    }
+    
+}
@@ -50,6 +50,7 @@ public class SerialHandler extends AbstractHandler {
         String query = he.getRequestURI().getQuery();
         // msg=<msg>&timeout=<time>
         // No timeout means that the request is not waitung
+        // timeout=auto derives the timeout from the round trip times
         AbbozzaLogger.debug("SerialHandler: received " + he.getRequestURI().toString());
         query = URLDecoder.decode(query,"UTF-8");
         // query = query.replace("%20"," ");
@@ -59,12 +60,22 @@ public class SerialHandler extends AbstractHandler {
         AbbozzaLogger.debug("SerialHandler: msg = " + props.get("msg"));
         AbbozzaLogger.debug("SerialHandler: timeout = " + props.get("timeout"));
         long timeout = 0;
-        if ( props.get("timeout") != null ) {
+        if ( "auto".equals(props.get("timeout")) ) {
+            timeout = ClacksRequest.AUTO_TIMEOUT;
+        } else if ( props.get("timeout") != null ) {
             timeout = Long.parseLong((String) props.get("timeout"));
+            if ( timeout < 0 ) timeout = ClacksRequest.AUTO_TIMEOUT;
         }
         AbbozzaMonitor monitor = this._abbozzaServer.getMonitor();
         if ( monitor != null ) {
-           ClacksRequest msg = monitor.getClacksService().processRequest((String) props.get("msg"), he, this, timeout);
+           // The client is given by the optional parameter client, e.g. a
+           // session id, or its address
+           String client = props.getProperty("client", he.getRemoteAddress().getAddress().getHostAddress());
+           ClacksRequest msg = monitor.getClacksService().processRequest((String) props.get("msg"), he, this, timeout, client);
+           if ( msg == null ) {
+               // The service already answered the exchange
+               return;
+           }
            while ( msg.getState() == Message.WAITING ) {
               try {
                   Thread.sleep(100);
@@ -82,7 +93,10 @@ public class SerialHandler extends AbstractHandler {
                     break;
                case Message.RESPONSE_READY:
                     AbbozzaLogger.out("SerialHandler: answer : " + msg.getResponse());
-                    sendResponse(he, 200, "text/plain", msg.getResponse() ); 
+                    // The service usually answered the exchange already
+                    if ( !msg.isAnswered() ) {
+                        sendResponse(he, 200, "text/plain", msg.getResponse() ); 
+                    }
                     break;
            } 
         } else {
@@ -0,0 +1,56 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * @fileoverview Serves the latest values received by the monitor.
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.handler;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
+import java.io.IOException;
+
+/**
+ * Answers with a JSON snapshot of the last message for each prefix and the
+ * last row of the table monitor. It only reads the cache of the monitor and
+ * never sends anything to the board.
+ *
+ * @author michael
+ */
+public class SnapshotHandler extends AbstractHandler {
+
+    public SnapshotHandler(AbbozzaServer abbozza) {
+        super(abbozza,true);
+    }
+
+    @Override
+    protected void handleRequest(HttpExchange exchg) throws IOException {
+        AbbozzaMonitor monitor = this._abbozzaServer.getMonitor();
+        if ( (monitor == null) || (monitor.getClacksService() == null) ) {
+            sendResponse(exchg, 400, "text/plain", "No board listens!");
+            return;
+        }
+        Headers headers = exchg.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        sendResponse(exchg, 200, "application/json", monitor.getClacksService().getLatestValues().toJSON());
+    }
+    
+}
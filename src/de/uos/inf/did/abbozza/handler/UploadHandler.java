@@ -26,6 +26,7 @@ import com.sun.net.httpserver.HttpExchange;
 import de.uos.inf.did.abbozza.core.AbbozzaLocale;
 import de.uos.inf.did.abbozza.core.AbbozzaLogger;
 import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -81,8 +82,29 @@ public class UploadHandler extends AbstractHandler {
     }
 
      public int uploadCode(String code) {     
-         int response = _abbozzaServer.uploadCode(code);         
-         return response;
+         // Hand the port of the monitor over to the uploader and back
+         AbbozzaMonitor monitor = _abbozzaServer.getMonitor();
+         if ( (monitor != null) && !monitor.isVisible() ) {
+             monitor = null;
+         }
+         if ( monitor != null ) {
+             try {
+                 monitor.suspend();
+             } catch (Exception ex) {
+                 AbbozzaLogger.err("UploadHandler: Could not suspend monitor");
+             }
+         }
+         try {
+             return _abbozzaServer.uploadCode(code);
+         } finally {
+             if ( monitor != null ) {
+                 try {
+                     monitor.resume();
+                 } catch (Exception ex) {
+                     AbbozzaLogger.err("UploadHandler: Could not resume monitor");
+                 }
+             }
+         }
     }   
      
 }
@@ -28,34 +28,33 @@ import de.uos.inf.did.abbozza.core.AbbozzaLogger;
 import de.uos.inf.did.abbozza.core.AbbozzaServer;
 import de.uos.inf.did.abbozza.monitor.clacks.ByteRingBuffer;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksBytes;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksDecodedPacket;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksMessage;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksService;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksSubscriber;
+import de.uos.inf.did.abbozza.monitor.clacks.LatencyStats;
 import de.uos.inf.did.abbozza.plugin.Plugin;
 import de.uos.inf.did.abbozza.tools.GUITool;
-import java.awt.Color;
 import java.awt.Font;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.TreeMap;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.ImageIcon;
 import javax.swing.JDialog;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.DefaultCaret;
-import javax.swing.text.DefaultStyledDocument;
-import javax.swing.text.Style;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyleContext;
+import javax.swing.Timer;
 import jssc.SerialPortList;
 
 /**
@@ -64,21 +63,38 @@ import jssc.SerialPortList;
  */
 public final class AbbozzaMonitor extends JFrame {
 
-    private final int MAXLEN = 1024 * 32;
+    /**
+     * The states of the lifecycle of the monitor. While it is running, the
+     * monitor owns the clacks service with the serial port and the WebSocket
+     * server. While it is suspended, the port is released, but the service and
+     * the WebSocket server keep running. If it is stopped, it owns no threads,
+     * ports or sockets.
+     */
+    public enum State {
+        STOPPED, RUNNING, SUSPENDED
+    }
+
+    // The maximal time to wait for the WebSocket server to stop
+    private static final int WEBSOCKET_STOP_TIMEOUT = 1000;
+
+    // The updates of the protocol per second and the bytes shown per update
+    private static final int DEFAULT_PROTOCOL_FPS = 25;
+    private static final int DEFAULT_PROTOCOL_FRAME = 1024 * 16;
 
     private String boardPort;
     private int baudRate = 115200;
     private boolean monitorEnabled;
-    private boolean closed;
+    private State state = State.STOPPED;
+    private final Object lifecycle = new Object();
     private HashMap<String, MonitorPanel> panels;
-    private HashMap<String, MonitorListener> listeners;
-    private DefaultStyledDocument protocolDocument;
+    private HashMap<String, ListenerExecutor> listeners;
     protected ByteRingBuffer protocolUpdateBuffer;
+    private long protocolPending;
+    private ProtocolCapture protocolCapture;
+    private Timer protocolTimer;
     protected AbbozzaWebSocketServer webSocketServer = null;
-    protected Thread webSocketServerThread = null;
     
     private ClacksService clacksService;
-    private long lastUpdate;
 
     /**
      * Creates new AbbozzaMonitor and asks for port
@@ -104,33 +120,33 @@ public final class AbbozzaMonitor extends JFrame {
      * Initialize the Monitor
      */
     private void init() {
-        
-        initProtocolDocument();
 
         SerialPortList.getPortNames();
         initComponents();
         
         // protocol = new StringBuffer();
-        protocolUpdateBuffer = new ByteRingBuffer(1024 * 512);
+        initProtocolUpdates();
 
         ImageIcon icon = new ImageIcon(AbbozzaMonitor.class.getResource("/img/abbozza_icon_monitor.png"));
         this.setIconImage(icon.getImage());
 
-        DefaultCaret caret = (DefaultCaret) textArea.getCaret();
-        caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
-
         this.sendText.getEditor().addActionListener(this::sendTextEditorActionPerformed);
 
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent event) {
-                try {
-                    close();
-                    closed = true;
-                    AbbozzaServer.getInstance().monitorIsClosed();
-                } catch (Exception e) {
-                    // ignore
-                }
+                // Stopping the threads may take a while, hence it is not
+                // done by the event dispatch thread
+                setVisible(false);
+                Thread closer = new Thread(() -> {
+                    try {
+                        close();
+                        AbbozzaServer.getInstance().monitorIsClosed();
+                    } catch (Exception e) {
+                        // ignore
+                    }
+                }, "AbbozzaMonitor close");
+                closer.start();
             }
         });
 
@@ -139,11 +155,14 @@ public final class AbbozzaMonitor extends JFrame {
         // clacksService.subscribe(this);
 
         panels = new HashMap<String, MonitorPanel>();
+        this.addMonitorPanel(new HexMonitor(protocolCapture), null);
         TableMonitor tableMonitor = new TableMonitor();
         this.addMonitorPanel(tableMonitor, "table");
+        tableMonitor.getTableModel().setClock(clacksService.getClockSync().getEstimator());
+        tableMonitor.getTableModel().setLatestValues(clacksService.getLatestValues());
         this.addMonitorPanel(new GraphMonitor(tableMonitor.getTableModel()), "graph");
         this.addMonitorPanel(new LevelMonitor(tableMonitor.getTableModel()), "level");
-        this.addMonitorPanel(new OscillographMonitor(), null);
+        this.addMonitorPanel(new OscillographMonitor(), OscillographMonitor.PREFIX);
 
         listeners = new HashMap<>();
 
@@ -156,6 +175,7 @@ public final class AbbozzaMonitor extends JFrame {
             AbbozzaLogger.info("AbbozzaMonitor: Checking plugin " + plugin.getId());
             this.addMonitorPanel(plugin.getMonitorPanel(), plugin.getMonitorPanelPrefix());
             this.addMonitorListener(plugin.getMonitorListener(), plugin.getMonitorListenerPrefix());
+            clacksService.addDecoder(plugin.getDecoder());
         }
 
         textArea.addMouseListener(new MouseAdapter() {
@@ -178,85 +198,118 @@ public final class AbbozzaMonitor extends JFrame {
 
         this.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
         GUITool.centerWindow(this);
-        
-        // Start WebSocketServer
-        int port = AbbozzaServer.getConfig().getServerPort() + 1;
-        try {
-            webSocketServer = new AbbozzaWebSocketServer(this,port);
-            webSocketServerThread = new Thread(webSocketServer);
-            webSocketServerThread.start();
-        } catch (Exception xe) {
-            AbbozzaLogger.err(xe.getLocalizedMessage());
-        }
     }
 
     /**
-     * Initialize styles for the protocol
-     */
-    private void initProtocolDocument() {
-        protocolDocument = new DefaultStyledDocument();
-
-        Style def = StyleContext.getDefaultStyleContext().
-                getStyle(StyleContext.DEFAULT_STYLE);
-
-        Style regular = protocolDocument.addStyle("input", def);
-        StyleConstants.setFontFamily(def, "SansSerif");
-
-        Style s = protocolDocument.addStyle("error", regular);
-        StyleConstants.setItalic(s, true);
-        StyleConstants.setForeground(s, Color.red);
-
-        s = protocolDocument.addStyle("output", regular);
-        StyleConstants.setBold(s, true);
-        StyleConstants.setForeground(s, Color.blue);
-
-        s = protocolDocument.addStyle("info", regular);
-        StyleConstants.setBold(s, true);
-        StyleConstants.setForeground(s, Color.green);
-
-    }
-
-    /**
-     * Open the Monitor, start the ClacksPortHandler
+     * Open the Monitor, start the ClacksPortHandler and the WebSocket server.
+     * If the monitor is running already, the window is only shown.
      *
      * @throws Exception An exception is thrown if an error occurs
      */
     public void open() throws Exception {
-        AbbozzaLogger.err("AbbozzaMonitor: Open Window");
-        closed = false;
+        synchronized (lifecycle) {
+            AbbozzaLogger.err("AbbozzaMonitor: Open Window");
 
-        // Set the port
-        portBox.setModel(new DefaultComboBoxModel(SerialPortList.getPortNames()));
+            // Set the port
+            portBox.setModel(new DefaultComboBoxModel(SerialPortList.getPortNames()));
 
-        this.setVisible(true);
+            this.setVisible(true);
 
-        lastUpdate = System.currentTimeMillis();
+            if (state != State.STOPPED) {
+                return;
+            }
 
-        // Start clacks service
-        clacksService.execute();
+            // Start clacks service
+            for (ListenerExecutor listener : listeners.values()) {
+                listener.start();
+            }
+            clacksService.start();
+            startWebSocketServer();
+            protocolTimer.start();
+            state = State.RUNNING;
 
-        GUITool.centerWindow(this);
+            GUITool.centerWindow(this);
+        }
     }
 
     
     /**
-     * Close the monitor.
+     * Close the monitor. The WebSocket server and the clacks service are
+     * stopped and their threads, sockets and the port are released before
+     * the call returns. If the monitor is stopped already, nothing happens.
+     * Since this may take several seconds, it should not be called by the
+     * event dispatch thread.
      *
      * @throws Exception An exception is thrown, if an error occurs
      */
     public void close() throws Exception {
-        AbbozzaLogger.debug("AbbozzaMonitor: Closing monitor");
+        synchronized (lifecycle) {
+            AbbozzaLogger.debug("AbbozzaMonitor: Closing monitor");
+            this.setVisible(false);
+            if (state == State.STOPPED) {
+                return;
+            }
         
-        if ( (webSocketServerThread != null) && webSocketServerThread.isAlive() ) {
-            AbbozzaLogger.info("AbbozzaMonitor: Stopping WebSocket server");
-            webSocketServerThread.interrupt();
+            stopWebSocketServer();
+            clacksService.stop();
+            for (ListenerExecutor listener : listeners.values()) {
+                listener.stop();
+            }
+            protocolTimer.stop();
+            // Show the bytes received last
+            SwingUtilities.invokeLater(this::flushProtocol);
+
+            state = State.STOPPED;
         }
-        if (clacksService != null) {
-            clacksService.cancel(true);
+    }
+
+    /**
+     * Stop and start the monitor again. The panels and the recorded data are
+     * kept.
+     *
+     * @throws Exception An exception is thrown, if an error occurs
+     */
+    public void restart() throws Exception {
+        synchronized (lifecycle) {
+            close();
+            open();
+        }
+    }
+
+    public State getMonitorState() {
+        synchronized (lifecycle) {
+            return state;
+        }
+    }
+
+    /**
+     * Start the WebSocket server at the port following the one of the http
+     * server.
+     */
+    private void startWebSocketServer() {
+        int port = AbbozzaServer.getConfig().getServerPort() + 1;
+        try {
+            webSocketServer = new AbbozzaWebSocketServer(this,port);
+            webSocketServer.startServer();
+        } catch (Exception xe) {
+            webSocketServer = null;
+            AbbozzaLogger.err(xe.getLocalizedMessage());
         }
+    }
 
-        closed = true;
-        this.setVisible(false);
+    /**
+     * Stop the WebSocket server, close its connections and its socket and
+     * wait for its threads.
+     */
+    private void stopWebSocketServer() {
+        if (webSocketServer == null) {
+            return;
+        }
+        AbbozzaLogger.info("AbbozzaMonitor: Stopping WebSocket server");
+        if (!webSocketServer.stopServer(WEBSOCKET_STOP_TIMEOUT)) {
+            AbbozzaLogger.err("AbbozzaMonitor: WebSocket server did not stop");
+        }
+        webSocketServer = null;
     }
 
     /**
@@ -266,21 +319,34 @@ public final class AbbozzaMonitor extends JFrame {
      * @throws Exception An exception is thrown if an error occurs
      */
     public void suspend() throws Exception {
-        enableWindow(false);
-        clacksService.suspendPort();
+        synchronized (lifecycle) {
+            if (state != State.RUNNING) {
+                return;
+            }
+            enableWindow(false);
+            clacksService.suspendPort();
+            state = State.SUSPENDED;
+        }
     }
 
     /**
-     * Reopen the port
+     * Reopen the port as soon as the device is ready. The panels, the
+     * subscribers and the recorded data are kept.
      *
      * @throws Exception An exception is thrown if an error occurs
      */
     public void resume() throws Exception {
-        // Enable the window
-        portBox.setModel(new DefaultComboBoxModel(SerialPortList.getPortNames()));
-        enableWindow(true);
+        synchronized (lifecycle) {
+            if (state != State.SUSPENDED) {
+                return;
+            }
+            // Enable the window
+            portBox.setModel(new DefaultComboBoxModel(SerialPortList.getPortNames()));
+            enableWindow(true);
 
-        clacksService.resumePort();
+            clacksService.resumePort();
+            state = State.RUNNING;
+        }
     }
 
     public void subscribeToClacks(ClacksSubscriber panel) {
@@ -299,22 +365,58 @@ public final class AbbozzaMonitor extends JFrame {
      * @param bytes The byte package
      */
     public void process(ClacksBytes bytes) {
-        // Fetch the new bytes from the protocol
+        // Keep the bytes and wait for the next update of the protocol
+        protocolCapture.append(bytes.getBytes(), bytes.getTimestamp());
         protocolUpdateBuffer.put(bytes.getBytes());
-        long cur = System.currentTimeMillis();
-        if (cur - lastUpdate > 250) {
-            SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                    String update = getProtocolUpdate();
-                    if (update.length() > 1024 * 16) {
-                        appendText("<< zu schnell für das Protokoll, " + update.length() + " Bytes überprungen>>\n", "error");
-                    } else {
-                        appendText(update, "input");
-                    }
-                }
-            });
-            lastUpdate = cur;
+        protocolPending += bytes.getLength();
+    }
+
+    /**
+     * Create the buffers and the timer for the protocol.
+     *
+     * The bytes received are kept in the capture and collected until the
+     * timer shows them in the protocol. The timer fires with a fixed rate
+     * (option monitor.protocol_fps, default 25 per second), hence a burst
+     * costs at most one update per frame and its end is shown at most one
+     * frame later. If more bytes than fit into one update (option
+     * monitor.protocol_frame, default 16K) arrive during a frame, only the
+     * last ones are shown and the number of skipped bytes is noted.
+     */
+    private void initProtocolUpdates() {
+        int fps = DEFAULT_PROTOCOL_FPS;
+        int frame = DEFAULT_PROTOCOL_FRAME;
+        int capture = ProtocolCapture.DEFAULT_SIZE;
+        int val = AbbozzaServer.getConfig().getOptionInt("monitor.protocol_fps");
+        if (val > 0) {
+            fps = val;
+        }
+        val = AbbozzaServer.getConfig().getOptionInt("monitor.protocol_frame");
+        if (val > 0) {
+            frame = val;
         }
+        val = AbbozzaServer.getConfig().getOptionInt("monitor.capture_size");
+        if (val > 0) {
+            capture = val;
+        }
+        protocolUpdateBuffer = new ByteRingBuffer(frame);
+        protocolCapture = new ProtocolCapture(capture);
+        protocolTimer = new Timer(Math.max(1, 1000 / fps), (event) -> flushProtocol());
+        protocolTimer.setCoalesce(true);
+    }
+
+    /**
+     * Show the bytes collected since the last update.
+     */
+    private void flushProtocol() {
+        if (protocolPending == 0) {
+            return;
+        }
+        long elided = protocolPending - protocolUpdateBuffer.getSize();
+        String update = getProtocolUpdate();
+        if (elided > 0) {
+            appendText(AbbozzaLocale.entry("gui.protocol_elided", Long.toString(elided)) + "\n", "error");
+        }
+        appendText(update, "input");
     }
     
     public synchronized void process(ClacksMessage msg) {
@@ -323,20 +425,36 @@ public final class AbbozzaMonitor extends JFrame {
 
         MonitorPanel panel = panels.get(prefix);
         if (panel != null) {
-            panel.processMessage(cmd);
+            panel.processMessage(cmd, msg.getCaptureTime());
         // } else {
         //     clacksService.sendResponse(cmd);
         }
 
-        // Send message to registered listener
-        MonitorListener listener = listeners.get(prefix);
+        // Send message to registered listener, it runs on a thread of its own
+        ListenerExecutor listener = listeners.get(prefix);
         if (listener != null) {
-            listener.processMessage(cmd);
+            listener.processMessage(cmd, msg.getCaptureTime());
         // } else {
         //    clacksService.sendResponse(cmd);
         }
     }
 
+    /**
+     * Pass a decoded packet to the panel and the listener with its prefix.
+     * 
+     * @param packet The packet
+     */
+    public synchronized void process(ClacksDecodedPacket packet) {
+        MonitorPanel panel = panels.get(packet.getPrefix());
+        if (panel != null) {
+            panel.processPacket(packet);
+        }
+        ListenerExecutor listener = listeners.get(packet.getPrefix());
+        if (listener != null) {
+            listener.processPacket(packet);
+        }
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -349,13 +467,14 @@ public final class AbbozzaMonitor extends JFrame {
 
         protocolPopUp = new javax.swing.JPopupMenu();
         resetItem = new javax.swing.JMenuItem();
+        saveCaptureItem = new javax.swing.JMenuItem();
         jSeparator1 = new javax.swing.JPopupMenu.Separator();
         incFontSize = new javax.swing.JMenuItem();
         decFontSize = new javax.swing.JMenuItem();
         tabPanel = new javax.swing.JTabbedPane();
         jPanel1 = new javax.swing.JPanel();
         textPane = new javax.swing.JScrollPane();
-        textArea = new javax.swing.JTextPane();
+        textArea = new de.uos.inf.did.abbozza.monitor.ProtocolView();
         sendButton = new javax.swing.JButton();
         sendText = new javax.swing.JComboBox();
         logoPanel = new javax.swing.JPanel();
@@ -374,6 +493,15 @@ public final class AbbozzaMonitor extends JFrame {
             }
         });
         protocolPopUp.add(resetItem);
+
+        saveCaptureItem.setText(AbbozzaLocale.entry("gui.save_capture"));
+        saveCaptureItem.setToolTipText(AbbozzaLocale.entry("gui.save_capture_tooltip"));
+        saveCaptureItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                saveCaptureItemActionPerformed(evt);
+            }
+        });
+        protocolPopUp.add(saveCaptureItem);
         protocolPopUp.add(jSeparator1);
 
         incFontSize.setText(AbbozzaLocale.entry("gui.inc_font_size"));
@@ -410,7 +538,6 @@ public final class AbbozzaMonitor extends JFrame {
         jPanel1Layout.rowWeights = new double[] {100.0};
         jPanel1.setLayout(jPanel1Layout);
 
-        textArea.setDocument(protocolDocument);
         textPane.setViewportView(textArea);
 
         gridBagConstraints = new java.awt.GridBagConstraints();
@@ -482,12 +609,28 @@ public final class AbbozzaMonitor extends JFrame {
      * @param evt The evnt trioggerd by selecting the menu item
      */
     private void resetItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_resetItemActionPerformed
-        try {
-            protocolDocument.remove(0, protocolDocument.getLength());
-        } catch (BadLocationException ex) {
-        }
+        textArea.clear();
+        protocolCapture.clear();
     }//GEN-LAST:event_resetItemActionPerformed
 
+    /**
+     * Save the bytes kept in the capture to a file.
+     *
+     * @param evt The event triggered by selecting the menu item
+     */
+    private void saveCaptureItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_saveCaptureItemActionPerformed
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(chooser.getSelectedFile())) {
+            protocolCapture.writeTo(out);
+        } catch (IOException ex) {
+            AbbozzaLogger.err("AbbozzaMonitor: Could not save capture to " + chooser.getSelectedFile());
+            appendText(AbbozzaLocale.entry("gui.save_capture_error") + ": " + ex.getLocalizedMessage() + "\n", "error");
+        }
+    }//GEN-LAST:event_saveCaptureItemActionPerformed
+
     /**
      * Send text from the input line to the serial port
      *
@@ -583,10 +726,11 @@ public final class AbbozzaMonitor extends JFrame {
     private javax.swing.JPopupMenu protocolPopUp;
     private javax.swing.JComboBox<String> rateBox;
     private javax.swing.JMenuItem resetItem;
+    private javax.swing.JMenuItem saveCaptureItem;
     private javax.swing.JButton sendButton;
     private javax.swing.JComboBox sendText;
     private javax.swing.JTabbedPane tabPanel;
-    private javax.swing.JTextPane textArea;
+    private de.uos.inf.did.abbozza.monitor.ProtocolView textArea;
     private javax.swing.JScrollPane textPane;
     // End of variables declaration//GEN-END:variables
 
@@ -650,22 +794,7 @@ public final class AbbozzaMonitor extends JFrame {
      * @param style The style of the text
      */
     public synchronized void appendText(String update, String style) {
-
-        try {
-            protocolDocument.insertString(
-                    protocolDocument.getLength(),
-                    update,
-                    protocolDocument.getStyle(style)
-            );
-
-            int len = protocolDocument.getLength();
-            if (len > 2 * MAXLEN) {
-                protocolDocument.remove(0, MAXLEN);
-            }
-        } catch (BadLocationException ex) {
-            Logger.getLogger(AbbozzaMonitor.class.getName()).log(Level.SEVERE, null, ex);
-        }
-
+        textArea.append(update, style);
     }
 
 
@@ -699,8 +828,49 @@ public final class AbbozzaMonitor extends JFrame {
     private void addMonitorListener(MonitorListener listener, String prefix) {
         if (listener != null) {
             AbbozzaLogger.info("AbbozzaMonitor: Listener for prefix " + prefix + " added");
-            listeners.put(prefix, listener);
+            listeners.put(prefix, new ListenerExecutor(prefix, listener,
+                    (msg) -> SwingUtilities.invokeLater(() -> appendText(msg + "\n", "error"))));
+        }
+    }
+
+    /**
+     * Returns the statistics of the listeners as JSON object, see
+     * ListenerExecutor.
+     * 
+     * @return The JSON string
+     */
+    public String getListenerStats() {
+        StringBuilder buf = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, ListenerExecutor> entry : new TreeMap<>(listeners).entrySet()) {
+            if (!first) {
+                buf.append(',');
+            }
+            first = false;
+            LatencyStats.appendString(buf, entry.getKey()).append(':');
+            entry.getValue().appendJSON(buf);
+        }
+        return buf.append('}').toString();
+    }
+
+    /**
+     * Enable a disabled listener again.
+     * 
+     * @param prefix The prefix of the listener
+     * @return true if the listener exists
+     */
+    public boolean enableListener(String prefix) {
+        ListenerExecutor listener = listeners.get(prefix);
+        if (listener == null) {
+            return false;
         }
+        synchronized (lifecycle) {
+            listener.enable();
+            if (state != State.STOPPED) {
+                listener.start();
+            }
+        }
+        return true;
     }
 
     public void setBoardPort(String boardPort, int rate) {
@@ -770,9 +940,14 @@ public final class AbbozzaMonitor extends JFrame {
     public String getProtocolUpdate() {
         String update = protocolUpdateBuffer.toString();
         protocolUpdateBuffer.clear();
+        protocolPending = 0;
         return update;
     }
 
+    public ProtocolCapture getProtocolCapture() {
+        return protocolCapture;
+    }
+
     public ClacksService getClacksService() {
         return clacksService;
     }
@@ -12,7 +12,11 @@ import de.uos.inf.did.abbozza.core.AbbozzaServer;
 import de.uos.inf.did.abbozza.core.AbbozzaServerException;
 import de.uos.inf.did.abbozza.core.AbbozzaSplashScreen;
 import de.uos.inf.did.abbozza.handler.JarDirHandler;
+import de.uos.inf.did.abbozza.handler.LatencyHandler;
+import de.uos.inf.did.abbozza.handler.ListenerHandler;
+import de.uos.inf.did.abbozza.handler.PollHandler;
 import de.uos.inf.did.abbozza.handler.SerialHandler;
+import de.uos.inf.did.abbozza.handler.SnapshotHandler;
 import de.uos.inf.did.abbozza.plugin.PluginManager;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -140,6 +144,10 @@ public class AbbozzaMonitorServer extends AbbozzaServer implements ActionListene
     @Override
     public void registerSystemHandlers() {
         httpServer.createContext("/abbozza/serial", new SerialHandler(this));
+        httpServer.createContext("/abbozza/latency", new LatencyHandler(this));
+        httpServer.createContext("/abbozza/snapshot", new SnapshotHandler(this));
+        httpServer.createContext("/abbozza/poll", new PollHandler(this));
+        httpServer.createContext("/abbozza/listeners", new ListenerHandler(this));
     }
 
     @Override
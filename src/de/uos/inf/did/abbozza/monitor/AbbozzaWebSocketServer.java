@@ -16,48 +16,150 @@
 package de.uos.inf.did.abbozza.monitor;
 
 import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import de.uos.inf.did.abbozza.monitor.clacks.CaptureClock;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksBytes;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksPollResult;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksService;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksSubscriber;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.DefaultWebSocketServerFactory;
 import org.java_websocket.server.WebSocketServer;
 
 /**
+ * The server forwards the bytes received from the serial port to all clients.
+ * 
+ * Clients connecting to a resource containing "stamped" (e.g.
+ * ws://localhost:port/stamped) receive each chunk prefixed by its capture time
+ * in milliseconds since the epoch with microsecond resolution and a '|', e.g.
+ * "1792388495433.125|...". All other clients receive the plain bytes.
+ *
+ * WebSocketServer.stop() only closes the connections whose handshake is
+ * complete. Hence the server keeps track of all accepted channels and closes
+ * the remaining ones, after it stopped.
  *
  * @author Michael Brinkmeier <michael.brinkmeier@uni-osnabrueck.de>
  */
 public class AbbozzaWebSocketServer extends WebSocketServer implements ClacksSubscriber {
 
+    /**
+     * Records the accepted channels.
+     */
+    private static class ChannelFactory extends DefaultWebSocketServerFactory {
+
+        private final Set<SocketChannel> channels = new HashSet<>();
+
+        @Override
+        public synchronized SocketChannel wrapChannel(SocketChannel channel, SelectionKey key) {
+            channels.removeIf((ch) -> !ch.isOpen());
+            channels.add(channel);
+            return channel;
+        }
+
+        public synchronized void closeAll() {
+            for (SocketChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    AbbozzaLogger.err("AbbozzaWebSocketServer: Could not close " + channel);
+                }
+            }
+            channels.clear();
+        }
+    }
+
     private AbbozzaMonitor monitor;
     private ClacksService clacksService;
+    private Thread serverThread = null;
+    private final ChannelFactory channelFactory = new ChannelFactory();
     private WebSocket lastWebSocket = null;
+    private final Set<WebSocket> plainClients = Collections.synchronizedSet(new HashSet<WebSocket>());
+    private final Set<WebSocket> stampedClients = Collections.synchronizedSet(new HashSet<WebSocket>());
     
     public AbbozzaWebSocketServer(AbbozzaMonitor monitor) {
         this.monitor = monitor;
         clacksService = this.monitor.getClacksService();
+        setWebSocketFactory(channelFactory);
         AbbozzaLogger.info("Starting");     
     }
     
     public AbbozzaWebSocketServer(AbbozzaMonitor monitor, int port) {
-        super(new InetSocketAddress("localhost",port));
+        this(monitor.getClacksService(), port);
         this.monitor = monitor;
-        clacksService = this.monitor.getClacksService();
+    }
+    
+    /**
+     * Creates a server forwarding the bytes received by a service.
+     * 
+     * @param clacksService The service
+     * @param port The port of the server
+     */
+    public AbbozzaWebSocketServer(ClacksService clacksService, int port) {
+        super(new InetSocketAddress("localhost",port));
+        this.clacksService = clacksService;
+        setWebSocketFactory(channelFactory);
         AbbozzaLogger.info("AbbozzaWebSocketServer: Starting at address " + this.getAddress().toString() );
     }
     
+    /**
+     * Start the server in a thread of its own. The address may be bound
+     * again, while the connections of a stopped server linger.
+     */
+    public void startServer() {
+        setReuseAddr(true);
+        serverThread = new Thread(this, "AbbozzaWebSocketServer");
+        serverThread.start();
+    }
+    
+    /**
+     * Stop the server, close its connections and its socket and wait for
+     * its threads.
+     * 
+     * @param timeout The time to wait in milliseconds
+     * @return true, if the server thread ended
+     */
+    public boolean stopServer(int timeout) {
+        if ( serverThread == null ) {
+            return true;
+        }
+        try {
+            stop(timeout);
+            serverThread.join(timeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channelFactory.closeAll();
+        // The server subscribes in onStart()
+        clacksService.unsubscribe(this);
+        return !serverThread.isAlive();
+    }
+    
     
     @Override
     public void onOpen(WebSocket ws, ClientHandshake ch) {
         ws.send("[[ Connected to abbozza! serial stream at " + ws.getLocalSocketAddress().toString() + "]]");
         AbbozzaLogger.info("AbbozzaWebSocketServer: Client connected from " + ws.getRemoteSocketAddress().toString() );
         lastWebSocket = ws;
+        String resource = ws.getResourceDescriptor();
+        if ( (resource != null) && resource.contains("stamped") ) {
+            stampedClients.add(ws);
+        } else {
+            plainClients.add(ws);
+        }
     }
 
     @Override
     public void onClose(WebSocket ws, int i, String string, boolean bln) {
         AbbozzaLogger.info("AbbozzaWebSocketServer: Connection to client " + ws.getRemoteSocketAddress().toString() + " closed");
+        plainClients.remove(ws);
+        stampedClients.remove(ws);
     }
 
     @Override
@@ -78,6 +180,34 @@ public class AbbozzaWebSocketServer extends WebSocketServer implements ClacksSub
 
     @Override
     public void process(ClacksBytes bytes) {
-        broadcast(new String(bytes.getBytes()));
+        String data = new String(bytes.getBytes());
+        synchronized (plainClients) {
+            if ( !plainClients.isEmpty() ) broadcast(data, plainClients);
+        }
+        synchronized (stampedClients) {
+            if ( !stampedClients.isEmpty() ) {
+                StringBuilder buf = CaptureClock.appendMillis(new StringBuilder(data.length() + 20), bytes.getTimestamp());
+                broadcast(buf.append('|').append(data).toString(), stampedClients);
+            }
+        }
+    }
+
+    /**
+     * Send the answer to a polled command as [[command answer]].
+     * 
+     * @param result The answer
+     */
+    @Override
+    public void process(ClacksPollResult result) {
+        String data = "[[" + result.getCommand() + " " + result.getResponse() + "]]\n";
+        synchronized (plainClients) {
+            if ( !plainClients.isEmpty() ) broadcast(data, plainClients);
+        }
+        synchronized (stampedClients) {
+            if ( !stampedClients.isEmpty() ) {
+                StringBuilder buf = CaptureClock.appendMillis(new StringBuilder(data.length() + 20), result.getCaptureTime());
+                broadcast(buf.append('|').append(data).toString(), stampedClients);
+            }
+        }
     }
 }
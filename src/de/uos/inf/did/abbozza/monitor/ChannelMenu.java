@@ -0,0 +1,68 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A menu to show and hide the channels of the table monitor.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import de.uos.inf.did.abbozza.core.AbbozzaLocale;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JMenu;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+/**
+ * The menu contains a check box for each channel of the model. It is rebuilt
+ * if the channels change.
+ *
+ * @author mbrinkmeier
+ */
+public class ChannelMenu extends JMenu implements TableModelListener {
+
+    private final TableMonitorModel _model;
+
+    public ChannelMenu(TableMonitorModel model) {
+        super(AbbozzaLocale.entry("gui.channels"));
+        _model = model;
+        _model.addTableModelListener(this);
+        rebuild();
+    }
+
+    private void rebuild() {
+        removeAll();
+        for (int i = 0; i < _model.getChannelCount(); i++) {
+            final int channel = i;
+            MonitorChannel chan = _model.getChannel(i);
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(chan.getName(AbbozzaLocale.entry("gui.channel") + " ", i), chan.isVisible());
+            item.setForeground(chan.getColor());
+            item.addActionListener((evt) -> _model.setChannelVisible(channel, item.isSelected()));
+            add(item);
+        }
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        if (e.getFirstRow() == TableModelEvent.HEADER_ROW) {
+            rebuild();
+        }
+    }
+}
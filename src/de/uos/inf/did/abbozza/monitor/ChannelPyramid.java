@@ -0,0 +1,206 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A min/max decimation pyramid for the values of one channel.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import java.util.Arrays;
+
+/**
+ * The pyramid summarizes the values of a channel at several resolutions.
+ * Level k contains the minimum and maximum of each group of 2^k consecutive
+ * rows. Only the levels starting with BASE_LEVEL are stored, the smaller
+ * groups are cheap enough to be computed from the values themselves, which
+ * are kept in the table model.
+ *
+ * Rows are addressed by their absolute index. If the oldest rows are removed
+ * from the table model, the entries covering only removed rows can be
+ * dropped by calling drop().
+ *
+ * The pyramid is updated incrementally if a row is appended.
+ *
+ * @author mbrinkmeier
+ */
+public class ChannelPyramid {
+
+    public static final int BASE_LEVEL = 4;
+    private static final int INITIAL_SIZE = 256;
+
+    private int _min[][];   // _min[k-BASE_LEVEL] is the minimum array of level k
+    private int _max[][];   // _max[k-BASE_LEVEL] is the maximum array of level k
+    private int _top;       // The highest level in use
+    private long _first;    // The absolute index of the oldest kept row
+    private long _next;     // The absolute index of the next row
+
+    public ChannelPyramid() {
+        _min = new int[64 - BASE_LEVEL][];
+        _max = new int[64 - BASE_LEVEL][];
+        clear();
+    }
+
+    /**
+     * Append a value and update all levels.
+     *
+     * @param value The new value
+     */
+    public void add(int value) {
+        long row = _next;
+        _next++;
+
+        // Add levels if required
+        if (_top < BASE_LEVEL) {
+            addLevel();
+        }
+        while (row >= (1L << _top)) {
+            // The new level starts with the summary of all previous rows
+            addLevel();
+            _min[_top - BASE_LEVEL][0] = _min[_top - BASE_LEVEL - 1][0];
+            _max[_top - BASE_LEVEL][0] = _max[_top - BASE_LEVEL - 1][0];
+        }
+
+        for (int level = BASE_LEVEL; level <= _top; level++) {
+            int idx = (int) ((row >> level) - (_first >> level));
+            int mins[] = _min[level - BASE_LEVEL];
+            if (idx >= mins.length) {
+                _min[level - BASE_LEVEL] = mins = Arrays.copyOf(mins, mins.length * 2);
+                _max[level - BASE_LEVEL] = Arrays.copyOf(_max[level - BASE_LEVEL], mins.length);
+            }
+            int maxs[] = _max[level - BASE_LEVEL];
+            if ((row & ((1L << level) - 1)) == 0) {
+                mins[idx] = value;
+                maxs[idx] = value;
+            } else {
+                if (value < mins[idx]) {
+                    mins[idx] = value;
+                }
+                if (value > maxs[idx]) {
+                    maxs[idx] = value;
+                }
+            }
+        }
+    }
+
+    private void addLevel() {
+        _top = (_top < BASE_LEVEL) ? BASE_LEVEL : _top + 1;
+        int len = Math.max(INITIAL_SIZE >> (_top - BASE_LEVEL), 2);
+        _min[_top - BASE_LEVEL] = new int[len];
+        _max[_top - BASE_LEVEL] = new int[len];
+    }
+
+    /**
+     * Drop the entries which only cover rows before the given one.
+     *
+     * @param first The absolute index of the new oldest row
+     */
+    public void drop(long first) {
+        if (first <= _first) {
+            return;
+        }
+        first = Math.min(first, _next);
+        for (int level = BASE_LEVEL; level <= _top; level++) {
+            int shift = (int) ((first >> level) - (_first >> level));
+            if (shift > 0) {
+                int used = (int) (getLength(level) - getStart(level));
+                int mins[] = _min[level - BASE_LEVEL];
+                int maxs[] = _max[level - BASE_LEVEL];
+                System.arraycopy(mins, shift, mins, 0, used - shift);
+                System.arraycopy(maxs, shift, maxs, 0, used - shift);
+            }
+        }
+        _first = first;
+    }
+
+    /**
+     * Returns the highest stored level. It is smaller than BASE_LEVEL, if
+     * no value was added yet.
+     *
+     * @return The highest level
+     */
+    public int getLevels() {
+        return _top;
+    }
+
+    /**
+     * Returns the absolute index of the first kept entry of the given level.
+     *
+     * @param level The level (at least BASE_LEVEL)
+     * @return The index of the first entry
+     */
+    public long getStart(int level) {
+        return _first >> level;
+    }
+
+    /**
+     * Returns the absolute index after the last entry of the given level.
+     *
+     * @param level The level (at least BASE_LEVEL)
+     * @return The index after the last entry
+     */
+    public long getLength(int level) {
+        return (_next + (1L << level) - 1) >> level;
+    }
+
+    /**
+     * Returns the minimum of the rows index*2^level to (index+1)*2^level-1.
+     *
+     * @param level The level (BASE_LEVEL to getLevels())
+     * @param index The absolute index in the level
+     * @return The minimum
+     */
+    public int getMin(int level, long index) {
+        return _min[level - BASE_LEVEL][(int) (index - (_first >> level))];
+    }
+
+    /**
+     * Returns the maximum of the rows index*2^level to (index+1)*2^level-1.
+     *
+     * @param level The level (BASE_LEVEL to getLevels())
+     * @param index The absolute index in the level
+     * @return The maximum
+     */
+    public int getMax(int level, long index) {
+        return _max[level - BASE_LEVEL][(int) (index - (_first >> level))];
+    }
+
+    /**
+     * Returns the number of values added.
+     *
+     * @return The number of values
+     */
+    public long size() {
+        return _next;
+    }
+
+    /**
+     * Remove all values.
+     */
+    public void clear() {
+        for (int i = 0; i < _min.length; i++) {
+            _min[i] = null;
+            _max[i] = null;
+        }
+        _top = BASE_LEVEL - 1;
+        _first = 0;
+        _next = 0;
+    }
+}
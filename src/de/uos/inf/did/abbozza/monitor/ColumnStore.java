@@ -0,0 +1,444 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A columnar, bounded store for the rows of the table monitor.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * The store keeps the rows column by column in chunks of CHUNK_ROWS rows.
+ * Each chunk consists of primitive arrays for the timestamps, the system
+ * times, the corrected host times and the values of each channel.
+ *
+ * The number of chunks kept on the heap is limited. If the limit is reached,
+ * the oldest chunk on the heap is either dropped or, if spilling is enabled,
+ * written to a memory mapped temporary file, from which it can still be read.
+ * The number of spilled chunks is limited, too. The file consists of slots of
+ * one chunk each, which are mapped once. If all slots are used, the oldest
+ * spilled chunk is dropped and its slot is reused, hence the file does not
+ * grow beyond the limit.
+ *
+ * Rows are addressed by their index relative to the oldest kept row. The
+ * absolute index of this row is returned by getOffset().
+ *
+ * @author mbrinkmeier
+ */
+public class ColumnStore {
+
+    public static final long DEFAULT_SPILL_ROWS = 1 << 22;
+    public static final int CHUNK_BITS = 12;
+    public static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    /**
+     * A chunk of rows. If it is spilled, the arrays are null and the data is
+     * read from the mapped slot.
+     */
+    private class Chunk {
+
+        long timestamps[];
+        long sysTimes[];
+        long hostTimes[];
+        int values[][];
+        MappedByteBuffer spilled;
+
+        Chunk() {
+            timestamps = new long[CHUNK_ROWS];
+            sysTimes = new long[CHUNK_ROWS];
+            hostTimes = new long[CHUNK_ROWS];
+            values = new int[_channels][CHUNK_ROWS];
+        }
+    }
+
+    private final int _channels;
+    private final ArrayList<Chunk> _chunks;
+    private int _maxHeapChunks;
+    private int _maxSpillChunks;
+    private int _firstHeapChunk;   // The index of the oldest chunk on the heap
+    private long _offset;          // The absolute index of the oldest row
+    private long _next;            // The absolute index of the next row
+
+    private boolean _spill;
+    private File _spillFile;
+    private RandomAccessFile _spillAccess;
+    private final ArrayList<MappedByteBuffer> _slots;
+    private final ArrayDeque<MappedByteBuffer> _freeSlots;
+
+    /**
+     * Creates a new store.
+     *
+     * @param channels The number of value columns
+     * @param maxRows The maximum number of rows kept on the heap
+     * @param spill If true, old chunks are written to a temporary file instead
+     * of being dropped
+     */
+    public ColumnStore(int channels, long maxRows, boolean spill) {
+        this(channels, maxRows, spill, DEFAULT_SPILL_ROWS);
+    }
+
+    /**
+     * Creates a new store.
+     *
+     * @param channels The number of value columns
+     * @param maxRows The maximum number of rows kept on the heap
+     * @param spill If true, old chunks are written to a temporary file instead
+     * of being dropped
+     * @param maxSpillRows The maximum number of rows kept in the temporary file
+     */
+    public ColumnStore(int channels, long maxRows, boolean spill, long maxSpillRows) {
+        _channels = channels;
+        _chunks = new ArrayList<>();
+        _slots = new ArrayList<>();
+        _freeSlots = new ArrayDeque<>();
+        _spill = spill;
+        setMaxRows(maxRows);
+        _maxSpillChunks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (maxSpillRows + CHUNK_ROWS - 1) / CHUNK_ROWS));
+        _firstHeapChunk = 0;
+        _offset = 0;
+        _next = 0;
+    }
+
+    /**
+     * Returns the number of bytes a row occupies on the heap.
+     *
+     * @param channels The number of value columns
+     * @return The number of bytes per row
+     */
+    public static int getRowBytes(int channels) {
+        return 24 + 4 * channels;
+    }
+
+    /**
+     * Set the maximum number of rows kept on the heap. It is rounded up to a
+     * multiple of CHUNK_ROWS.
+     *
+     * @param maxRows The maximum number of rows
+     */
+    public final void setMaxRows(long maxRows) {
+        _maxHeapChunks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (maxRows + CHUNK_ROWS - 1) / CHUNK_ROWS));
+    }
+
+    /**
+     * Append a row.
+     *
+     * @param timestamp The timestamp sent by the board
+     * @param vals The values, at least as many as there are channels
+     * @param sysTime The system time of the reception
+     * @param hostTime The host time corresponding to the timestamp
+     * @return The number of rows dropped from the beginning
+     */
+    public int add(long timestamp, int[] vals, long sysTime, long hostTime) {
+        return add(timestamp, vals, 0, sysTime, hostTime);
+    }
+
+    /**
+     * Append a row, whose values are taken from a range of an array.
+     *
+     * @param timestamp The timestamp sent by the board
+     * @param vals The array containing the values
+     * @param off The index of the value of the first channel
+     * @param sysTime The system time of the reception
+     * @param hostTime The host time corresponding to the timestamp
+     * @return The number of rows dropped from the beginning
+     */
+    public int add(long timestamp, int[] vals, int off, long sysTime, long hostTime) {
+        int dropped = 0;
+        int pos = (int) (_next & CHUNK_MASK);
+        if (pos == 0) {
+            dropped = makeRoom();
+            _chunks.add(new Chunk());
+        }
+        Chunk chunk = _chunks.get(_chunks.size() - 1);
+        chunk.timestamps[pos] = timestamp;
+        chunk.sysTimes[pos] = sysTime;
+        chunk.hostTimes[pos] = hostTime;
+        for (int i = 0; i < _channels; i++) {
+            chunk.values[i][pos] = vals[off + i];
+        }
+        _next++;
+        return dropped;
+    }
+
+    /**
+     * Ensures, that a new chunk fits on the heap, by spilling or dropping the
+     * oldest chunk on the heap. If all slots of the spill file are used, the
+     * oldest spilled chunk is dropped to free one.
+     *
+     * @return The number of dropped rows
+     */
+    private int makeRoom() {
+        if (_chunks.size() - _firstHeapChunk < _maxHeapChunks) {
+            return 0;
+        }
+        int dropped = 0;
+        if (_spill) {
+            if (_firstHeapChunk >= _maxSpillChunks) {
+                dropped += dropOldest();
+            }
+            if (spill(_chunks.get(_firstHeapChunk))) {
+                _firstHeapChunk++;
+                return dropped;
+            }
+        }
+        // The rows have to stay contiguous, hence the spilled chunks are
+        // dropped together with the oldest chunk on the heap
+        boolean onHeap;
+        do {
+            onHeap = (_firstHeapChunk == 0);
+            dropped += dropOldest();
+        } while (!onHeap);
+        return dropped;
+    }
+
+    /**
+     * Drop the oldest chunk. If it is spilled, its slot becomes free.
+     *
+     * @return The number of dropped rows
+     */
+    private int dropOldest() {
+        Chunk chunk = _chunks.remove(0);
+        if (chunk.spilled != null) {
+            _freeSlots.add(chunk.spilled);
+            _firstHeapChunk--;
+        }
+        _offset = _offset + CHUNK_ROWS;
+        return CHUNK_ROWS;
+    }
+
+    /**
+     * Write the chunk into a free slot of the spill file and replace its
+     * arrays by the mapped slot. If there is no free slot, the file is
+     * extended by one.
+     *
+     * @param chunk The chunk to be spilled
+     * @return true if successful
+     */
+    private boolean spill(Chunk chunk) {
+        try {
+            if (_spillAccess == null) {
+                _spillFile = File.createTempFile("abbozza-monitor", ".dat");
+                _spillFile.deleteOnExit();
+                _spillAccess = new RandomAccessFile(_spillFile, "rw");
+            }
+            MappedByteBuffer buf = _freeSlots.poll();
+            if (buf == null) {
+                long size = (long) getRowBytes(_channels) * CHUNK_ROWS;
+                buf = _spillAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, _slots.size() * size, size);
+                _slots.add(buf);
+            }
+            buf.position(0);
+            buf.asLongBuffer().put(chunk.timestamps).put(chunk.sysTimes).put(chunk.hostTimes);
+            buf.position(24 * CHUNK_ROWS);
+            for (int i = 0; i < _channels; i++) {
+                buf.asIntBuffer().put(chunk.values[i]);
+                buf.position(buf.position() + 4 * CHUNK_ROWS);
+            }
+            buf.position(0);
+            chunk.spilled = buf;
+            chunk.timestamps = null;
+            chunk.sysTimes = null;
+            chunk.hostTimes = null;
+            chunk.values = null;
+            return true;
+        } catch (IOException ex) {
+            AbbozzaLogger.err("ColumnStore: Could not spill rows to " + _spillFile + ", dropping them");
+            _spill = false;
+            return false;
+        }
+    }
+
+    private Chunk getChunk(int row) {
+        return _chunks.get((int) (((_offset + row) >> CHUNK_BITS) - (_offset >> CHUNK_BITS)));
+    }
+
+    /**
+     * Returns the timestamp of a row.
+     *
+     * @param row The row relative to the oldest kept one
+     * @return The timestamp
+     */
+    public long getTimestamp(int row) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            return chunk.spilled.getLong(8 * pos);
+        }
+        return chunk.timestamps[pos];
+    }
+
+    /**
+     * Returns the system time of a row.
+     *
+     * @param row The row relative to the oldest kept one
+     * @return The system time
+     */
+    public long getSysTime(int row) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            return chunk.spilled.getLong(8 * (CHUNK_ROWS + pos));
+        }
+        return chunk.sysTimes[pos];
+    }
+
+    /**
+     * Returns the host time corresponding to the timestamp of a row.
+     *
+     * @param row The row relative to the oldest kept one
+     * @return The host time
+     */
+    public long getHostTime(int row) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            return chunk.spilled.getLong(8 * (2 * CHUNK_ROWS + pos));
+        }
+        return chunk.hostTimes[pos];
+    }
+
+    /**
+     * Returns a value of a row.
+     *
+     * @param row The row relative to the oldest kept one
+     * @param channel The channel
+     * @return The value
+     */
+    public int getValue(int row, int channel) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            return chunk.spilled.getInt(24 * CHUNK_ROWS + 4 * (channel * CHUNK_ROWS + pos));
+        }
+        return chunk.values[channel][pos];
+    }
+
+    public void setTimestamp(int row, long timestamp) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            chunk.spilled.putLong(8 * pos, timestamp);
+        } else {
+            chunk.timestamps[pos] = timestamp;
+        }
+    }
+
+    public void setSysTime(int row, long sysTime) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            chunk.spilled.putLong(8 * (CHUNK_ROWS + pos), sysTime);
+        } else {
+            chunk.sysTimes[pos] = sysTime;
+        }
+    }
+
+    public void setHostTime(int row, long hostTime) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            chunk.spilled.putLong(8 * (2 * CHUNK_ROWS + pos), hostTime);
+        } else {
+            chunk.hostTimes[pos] = hostTime;
+        }
+    }
+
+    public void setValue(int row, int channel, int value) {
+        Chunk chunk = getChunk(row);
+        int pos = (int) ((_offset + row) & CHUNK_MASK);
+        if (chunk.spilled != null) {
+            chunk.spilled.putInt(24 * CHUNK_ROWS + 4 * (channel * CHUNK_ROWS + pos), value);
+        } else {
+            chunk.values[channel][pos] = value;
+        }
+    }
+
+    /**
+     * Returns the number of kept rows.
+     *
+     * @return The number of rows
+     */
+    public int size() {
+        return (int) (_next - _offset);
+    }
+
+    /**
+     * Returns the absolute index of the oldest kept row.
+     *
+     * @return The absolute index of row 0
+     */
+    public long getOffset() {
+        return _offset;
+    }
+
+    public int getChannels() {
+        return _channels;
+    }
+
+    /**
+     * Remove all rows. The slots of the spill file are kept for reuse, hence
+     * the file is not deleted while it is mapped.
+     */
+    public void clear() {
+        _chunks.clear();
+        _freeSlots.clear();
+        _freeSlots.addAll(_slots);
+        _firstHeapChunk = 0;
+        _offset = 0;
+        _next = 0;
+    }
+
+    /**
+     * Remove all rows and release the spill file. The store must not be used
+     * afterwards.
+     *
+     * Java offers no way to unmap a region explicitly, it is unmapped if the
+     * buffer is garbage collected. Hence all references to the slots are
+     * dropped and the channel is closed before the file is deleted. If the
+     * platform refuses to delete a file which is still mapped, it is deleted
+     * on exit.
+     */
+    public void close() {
+        clear();
+        _freeSlots.clear();
+        _slots.clear();
+        if (_spillAccess != null) {
+            try {
+                _spillAccess.close();
+            } catch (IOException ex) {
+                AbbozzaLogger.err("ColumnStore: Could not close " + _spillFile);
+            }
+            _spillAccess = null;
+            if (!_spillFile.delete()) {
+                AbbozzaLogger.out("ColumnStore: " + _spillFile + " will be deleted on exit", AbbozzaLogger.DEBUG);
+            }
+        }
+    }
+}
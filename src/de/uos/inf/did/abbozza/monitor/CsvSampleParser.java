@@ -0,0 +1,371 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A parser for the sample lines of the table monitor.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import de.uos.inf.did.abbozza.monitor.clacks.CaptureClock;
+
+/**
+ * The parser reads lines of the form
+ * &lt;types&gt;,&lt;timestamp&gt;,&lt;value0&gt;,...,&lt;valueN-1&gt;
+ * and adds them to a table model. N is the number of channels of the model,
+ * five by default.
+ *
+ * The numbers are read character by character, without creating strings or
+ * arrays. A value may be a fixed-point number. It is stored as an int
+ * scaled by 10^scale, where scale is taken from the channel. Surplus fraction
+ * digits are cut off. The values of hidden channels are skipped.
+ *
+ * A line starting with '#' declares the channels:
+ * #&lt;name&gt;:&lt;type&gt;:&lt;unit&gt;:&lt;scale&gt;,...
+ * with one entry per channel. Trailing parts of an entry may be omitted. The
+ * default type is '2', the default scale 0.
+ *
+ * Malformed lines are dropped and counted instead of throwing exceptions.
+ *
+ * @author mbrinkmeier
+ */
+public class CsvSampleParser {
+
+    private static final int POWERS[] = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    private final TableMonitorModel _model;
+    private int _values[];
+
+    // The state of the current line
+    private int _pos;
+    private long _number;
+    private long _captureTime;
+
+    // Counters
+    private long _lines;
+    private long _rows;
+    private long _malformedFields;
+    private long _missingFields;
+    private long _overflows;
+    private long _headers;
+
+    /**
+     * Creates a new parser.
+     *
+     * @param model The table model receiving the rows
+     */
+    public CsvSampleParser(TableMonitorModel model) {
+        _model = model;
+        _values = new int[model.getChannelCount()];
+        reset();
+    }
+
+    /**
+     * Parse a line and add it to the table model.
+     *
+     * @param line The line without the line break
+     * @return true if a row was added
+     */
+    public boolean parse(CharSequence line) {
+        return parse(line, CaptureClock.now());
+    }
+
+    /**
+     * Parse a line and add it to the table model.
+     *
+     * @param line The line without the line break
+     * @param captureTime The capture time of the line, see CaptureClock
+     * @return true if a row was added
+     */
+    public boolean parse(CharSequence line, long captureTime) {
+        _captureTime = captureTime;
+        return parseLine(line);
+    }
+
+    private boolean parseLine(CharSequence line) {
+        int len = line.length();
+        _lines++;
+        _pos = 0;
+        if ((len > 0) && (line.charAt(0) == '#')) {
+            return parseHeader(line.toString());
+        }
+        int channels = _model.getChannelCount();
+        if (_values.length != channels) {
+            _values = new int[channels];
+        }
+
+        // The types of the channels
+        while ((_pos < len) && (line.charAt(_pos) != ',')) {
+            _pos++;
+        }
+        if (_pos >= len) {
+            _missingFields++;
+            return false;
+        }
+        if (_pos == channels) {
+            for (int i = 0; i < channels; i++) {
+                _model.setType(i, line.charAt(i));
+            }
+        }
+        _pos++;
+
+        // The timestamp
+        if (!parseNumber(line, len, 0, Long.MIN_VALUE, Long.MAX_VALUE) || !separator(line, len, true)) {
+            return false;
+        }
+        long timestamp = _number;
+
+        // The values
+        for (int i = 0; i < channels; i++) {
+            boolean last = (i == channels - 1);
+            MonitorChannel channel = _model.getChannel(i);
+            if (!channel.isVisible()) {
+                skipField(line, len);
+                _values[i] = 0;
+            } else if (!parseNumber(line, len, channel.getScale(), Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+                return false;
+            } else {
+                _values[i] = (int) _number;
+            }
+            if (!separator(line, len, !last)) {
+                return false;
+            }
+        }
+
+        _model.addRow(timestamp, _values, _captureTime);
+        _rows++;
+        return true;
+    }
+
+    /**
+     * Read a (fixed-point) number starting at the current position into
+     * _number. Leading whitespace is skipped.
+     *
+     * @return false if the field is malformed
+     */
+    private boolean parseNumber(CharSequence line, int len, int decimals, long min, long max) {
+        skipWhitespace(line, len);
+        if (_pos >= len) {
+            _missingFields++;
+            return false;
+        }
+        boolean negative = false;
+        char c = line.charAt(_pos);
+        if ((c == '-') || (c == '+')) {
+            negative = (c == '-');
+            _pos++;
+        }
+
+        // The integral part is accumulated as a negative number, to cover
+        // the minimum value
+        long limit = negative ? min : -max;
+        long value = 0;
+        int digits = 0;
+        boolean overflow = false;
+        while ((_pos < len) && ((c = line.charAt(_pos)) >= '0') && (c <= '9')) {
+            if (value < (limit + (c - '0')) / 10) {
+                overflow = true;
+            } else {
+                value = value * 10 - (c - '0');
+            }
+            digits++;
+            _pos++;
+        }
+
+        // The fraction
+        int fraction = 0;
+        int fracDigits = 0;
+        if ((_pos < len) && (line.charAt(_pos) == '.')) {
+            _pos++;
+            while ((_pos < len) && ((c = line.charAt(_pos)) >= '0') && (c <= '9')) {
+                if (fracDigits < decimals) {
+                    fraction = fraction * 10 + (c - '0');
+                    fracDigits++;
+                }
+                digits++;
+                _pos++;
+            }
+        }
+        if (digits == 0) {
+            _malformedFields++;
+            return false;
+        }
+
+        // Scale the number
+        if (decimals > 0) {
+            fraction = fraction * POWERS[decimals - fracDigits];
+            if (value < (limit + fraction) / POWERS[decimals]) {
+                overflow = true;
+            } else {
+                value = value * POWERS[decimals] - fraction;
+            }
+        }
+        if (overflow) {
+            _overflows++;
+            return false;
+        }
+        _number = negative ? value : -value;
+        return true;
+    }
+
+    /**
+     * Parse the declaration of the channels and pass it to the model.
+     *
+     * @param line The line starting with '#'
+     * @return false, since no row is added
+     */
+    private boolean parseHeader(String line) {
+        String entries[] = line.substring(1).split(",");
+        MonitorChannel channels[] = new MonitorChannel[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String parts[] = entries[i].split(":", -1);
+            String name = parts[0].trim();
+            char type = '2';
+            String unit = null;
+            int scale = 0;
+            if ((parts.length > 1) && (parts[1].trim().length() > 0)) {
+                type = parts[1].trim().charAt(0);
+            }
+            if (parts.length > 2) {
+                unit = parts[2].trim();
+            }
+            if ((parts.length > 3) && (parts[3].trim().length() > 0)) {
+                try {
+                    scale = Integer.parseInt(parts[3].trim());
+                } catch (NumberFormatException ex) {
+                    _malformedFields++;
+                }
+            }
+            channels[i] = new MonitorChannel(i, (name.length() > 0) ? name : null, type, unit, scale);
+        }
+        _model.setChannels(channels);
+        _headers++;
+        return false;
+    }
+
+    /**
+     * Skip the current field without decoding it.
+     */
+    private void skipField(CharSequence line, int len) {
+        while ((_pos < len) && (line.charAt(_pos) != ',')) {
+            _pos++;
+        }
+    }
+
+    /**
+     * Skip trailing whitespace and check for a comma or the end of the line.
+     *
+     * @param comma true, if a comma is expected
+     * @return true, if the expected separator was found
+     */
+    private boolean separator(CharSequence line, int len, boolean comma) {
+        skipWhitespace(line, len);
+        if (comma) {
+            if ((_pos < len) && (line.charAt(_pos) == ',')) {
+                _pos++;
+                return true;
+            }
+            if (_pos >= len) {
+                _missingFields++;
+            } else {
+                _malformedFields++;
+            }
+            return false;
+        }
+        if (_pos < len) {
+            _malformedFields++;
+            return false;
+        }
+        return true;
+    }
+
+    private void skipWhitespace(CharSequence line, int len) {
+        while ((_pos < len) && (line.charAt(_pos) <= ' ')) {
+            _pos++;
+        }
+    }
+
+    /**
+     * Reset the counters.
+     */
+    public final void reset() {
+        _lines = 0;
+        _rows = 0;
+        _malformedFields = 0;
+        _missingFields = 0;
+        _overflows = 0;
+        _headers = 0;
+    }
+
+    /**
+     * Returns the number of parsed lines.
+     *
+     * @return The number of lines
+     */
+    public long getLines() {
+        return _lines;
+    }
+
+    /**
+     * Returns the number of rows added to the table model.
+     *
+     * @return The number of rows
+     */
+    public long getRows() {
+        return _rows;
+    }
+
+    /**
+     * Returns the number of fields which are no numbers or are followed by
+     * garbage.
+     *
+     * @return The number of malformed fields
+     */
+    public long getMalformedFields() {
+        return _malformedFields;
+    }
+
+    /**
+     * Returns the number of lines which ended too early.
+     *
+     * @return The number of missing fields
+     */
+    public long getMissingFields() {
+        return _missingFields;
+    }
+
+    /**
+     * Returns the number of numbers out of range.
+     *
+     * @return The number of overflows
+     */
+    public long getOverflows() {
+        return _overflows;
+    }
+
+    /**
+     * Returns the number of channel declarations.
+     *
+     * @return The number of header lines
+     */
+    public long getHeaders() {
+        return _headers;
+    }
+}
@@ -29,7 +29,11 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
-import java.util.Enumeration;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.SwingUtilities;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 
@@ -49,13 +53,47 @@ public class Graph extends javax.swing.JPanel implements TableModelListener {
     private int xZoom = 1;
     private int yZoom = 1;
     
-    private Color colors[] = {
-        Color.RED,
-        new Color(0,200,0),
-        new Color(0,0,255),
-        Color.ORANGE,
-        Color.MAGENTA
+    // Each pixel column shows 2^xLevel rows
+    private int xLevel = 0;
+    public static final int MAX_XLEVEL = 20;
+    
+    // The mapping of channel values to y coordinates
+    private long yTop[] = new long[5];
+    private long yFactor[] = new long[5];
+    private long yDiv[] = new long[5];
+    
+    // The cache of offscreen tiles
+    private static final int TILE_WIDTH = 256;
+    private static final int MAX_TILES = 32;
+    private final LinkedHashMap<Integer,GraphTile> tiles = new LinkedHashMap<Integer,GraphTile>(MAX_TILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer,GraphTile> eldest) {
+            return size() > MAX_TILES;
+        }
     };
+    private int tileHeight = -1;
+    private int tileLevel = 0;
+    private char tileTypes[] = new char[5];
+    
+    /**
+     * An offscreen image of TILE_WIDTH pixel columns of the graph.
+     */
+    private class GraphTile {
+        BufferedImage image;
+        int columns;    // The index of the first column not drawn yet
+        
+        GraphTile(int index) {
+            image = new BufferedImage(TILE_WIDTH, getHeight(), BufferedImage.TYPE_INT_RGB);
+            columns = index * TILE_WIDTH / xZoom;
+            Graphics2D g = image.createGraphics();
+            g.translate(-index * TILE_WIDTH, 0);
+            paintBackground(g, index * TILE_WIDTH, (index + 1) * TILE_WIDTH);
+            g.dispose();
+        }
+    }
+    
+    private final RepaintLimiter repaintLimiter = new RepaintLimiter(this, this::updateSize);
+    
     private Color background = Color.WHITE;
     private Color marks = Color.BLACK;
     
@@ -74,6 +112,21 @@ public class Graph extends javax.swing.JPanel implements TableModelListener {
         colors[4] = Color.MAGENTA;
         */
         this.setPreferredSize(new Dimension(512,getHeight()));
+        initZoom();
+    }
+    
+    /**
+     * Zoom horizontally with the mouse wheel while the control key is pressed.
+     * Otherwise the wheel event is passed to the enclosing scroll pane.
+     */
+    private void initZoom() {
+        this.addMouseWheelListener((MouseWheelEvent e) -> {
+            if ( e.isControlDown() ) {
+                setXLevel(xLevel + e.getWheelRotation());
+            } else if ( getParent() != null ) {
+                getParent().dispatchEvent(SwingUtilities.convertMouseEvent(this, e, getParent()));
+            }
+        });
     }
     
     /**
@@ -95,6 +148,7 @@ public class Graph extends javax.swing.JPanel implements TableModelListener {
         */
         // at most a tenth of a second
         this.setPreferredSize(new Dimension(512,getHeight()));
+        initZoom();
     }
 
     /**
@@ -121,45 +175,112 @@ public class Graph extends javax.swing.JPanel implements TableModelListener {
 
     public void setTableModel(TableMonitorModel model) {
         myTable = model;
-            int width = 0;
-            if ( xType == TIMESTAMP ) {
-                width = (int) ((myTable.getMaxTimestamp()-myTable.getMinTimestamp())/100);
-            } else {
-                width = myTable.getRowCount();
-            }
         myTable.addTableModelListener(this);
+        int width = getGraphWidth();
         this.setPreferredSize(new Dimension(width,getHeight()));
         this.scrollRectToVisible(new Rectangle(width-1,0,width,0));
         this.revalidate();
     }
     
-    public void paint(Graphics gr) {
+    /**
+     * Returns the width of the complete graph in pixels.
+     * 
+     * @return The width
+     */
+    private int getGraphWidth() {
+        if ( xType == TIMESTAMP ) {
+            return (int) ((myTable.getMaxTimestamp()-myTable.getMinTimestamp())/100);
+        } else {
+            long offset = myTable.getRowOffset();
+            long end = offset + myTable.getRowCount();
+            return (int) (((end + (1L << xLevel) - 1) >> xLevel) - (offset >> xLevel));
+        }
+    }
+    
+    /**
+     * Set the horizontal resolution. Each pixel column shows 2^level rows.
+     * 
+     * @param level The level of the min/max pyramid to be used
+     */
+    public void setXLevel(int level) {
+        if ( level < 0 ) level = 0;
+        if ( level > MAX_XLEVEL ) level = MAX_XLEVEL;
+        if ( level == xLevel ) return;
         
-        // Fill background
-        Graphics2D gr2d = (Graphics2D) gr;
-        gr.setColor(background);
-        gr.fillRect(0,0,getWidth(), getHeight());
-
+        // Keep the right border of the visible rectangle at the same row
+        Rectangle rect = getVisibleRect();
+        long row = ((long) (rect.x + rect.width)) << xLevel;
+        xLevel = level;
+        tiles.clear();
+        int width = getGraphWidth();
+        this.setPreferredSize(new Dimension(width,getHeight()));
+        this.revalidate();
+        int x = (int) (row >> xLevel);
+        this.scrollRectToVisible(new Rectangle(Math.max(0,x-rect.width),0,rect.width,getHeight()));
+        this.repaint();
+    }
+    
+    public int getXLevel() {
+        return xLevel;
+    }
+    
+    /**
+     * Computes the coefficients of the mapping of a channels values to y
+     * coordinates, depending on the channels type. The y coordinate is
+     * (height-1)*(yTop-yFactor*value)/yDiv.
+     */
+    private void computeMapping() {
+        int count = myTable.getChannelCount();
+        if ( yTop.length != count ) {
+            yTop = new long[count];
+            yFactor = new long[count];
+            yDiv = new long[count];
+        }
+        for (int i = 0; i < count; i++) {
+            switch ( myTable.getType(i) ) {
+                case '0' :  // digital
+                    yTop[i] = 6; yFactor[i] = 5; yDiv[i] = 7;
+                    break;  
+                case '1' :  // 0 .. 1023
+                    yTop[i] = 1023; yFactor[i] = 1; yDiv[i] = 1023;
+                    break;
+                case '2' :  // 0 .. 65535
+                    yTop[i] = 65535; yFactor[i] = 1; yDiv[i] = 65535;
+                    break;
+                case '3' :  // -32768 .. 32767
+                    yTop[i] = 32767; yFactor[i] = 1; yDiv[i] = 65535;
+                    break;
+                case '4':  // -1024 .. 1023
+                    yTop[i] = 1023; yFactor[i] = 1; yDiv[i] = 2047;
+                    break;
+                default:   // the raw value
+                    yTop[i] = 0; yFactor[i] = -1; yDiv[i] = Math.max(1,getHeight()-1);
+            }
+        }
+    }
+    
+    private int toY(int channel, int value) {
+        return (int) ((long) (getHeight()-1)*(yTop[channel]-yFactor[channel]*(long) value)/yDiv[channel]);
+    }
+    
+    public void paint(Graphics gr) {
         Rectangle rect = this.getVisibleRect();
         
-        // Draw marks
-        // Digital marks
-        gr.setColor(marks);
-        gr.drawLine(rect.x, (getHeight()-1)*6/7, rect.x+rect.width, (getHeight()-1)*6/7);
-        gr.drawLine(rect.x, (getHeight()-1)*1/7, rect.x+rect.width, (getHeight()-1)*1/7);
-        gr.drawString("low", rect.x + rect.width - 30, (getHeight()-1)*6/7 - 2);
-        gr.drawString("high", rect.x + rect.width - 30, (getHeight()-1)*1/7 + 13);
+        computeMapping();
+        if ( xType == TIMESTAMP ) {
+            paintBackground(gr, rect.x, rect.x+rect.width);
+            paintByTimestamp(gr, rect);
+        } else {
+            paintTiles(gr, rect);
+        }
         
-        // 10 and 16 Bit marks
+        // Draw the labels
         int y1 = (getHeight()-1)*(1023-256)/1023;
         int y2 = (getHeight()-1)*(1023-512)/1023;
         int y3 = (getHeight()-1)*(1023-768)/1023;
-        for (int i=0; i < rect.width; i=i+20) {
-            gr.drawLine(rect.x+i,y1,rect.x+i+10,y1);
-            gr.drawLine(rect.x+i,y2,rect.x+i+10,y2);
-            gr.drawLine(rect.x+i,y3,rect.x+i+10,y3);
-        }
-        
+        gr.setColor(marks);
+        gr.drawString("low", rect.x + rect.width - 30, (getHeight()-1)*6/7 - 2);
+        gr.drawString("high", rect.x + rect.width - 30, (getHeight()-1)*1/7 + 13);
         gr.drawString("512",rect.x+5,y2-2);
         gr.drawString("768",rect.x+5,y3-2);
         gr.drawString("256",rect.x+5,y1-2);
@@ -167,65 +288,191 @@ public class Graph extends javax.swing.JPanel implements TableModelListener {
         gr.drawString("49152",rect.x+rect.width/2-15,y3-2);
         gr.drawString("16348",rect.x+rect.width/2-15,y1-2);
         
-        int row = 0;
-        Enumeration<TableMonitorModel.Entry> en = myTable.getEntries();
-        while ( en.hasMoreElements() ) {
-            TableMonitorModel.Entry entry = en.nextElement();
-            for (int i = 0; i < 5; i++) {
-                gr.setColor(colors[i]);
-                int x = 0;
-                int y = entry.values[i];
-                switch ( myTable.getType(i) ) {
-                    case '0' :  // digital
-                        y = (getHeight()-1)*(6-5*y)/7;
-                        break;  
-                    case '1' :  // 0 .. 1023
-                        y = (getHeight()-1)*(1023-y)/1023;
-                        break;
-                    case '2' :  // 0 .. 65535
-                        y = (getHeight()-1)*(65535-y)/65535;
-                        break;
-                    case '3' :  // -32768 .. 32767
-                        y = (getHeight()-1)*(32767-y)/65535;
-                        break;
-                    case '4':  // -1024 .. 1023
-                        y = (getHeight()-1)*(1023-y)/2047;
+        int line = 0;
+        for ( int i = 0; i < myTable.getChannelCount(); i++ ) {
+            MonitorChannel channel = myTable.getChannel(i);
+            if ( !channel.isVisible() ) continue;
+            gr.setColor(channel.getColor());
+            gr.drawString(channel.getName("Kanal ", i), rect.x+15, rect.y+15+line*15);
+            line++;
+        }
+    }
+    
+    /**
+     * Fill the background and draw the marks between the pixel columns x0
+     * and x1. The dashes of the marks are aligned to the absolute position,
+     * so that adjacent strips fit together.
+     * 
+     * @param gr The graphics context
+     * @param x0 The first pixel column
+     * @param x1 The pixel column after the strip
+     */
+    private void paintBackground(Graphics gr, int x0, int x1) {
+        if ( x1 <= x0 ) return;
+        gr.setColor(background);
+        gr.fillRect(x0,0,x1-x0,getHeight());
+        
+        // Digital marks
+        gr.setColor(marks);
+        gr.drawLine(x0, (getHeight()-1)*6/7, x1-1, (getHeight()-1)*6/7);
+        gr.drawLine(x0, (getHeight()-1)*1/7, x1-1, (getHeight()-1)*1/7);
+        
+        // 10 and 16 Bit marks
+        int y1 = (getHeight()-1)*(1023-256)/1023;
+        int y2 = (getHeight()-1)*(1023-512)/1023;
+        int y3 = (getHeight()-1)*(1023-768)/1023;
+        for (int x = x0 - (x0 % 20); x < x1; x = x+20) {
+            int a = Math.max(x,x0);
+            int b = Math.min(x+10,x1-1);
+            if ( a > b ) continue;
+            gr.drawLine(a,y1,b,y1);
+            gr.drawLine(a,y2,b,y2);
+            gr.drawLine(a,y3,b,y3);
+        }
+    }
+    
+    /**
+     * Drop all tiles if the height, the resolution or the channel types
+     * changed. Changes of the channels themselves are announced by the model
+     * and handled in tableChanged().
+     */
+    private void validateTiles() {
+        boolean valid = (tileHeight == getHeight()) && (tileLevel == xLevel);
+        int count = myTable.getChannelCount();
+        if ( tileTypes.length != count ) {
+            tileTypes = new char[count];
+            valid = false;
+        }
+        for (int i = 0; i < count; i++) {
+            valid = valid && (tileTypes[i] == myTable.getType(i));
+            tileTypes[i] = myTable.getType(i);
+        }
+        if ( !valid ) {
+            tiles.clear();
+            tileHeight = getHeight();
+            tileLevel = xLevel;
+        }
+    }
+    
+    /**
+     * Blit the tiles covering the visible rectangle. Only the columns which
+     * changed since the tile was drawn last are drawn into it.
+     * 
+     * @param gr The graphics context
+     * @param rect The visible rectangle
+     */
+    private void paintTiles(Graphics gr, Rectangle rect) {
+        if ( getHeight() <= 0 ) return;
+        validateTiles();
+        long offset = myTable.getRowOffset();
+        long end = offset + myTable.getRowCount();
+        int total = getGraphWidth();                                       // columns with data
+        int complete = (int) ((end >> xLevel) - (offset >> xLevel));     // columns which won't change
+        int t0 = rect.x / TILE_WIDTH;
+        int t1 = (rect.x + rect.width - 1) / TILE_WIDTH;
+        for (int t = t0; t <= t1; t++) {
+            GraphTile tile = tiles.get(t);
+            if ( tile == null ) {
+                tile = new GraphTile(t);
+                tiles.put(t, tile);
+            }
+            int c0 = t * TILE_WIDTH / xZoom;
+            int c1 = (t + 1) * TILE_WIDTH / xZoom;
+            int need = Math.max(c0, Math.min(total, c1));
+            if ( tile.columns < need ) {
+                Graphics2D g = tile.image.createGraphics();
+                g.translate(-t * TILE_WIDTH, 0);
+                paintBackground(g, tile.columns * xZoom, Math.max(need * xZoom, (t+1) * TILE_WIDTH));
+                paintColumns(g, tile.columns, need);
+                g.dispose();
+            }
+            // The last column may be incomplete and is drawn again
+            tile.columns = Math.max(c0, Math.min(complete, c1));
+            gr.drawImage(tile.image, t * TILE_WIDTH, 0, null);
+        }
+    }
+    
+    /**
+     * Draw the columns c0 to c1-1. If a column contains several rows, the
+     * minimum and maximum are taken from the table model. Column 0 is the
+     * group containing the first row of the table.
+     * 
+     * @param gr The graphics context
+     * @param c0 The first column
+     * @param c1 The column after the last one
+     */
+    private void paintColumns(Graphics gr, int c0, int c1) {
+        int rows = myTable.getRowCount();
+        long first = myTable.getRowOffset() >> xLevel;
+        int minMax[] = new int[2];
+        for (int i = 0; i < myTable.getChannelCount(); i++) {
+            MonitorChannel channel = myTable.getChannel(i);
+            if ( !channel.isVisible() ) continue;
+            gr.setColor(channel.getColor());
+            if ( xLevel == 0 ) {
+                for (int x = c0; (x < c1) && (x < rows); x++) {
+                    int y = toY(i, myTable.getValue(x,i));
+                    gr.fillRect(x*xZoom,y*yZoom, 1, 1);          
                 }
-                if ( xType == TIMESTAMP ) {
-                    x = (int) (entry.timestamp/100);
-                } else if ( xType == ROWCOUNT ) {
-                    x = row;
+            } else {
+                for (int x = c0; (x < c1) && myTable.getMinMax(i, xLevel, first + x, minMax); x++) {
+                    int ya = toY(i, minMax[0]);
+                    int yb = toY(i, minMax[1]);
+                    int top = Math.min(ya,yb);
+                    gr.fillRect(x*xZoom,top*yZoom, 1, (Math.max(ya,yb)-top)*yZoom+1);
                 }
-                gr.fillRect(x*xZoom,y*yZoom, 1, 1);          
             }
-            row++;
         }
-        
-        for ( int i = 0; i < 5; i++ ) {
-            gr.setColor(colors[i]);
-            gr.drawString("Kanal " + (i+1) , rect.x+15, rect.y+15+i*15);
+    }
+    
+    /**
+     * Draw the rows whose timestamps lie in the visible rectangle.
+     * 
+     * @param gr The graphics context
+     * @param rect The visible rectangle
+     */
+    private void paintByTimestamp(Graphics gr, Rectangle rect) {
+        int first = myTable.findRow(((long) rect.x / xZoom) * 100);
+        int last = myTable.findRow(((long) (rect.x + rect.width) / xZoom + 1) * 100);
+        for (int i = 0; i < myTable.getChannelCount(); i++) {
+            MonitorChannel channel = myTable.getChannel(i);
+            if ( !channel.isVisible() ) continue;
+            gr.setColor(channel.getColor());
+            for (int row = first; row < last; row++) {
+                int x = (int) (myTable.getTimestamp(row)/100);
+                int y = toY(i, myTable.getValue(row,i));
+                gr.fillRect(x*xZoom,y*yZoom, 1, 1);          
+            }
         }
     }
+    
     // Variables declaration - do not modify//GEN-BEGIN:variables
     // End of variables declaration//GEN-END:variables
 
     @Override
     public void tableChanged(TableModelEvent e) {
-        boolean scroll = false;
         if (e.getSource() == myTable) {
-            int width = 0;
-            if ( xType == TIMESTAMP ) {
-                width = (int) ((myTable.getMaxTimestamp()-myTable.getMinTimestamp())/100);
-            } else {
-                width = myTable.getRowCount();
+            if ( e.getType() != TableModelEvent.INSERT ) {
+                // The rows changed, draw everything again
+                tiles.clear();
             }
-            Rectangle rect = getVisibleRect();
-            if ( rect.x+rect.width >= getWidth() ) scroll = true;
-            this.setPreferredSize(new Dimension(width,getHeight()));
-            this.revalidate();
-            if (scroll) this.scrollRectToVisible(new Rectangle(width-1,0,1,getHeight()));
-            this.repaint();
+            repaintLimiter.requestRepaint();
         }
     }
+    
+    /**
+     * Adapt the size to the table and follow the new rows, if the right
+     * border was visible. Called by the repaint limiter at most once per
+     * frame.
+     */
+    private void updateSize() {
+        boolean scroll = false;
+        int width = getGraphWidth();
+        Rectangle rect = getVisibleRect();
+        if ( rect.x+rect.width >= getWidth() ) scroll = true;
+        this.setPreferredSize(new Dimension(width,getHeight()));
+        this.revalidate();
+        if (scroll) this.scrollRectToVisible(new Rectangle(width-1,0,1,getHeight()));
+    }
 
 }
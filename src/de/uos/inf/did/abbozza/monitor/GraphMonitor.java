@@ -34,6 +34,8 @@ import javax.swing.JPopupMenu;
  */
 public class GraphMonitor extends MonitorPanel {
 
+    private JPopupMenu popup;
+
    
     /**
      * Creates new form GraphMonitor
@@ -44,6 +46,8 @@ public class GraphMonitor extends MonitorPanel {
         initComponents();
         graph.setTableModel(table);
         graph.addMouseListener(new MonitorMouseListener(this));
+        popup = new JPopupMenu();
+        popup.add(new ChannelMenu(table));
     }
 
     /**
@@ -90,7 +94,7 @@ public class GraphMonitor extends MonitorPanel {
 
     @Override
     public JPopupMenu getPopUp() {
-        return null;
+        return popup;
     }
     
     public String getName() {
@@ -0,0 +1,207 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A monitor panel showing the received bytes as hex values.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import de.uos.inf.did.abbozza.core.AbbozzaLocale;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksBytes;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.nio.charset.StandardCharsets;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JMenuItem;
+import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+
+/**
+ * Shows the bytes kept in the capture of the monitor in a HexView and
+ * searches them for text or hex values, using a ProtocolIndex.
+ *
+ * @author mbrinkmeier
+ */
+public class HexMonitor extends MonitorPanel {
+
+    private final ProtocolCapture _capture;
+    private final ProtocolIndex _index;
+    private final HexView _view;
+    private final RepaintLimiter _limiter;
+    private final JTextField _searchField;
+    private final JComboBox<String> _modeBox;
+    private final JLabel _statusLabel;
+    private final JPopupMenu _popup;
+
+    // The last match
+    private long _matchClears;
+    private long _matchStart = -1;
+    private int _matchLength;
+
+    /**
+     * Creates a panel for the capture of a monitor.
+     *
+     * @param capture The capture
+     */
+    public HexMonitor(ProtocolCapture capture) {
+        _capture = capture;
+        _index = new ProtocolIndex(capture);
+        _view = new HexView(capture);
+        _limiter = new RepaintLimiter(_view, () -> {
+            _index.update();
+            _view.update();
+        });
+
+        setLayout(new BorderLayout());
+        JScrollPane scrollPane = new JScrollPane(_view);
+        add(scrollPane, BorderLayout.CENTER);
+
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        _searchField = new JTextField(20);
+        _searchField.addActionListener((evt) -> find(true));
+        _modeBox = new JComboBox<>(new String[]{AbbozzaLocale.entry("gui.hex_text"), AbbozzaLocale.entry("gui.hex_bytes")});
+        JButton prevButton = new JButton("<");
+        prevButton.addActionListener((evt) -> find(false));
+        JButton nextButton = new JButton(">");
+        nextButton.addActionListener((evt) -> find(true));
+        _statusLabel = new JLabel();
+        searchPanel.add(new JLabel(AbbozzaLocale.entry("gui.hex_search")));
+        searchPanel.add(_searchField);
+        searchPanel.add(_modeBox);
+        searchPanel.add(prevButton);
+        searchPanel.add(nextButton);
+        searchPanel.add(_statusLabel);
+        add(searchPanel, BorderLayout.NORTH);
+
+        _popup = new JPopupMenu();
+        JMenuItem nextItem = new JMenuItem(AbbozzaLocale.entry("gui.hex_next"));
+        nextItem.addActionListener((evt) -> find(true));
+        _popup.add(nextItem);
+        JMenuItem prevItem = new JMenuItem(AbbozzaLocale.entry("gui.hex_previous"));
+        prevItem.addActionListener((evt) -> find(false));
+        _popup.add(prevItem);
+        _view.addMouseListener(new MonitorMouseListener(this));
+    }
+
+    /**
+     * The name of the tab.
+     *
+     * @return The localized name
+     */
+    @Override
+    public String getName() {
+        return AbbozzaLocale.entry("gui.hex");
+    }
+
+    /**
+     * Search the next or previous occurence of the pattern, starting at the
+     * last match.
+     *
+     * @param forward True if the next occurence is searched
+     */
+    private void find(boolean forward) {
+        byte pattern[] = getPattern();
+        if (pattern == null) {
+            _statusLabel.setText(AbbozzaLocale.entry("gui.hex_illegal"));
+            return;
+        }
+        if (_matchClears != _capture.getClears()) {
+            _matchStart = -1;
+        }
+        long pos;
+        if (forward) {
+            pos = _index.findNext(pattern, (_matchStart >= 0) ? _matchStart + 1 : _capture.getStart());
+        } else {
+            pos = _index.findPrevious(pattern, (_matchStart >= 0) ? _matchStart : _capture.getEnd());
+        }
+        if (pos < 0) {
+            _statusLabel.setText(AbbozzaLocale.entry("gui.hex_not_found"));
+            return;
+        }
+        _matchClears = _capture.getClears();
+        _matchStart = pos;
+        _matchLength = pattern.length;
+        _statusLabel.setText(Long.toHexString(pos));
+        _view.update();
+        _view.mark(_matchStart, _matchLength);
+    }
+
+    /**
+     * Returns the bytes to be searched. In the hex mode they are given by
+     * pairs of hex digits, optionally separated by spaces or commas.
+     *
+     * @return The bytes or null, if the hex values are illegal
+     */
+    private byte[] getPattern() {
+        String text = _searchField.getText();
+        if (_modeBox.getSelectedIndex() == 0) {
+            return text.isEmpty() ? null : text.getBytes(StandardCharsets.UTF_8);
+        }
+        String hex = text.replaceAll("0[xX]|[\\s,]", "");
+        if (hex.isEmpty() || (hex.length() % 2 != 0)) {
+            return null;
+        }
+        byte pattern[] = new byte[hex.length() / 2];
+        for (int i = 0; i < pattern.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if ((hi < 0) || (lo < 0)) {
+                return null;
+            }
+            pattern[i] = (byte) ((hi << 4) | lo);
+        }
+        return pattern;
+    }
+
+    @Override
+    public JPopupMenu getPopUp() {
+        return _popup;
+    }
+
+    @Override
+    public void processMessage(String msg) {
+    }
+
+    /**
+     * The monitor has already added the bytes to the capture.
+     *
+     * @param bytes The bytes
+     */
+    @Override
+    public void process(ClacksBytes bytes) {
+        _limiter.requestRepaint();
+    }
+
+    @Override
+    public void connect(AbbozzaMonitor monitor) {
+        monitor.subscribeToClacks(this);
+    }
+
+    @Override
+    public void disconnect(AbbozzaMonitor monitor) {
+        monitor.unsubscribeFromClacks(this);
+        _limiter.stop();
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A hex and ASCII view of a ProtocolCapture.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.UIManager;
+
+/**
+ * Shows the bytes of a ProtocolCapture, ROW bytes per row, as hex values and
+ * as ASCII characters. If a chunk starts in a row, the row starts with its
+ * capture time and a mark is drawn in front of its first byte.
+ *
+ * Like the ProtocolView only the rows inside the clip are painted. update()
+ * has to be called after bytes were appended to the capture.
+ *
+ * @author mbrinkmeier
+ */
+public class HexView extends JComponent implements Scrollable {
+
+    public static final int ROW = 16;
+    private static final int MARGIN = 3;
+    private static final Color MARK = Color.GRAY;
+    private static final Color TIME = new Color(0, 128, 0);
+    private static final Color HIGHLIGHT = Color.YELLOW;
+    private static final DateTimeFormatter FORMAT
+            = DateTimeFormatter.ofPattern("HH:mm:ss.SSSSSS").withZone(ZoneId.systemDefault());
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // The columns in characters
+    private static final int TIME_COLUMN = 0;
+    private static final int OFFSET_COLUMN = 17;
+    private static final int HEX_COLUMN = 28;
+    private static final int ASCII_COLUMN = HEX_COLUMN + 3 * ROW + 2;
+    private static final int COLUMNS = ASCII_COLUMN + ROW;
+
+    private final ProtocolCapture _capture;
+    private int _lineHeight;
+    private int _ascent;
+    private int _charWidth;
+    private long _firstRow;
+    private long _clears;
+    private final byte _row[] = new byte[ROW];
+    private final char _chars[] = new char[COLUMNS];
+
+    // The highlighted bytes
+    private long _markStart = -1;
+    private int _markLength;
+
+    /**
+     * Creates a view of a capture.
+     *
+     * @param capture The capture
+     */
+    public HexView(ProtocolCapture capture) {
+        _capture = capture;
+        _clears = capture.getClears();
+        setOpaque(true);
+        setBackground(UIManager.getColor("TextPane.background"));
+        setForeground(UIManager.getColor("TextPane.foreground"));
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        if (font == null) {
+            return;
+        }
+        FontMetrics metrics = getFontMetrics(font);
+        _lineHeight = Math.max(1, metrics.getHeight());
+        _ascent = metrics.getAscent();
+        _charWidth = Math.max(1, metrics.charWidth('0'));
+        revalidate();
+        repaint();
+    }
+
+    private long getRowCount() {
+        long end = _capture.getEnd();
+        return (end == _capture.getStart()) ? 0 : (end + ROW - 1) / ROW - _capture.getStart() / ROW;
+    }
+
+    /**
+     * Adapt the view to the bytes appended to the capture. If the last row
+     * is shown, the view follows them. Otherwise the shown rows stay in
+     * place.
+     */
+    public void update() {
+        long firstRow = _capture.getStart() / ROW;
+        long shift = (_clears == _capture.getClears()) ? firstRow - _firstRow : 0;
+        _firstRow = firstRow;
+        _clears = _capture.getClears();
+        JViewport viewport = getViewport();
+        boolean follow = (viewport == null)
+                || (viewport.getViewRect().y + viewport.getHeight() >= getHeight() - _lineHeight);
+        revalidate();
+        if (viewport != null) {
+            viewport.doLayout();
+            Rectangle view = viewport.getViewRect();
+            if (follow) {
+                view.y = Math.max(0, getPreferredSize().height - view.height);
+            } else {
+                view.y = (int) Math.max(0, view.y - shift * _lineHeight);
+            }
+            viewport.setViewPosition(view.getLocation());
+        }
+        repaint();
+    }
+
+    /**
+     * Highlight bytes and scroll them into view.
+     *
+     * @param start The position of the first byte, -1 removes the highlight
+     * @param length The number of bytes
+     */
+    public void mark(long start, int length) {
+        _markStart = start;
+        _markLength = length;
+        if (start >= 0) {
+            int y = (int) (start / ROW - _firstRow) * _lineHeight;
+            JViewport viewport = getViewport();
+            int height = (viewport != null) ? viewport.getHeight() : _lineHeight;
+            // Show the row in the middle of the view
+            scrollRectToVisible(new Rectangle(0, Math.max(0, y - height / 2), 1, height));
+        }
+        repaint();
+    }
+
+    private JViewport getViewport() {
+        return (getParent() instanceof JViewport) ? (JViewport) getParent() : null;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setFont(getFont());
+
+        long rows = getRowCount();
+        long first = Math.max(0, clip.y / _lineHeight);
+        long last = Math.min(rows - 1, (clip.y + clip.height) / _lineHeight);
+        for (long row = first; row <= last; row++) {
+            paintRow(g, row, (int) row * _lineHeight);
+        }
+    }
+
+    private void paintRow(Graphics g, long row, int y) {
+        long rowStart = (_firstRow + row) * ROW;
+        long from = Math.max(rowStart, _capture.getStart());
+        long to = Math.min(rowStart + ROW, _capture.getEnd());
+        int len = _capture.read(from, _row, 0, (int) (to - from));
+        int skip = (int) (from - rowStart);
+
+        // Highlight
+        if (_markStart >= 0) {
+            long markFrom = Math.max(from, _markStart);
+            long markTo = Math.min(to, _markStart + _markLength);
+            if (markFrom < markTo) {
+                int i = (int) (markFrom - rowStart);
+                int n = (int) (markTo - markFrom);
+                g.setColor(HIGHLIGHT);
+                g.fillRect(x(HEX_COLUMN + 3 * i), y, (3 * n - 1) * _charWidth, _lineHeight);
+                g.fillRect(x(ASCII_COLUMN + i), y, n * _charWidth, _lineHeight);
+            }
+        }
+
+        // The chunks starting in this row
+        int chunk = _capture.getChunk(from);
+        boolean timeShown = false;
+        g.setColor(MARK);
+        for (; (chunk >= 0) && (chunk < _capture.getChunkCount()); chunk++) {
+            long start = _capture.getChunkStart(chunk);
+            if (start >= to) {
+                break;
+            }
+            if (start < from) {
+                continue;
+            }
+            int i = (int) (start - rowStart);
+            g.drawLine(x(HEX_COLUMN + 3 * i) - 2, y + 1, x(HEX_COLUMN + 3 * i) - 2, y + _lineHeight - 2);
+            if (!timeShown) {
+                g.setColor(TIME);
+                String time = FORMAT.format(Instant.ofEpochSecond(0, _capture.getChunkTime(chunk)));
+                g.drawString(time, x(TIME_COLUMN), y + _ascent);
+                g.setColor(MARK);
+                timeShown = true;
+            }
+        }
+
+        // Offset, hex values and characters
+        int pos = 0;
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            _chars[pos++] = HEX[(int) (rowStart >>> shift) & 0xF];
+        }
+        g.setColor(isEnabled() ? getForeground() : Color.GRAY);
+        g.drawChars(_chars, 0, pos, x(OFFSET_COLUMN), y + _ascent);
+        for (int i = 0; i < ROW; i++) {
+            int b = ((i >= skip) && (i - skip < len)) ? _row[i - skip] & 0xFF : -1;
+            _chars[3 * i] = (b < 0) ? ' ' : HEX[b >> 4];
+            _chars[3 * i + 1] = (b < 0) ? ' ' : HEX[b & 0xF];
+            _chars[3 * i + 2] = ' ';
+            _chars[3 * ROW + 2 + i] = (b < 0) ? ' ' : ((b >= 0x20) && (b < 0x7F)) ? (char) b : '.';
+        }
+        _chars[3 * ROW] = ' ';
+        _chars[3 * ROW + 1] = ' ';
+        g.drawChars(_chars, 0, 4 * ROW + 2, x(HEX_COLUMN), y + _ascent);
+    }
+
+    private int x(int column) {
+        return MARGIN + column * _charWidth;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(2 * MARGIN + COLUMNS * _charWidth, (int) Math.min(Integer.MAX_VALUE, getRowCount() * _lineHeight));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return (orientation == SwingConstants.VERTICAL) ? _lineHeight : _charWidth;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return Math.max(_lineHeight, visibleRect.height - _lineHeight);
+        }
+        return Math.max(_charWidth, visibleRect.width - _charWidth);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        JViewport viewport = getViewport();
+        return (viewport != null) && (viewport.getWidth() > getPreferredSize().width);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        JViewport viewport = getViewport();
+        return (viewport != null) && (viewport.getHeight() > getPreferredSize().height);
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A cache of the latest received values.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import de.uos.inf.did.abbozza.monitor.clacks.CaptureClock;
+import de.uos.inf.did.abbozza.monitor.clacks.LatencyStats;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the last message for each prefix and the last row of the table
+ * monitor. The entries are immutable and replaced as a whole, hence reading
+ * a snapshot never blocks the threads receiving the data and never touches
+ * the serial port.
+ *
+ * @author mbrinkmeier
+ */
+public class LatestValues {
+
+    /**
+     * The last message with a prefix.
+     */
+    public static class Entry {
+
+        public final String msg;
+        public final long captureTime;
+
+        public Entry(String msg, long captureTime) {
+            this.msg = msg;
+            this.captureTime = captureTime;
+        }
+    }
+
+    /**
+     * The last row of the table.
+     */
+    public static class Row {
+
+        public final long timestamp;
+        public final long captureTime;
+        public final long hostTime;
+        public final int values[];
+        public final MonitorChannel channels[];
+
+        public Row(long timestamp, long captureTime, long hostTime, int[] values, MonitorChannel[] channels) {
+            this.timestamp = timestamp;
+            this.captureTime = captureTime;
+            this.hostTime = hostTime;
+            this.values = values;
+            this.channels = channels;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> _messages;
+    private final AtomicReference<Row> _row;
+
+    public LatestValues() {
+        _messages = new ConcurrentHashMap<>();
+        _row = new AtomicReference<>();
+    }
+
+    /**
+     * Store a received message. Messages without prefix are not addressed
+     * to a panel or plugin and not stored.
+     *
+     * @param prefix The prefix
+     * @param msg The message
+     * @param captureTime The capture time, see CaptureClock
+     */
+    public void putMessage(String prefix, String msg, long captureTime) {
+        if (prefix.isEmpty()) {
+            return;
+        }
+        _messages.put(prefix, new Entry(msg, captureTime));
+    }
+
+    public Entry getMessage(String prefix) {
+        return _messages.get(prefix);
+    }
+
+    /**
+     * Store the last row of the table. The values must not be changed
+     * afterwards.
+     *
+     * @param row The row
+     */
+    public void setRow(Row row) {
+        _row.set(row);
+    }
+
+    public Row getRow() {
+        return _row.get();
+    }
+
+    /**
+     * Returns a snapshot of all values as JSON object. Times are given in
+     * milliseconds since the epoch, values with the scale of their channel.
+     *
+     * @return The JSON string
+     */
+    public String toJSON() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("{\"time\":");
+        CaptureClock.appendMillis(buf, CaptureClock.now());
+        buf.append(",\"messages\":{");
+        boolean first = true;
+        for (Map.Entry<String, Entry> entry : new TreeMap<>(_messages).entrySet()) {
+            if (!first) {
+                buf.append(',');
+            }
+            first = false;
+            LatencyStats.appendString(buf, entry.getKey()).append(":{\"msg\":");
+            LatencyStats.appendString(buf, entry.getValue().msg).append(",\"time\":");
+            CaptureClock.appendMillis(buf, entry.getValue().captureTime).append('}');
+        }
+        buf.append('}');
+        Row row = _row.get();
+        if (row != null) {
+            buf.append(",\"row\":{\"timestamp\":").append(row.timestamp);
+            buf.append(",\"time\":");
+            CaptureClock.appendMillis(buf, row.captureTime);
+            buf.append(",\"hostTime\":");
+            CaptureClock.appendMillis(buf, row.hostTime);
+            buf.append(",\"channels\":[");
+            for (int i = 0; i < row.channels.length; i++) {
+                MonitorChannel channel = row.channels[i];
+                if (i > 0) {
+                    buf.append(',');
+                }
+                buf.append("{\"name\":");
+                LatencyStats.appendString(buf, channel.getName("Channel ", i));
+                if (channel.getUnit() != null) {
+                    buf.append(",\"unit\":");
+                    LatencyStats.appendString(buf, channel.getUnit());
+                }
+                buf.append(",\"value\":");
+                TableMonitorModel.appendFixed(buf, row.values[i], channel.getScale());
+                buf.append('}');
+            }
+            buf.append("]}");
+        }
+        return buf.append('}').toString();
+    }
+
+    public void clear() {
+        _messages.clear();
+        _row.set(null);
+    }
+}
@@ -43,13 +43,6 @@ import de.uos.inf.did.abbozza.monitor.clacks.ClacksBytes;
 public class LevelMonitor extends MonitorPanel implements TableModelListener {
 
     private TableMonitorModel myTable;
-    private Color colors[] = {
-        Color.RED,
-        new Color(0,200,0),
-        new Color(0,0,255),
-        Color.ORANGE,
-        Color.MAGENTA
-    };
     private Color background = Color.WHITE;
     private Color marks = Color.BLACK;
 
@@ -60,7 +53,7 @@ public class LevelMonitor extends MonitorPanel implements TableModelListener {
      */
     public LevelMonitor(TableMonitorModel table) {
         myTable = table;
-        myTable.addTableModelListener(this);
+        myTable.addLatestRowListener(this);
         initComponents();
         /*
         colors = new Color[5];
@@ -136,19 +129,27 @@ public class LevelMonitor extends MonitorPanel implements TableModelListener {
         gr.drawString("49152",rect.x+rect.width/2-15,y3-2);
         gr.drawString("16348",rect.x+rect.width/2-15,y1-2);
 
-        // Draw channels
-        int channelWidth = getWidth() / 5;
+        // Draw the visible channels
+        int visible = 0;
+        for (int channel = 0; channel < myTable.getChannelCount(); channel++) {
+            if ( myTable.isChannelVisible(channel) ) visible++;
+        }
+        if ( visible == 0 ) return;
+        int channelWidth = getWidth() / visible;
         int lastRow = myTable.getRowCount() - 1;
         int y = 0;
+        int col = 0;
         
-        for (int col = 1; col <= 5; col++) {
+        for (int channel = 0; channel < myTable.getChannelCount(); channel++) {
+            if ( !myTable.isChannelVisible(channel) ) continue;
+            col++;
             int value = 0;
             try {
-                value = ((Integer) myTable.getValueAt(lastRow, col)).intValue();
+                value = myTable.getValue(lastRow, channel);
             } catch (Exception ex) {
                 value = -1;
             }
-            switch (myTable.getType(col - 1)) {
+            switch (myTable.getType(channel)) {
                 case '0':
                     y = (getHeight() - 20) * (1 - value);
                     break;
@@ -169,7 +170,7 @@ public class LevelMonitor extends MonitorPanel implements TableModelListener {
             }
             
             // gr.setFont(new Font("SansSerif", Font.BOLD, 16));
-            gr.setColor(colors[col - 1]);
+            gr.setColor(myTable.getChannel(channel).getColor());
             gr.fillRect(channelWidth * (col - 1), y+8, channelWidth , 5);
             // gr.drawLine(channelWidth * (col - 1), y+10, channelWidth * col , y+10);
             // gr.fillRect(channelWidth * (col - 1)+25, y, channelWidth-50, 20);
@@ -182,7 +183,7 @@ public class LevelMonitor extends MonitorPanel implements TableModelListener {
 
     public void setTableModel(TableMonitorModel model) {
         myTable = model;
-        myTable.addTableModelListener(this);
+        myTable.addLatestRowListener(this);
         this.revalidate();
     }
 
@@ -21,13 +21,6 @@ import javax.swing.event.TableModelListener;
 public class LevelPanel extends javax.swing.JPanel implements TableModelListener {
 
     private TableMonitorModel myTable;
-    private Color colors[] = {
-        Color.RED,
-        new Color(0,200,0),
-        new Color(0,0,255),
-        Color.ORANGE,
-        Color.MAGENTA
-    };
     private Color background = Color.WHITE;
     private Color marks = Color.BLACK;
 
@@ -48,7 +41,7 @@ public class LevelPanel extends javax.swing.JPanel implements TableModelListener
 
     public LevelPanel(TableMonitorModel tab) {
         myTable = tab;
-        myTable.addTableModelListener(this);
+        myTable.addLatestRowListener(this);
         initComponents();
         /*
         colors = new Color[5];
@@ -95,13 +88,14 @@ public class LevelPanel extends javax.swing.JPanel implements TableModelListener
 
         Rectangle rect = this.getVisibleRect();
         
-        int channelWidth = getWidth()/5;
+        int channelWidth = getWidth()/myTable.getChannelCount();
         int lastRow = myTable.getRowCount()-1;
         int y = 0;
         
-        for (int col = 1; col <= 5;  col++ ) {
-            int value = ((Integer) myTable.getValueAt(lastRow, col)).intValue();
-            gr.setColor(colors[col-1]);
+        for (int col = 1; col <= myTable.getChannelCount();  col++ ) {
+            if ( !myTable.isChannelVisible(col-1) ) continue;
+            int value = myTable.getValue(lastRow, col-1);
+            gr.setColor(myTable.getChannel(col-1).getColor());
             switch ( myTable.getType(col-1) ) {
                 case '0' :
                     y = (getHeight()-20)*(1-value);
@@ -128,7 +122,7 @@ public class LevelPanel extends javax.swing.JPanel implements TableModelListener
  
     public void setTableModel(TableMonitorModel model) {
         myTable = model;
-        myTable.addTableModelListener(this);
+        myTable.addLatestRowListener(this);
         this.revalidate();
     }
  
@@ -0,0 +1,371 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview Runs a monitor listener on a thread of its own.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksDecodedPacket;
+import de.uos.inf.did.abbozza.monitor.clacks.LatencyStats;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Passes the messages for a listener, usually provided by a plugin, to a
+ * thread of its own. Hence a slow listener neither delays the other
+ * listeners nor the event dispatch thread.
+ *
+ * The messages wait in a bounded queue (option monitor.listener_queue,
+ * default 256). If it is full, messages are dropped. Each call of the
+ * listener should not take longer than the budget (option
+ * monitor.listener_budget, default 50ms). A listener exceeding it is
+ * flagged, after MAX_OVERRUNS overruns, an exception thrown MAX_ERRORS
+ * times or a call blocking for HANG_FACTOR times the budget it is disabled.
+ *
+ * Each start creates a run with a thread, a queue and a stop flag of its
+ * own. A thread which does not stop in time, since the listener blocks, is
+ * abandoned. It ends as soon as the call returns, without touching the queue
+ * or the statistics of a later run. As long as it is alive, no new thread is
+ * started, hence the listener is never called by two threads. A start
+ * requested meanwhile is done by the abandoned thread when it ends.
+ *
+ * @author mbrinkmeier
+ */
+public class ListenerExecutor {
+
+    public static final int DEFAULT_QUEUE = 256;
+    public static final int DEFAULT_BUDGET = 50;
+    public static final int MAX_OVERRUNS = 3;
+    public static final int MAX_ERRORS = 10;
+    private static final int HANG_FACTOR = 10;
+    private static final long STOP_TIMEOUT = 1000;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * One run of the listener thread.
+     */
+    private class Run implements Runnable {
+
+        final ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(_capacity);
+        final Thread thread;
+        volatile boolean stopped = false;
+        volatile long runningSince = 0;
+
+        Run() {
+            thread = new Thread(this, "MonitorListener " + _prefix);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                serve(this);
+            } finally {
+                ended(this);
+            }
+        }
+    }
+
+    private final String _prefix;
+    private final MonitorListener _listener;
+    private final int _capacity;
+    private final long _budget;
+    private final Consumer<String> _onDisable;
+    private volatile Run _run;
+    private Run _abandoned;
+    private boolean _startPending;
+    private volatile boolean _disabled;
+
+    // The statistics
+    private long _calls;
+    private long _cpuTime;
+    private long _wallTime;
+    private long _maxTime;
+    private long _overruns;
+    private long _errors;
+    private long _dropped;
+    private int _maxDepth;
+    private String _reason;
+
+    /**
+     * Creates an executor for a listener.
+     *
+     * @param prefix The prefix of the listener
+     * @param listener The listener
+     * @param onDisable Called with a message, if the listener is disabled
+     */
+    public ListenerExecutor(String prefix, MonitorListener listener, Consumer<String> onDisable) {
+        _prefix = prefix;
+        _listener = listener;
+        _onDisable = onDisable;
+        int capacity = DEFAULT_QUEUE;
+        long budget = DEFAULT_BUDGET;
+        if (AbbozzaServer.getInstance() != null) {
+            int val = AbbozzaServer.getConfig().getOptionInt("monitor.listener_queue");
+            if (val > 0) {
+                capacity = val;
+            }
+            val = AbbozzaServer.getConfig().getOptionInt("monitor.listener_budget");
+            if (val > 0) {
+                budget = val;
+            }
+        }
+        _capacity = capacity;
+        _budget = budget * 1000000L;
+    }
+
+    /**
+     * Start the thread. If it is running already, nothing happens. If the
+     * thread of the last run is still blocked in the listener, the start is
+     * done as soon as it ends.
+     */
+    public synchronized void start() {
+        if (_run != null) {
+            return;
+        }
+        if (_abandoned != null) {
+            AbbozzaLogger.err("ListenerExecutor: Listener " + _prefix + " is still blocked, it is started when it returns");
+            _startPending = true;
+            return;
+        }
+        _run = new Run();
+        _run.thread.start();
+    }
+
+    /**
+     * Stop the thread and wait for it. Queued messages are dropped. If the
+     * thread does not end within STOP_TIMEOUT, it is abandoned.
+     */
+    public void stop() {
+        Run run;
+        synchronized (this) {
+            _startPending = false;
+            run = _run;
+            _run = null;
+        }
+        if (run == null) {
+            return;
+        }
+        run.stopped = true;
+        run.queue.clear();
+        run.thread.interrupt();
+        try {
+            run.thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (run.thread.isAlive()) {
+                AbbozzaLogger.err("ListenerExecutor: Listener " + _prefix + " does not stop, its thread is abandoned");
+                _abandoned = run;
+            }
+        }
+    }
+
+    /**
+     * Called by the thread of a run, when it ends. If it was abandoned, a
+     * pending start is done now.
+     *
+     * @param run The run
+     */
+    private synchronized void ended(Run run) {
+        if (_abandoned != run) {
+            return;
+        }
+        _abandoned = null;
+        if (_startPending) {
+            _startPending = false;
+            start();
+        }
+    }
+
+    public void processMessage(String msg, long captureTime) {
+        submit(() -> _listener.processMessage(msg, captureTime));
+    }
+
+    public void processPacket(ClacksDecodedPacket packet) {
+        submit(() -> _listener.processPacket(packet));
+    }
+
+    /**
+     * Queue a call of the listener. If the current call blocks for too long,
+     * the listener is disabled.
+     *
+     * @param task The call
+     */
+    private void submit(Runnable task) {
+        Run run = _run;
+        if (_disabled || (run == null)) {
+            return;
+        }
+        long since = run.runningSince;
+        if ((since != 0) && (System.nanoTime() - since > HANG_FACTOR * _budget)) {
+            disable("blocked for more than " + (HANG_FACTOR * _budget / 1000000L) + "ms");
+            return;
+        }
+        if (!run.queue.offer(task)) {
+            synchronized (this) {
+                _dropped++;
+            }
+            return;
+        }
+        int depth = run.queue.size();
+        synchronized (this) {
+            _maxDepth = Math.max(_maxDepth, depth);
+        }
+    }
+
+    /**
+     * The loop of the thread of a run. It ends if the run is stopped or the
+     * listener is disabled.
+     *
+     * @param run The run
+     */
+    private void serve(Run run) {
+        boolean cpu = THREADS.isCurrentThreadCpuTimeSupported();
+        while (!run.stopped && !_disabled) {
+            Runnable task;
+            try {
+                task = run.queue.take();
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            long cpuStart = cpu ? THREADS.getCurrentThreadCpuTime() : 0;
+            long start = System.nanoTime();
+            run.runningSince = start;
+            boolean failed = false;
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                AbbozzaLogger.err("ListenerExecutor: Listener " + _prefix + " threw " + ex);
+                failed = true;
+            }
+            long time = System.nanoTime() - start;
+            run.runningSince = 0;
+            if (run.stopped) {
+                // The statistics belong to a later run
+                break;
+            }
+            long cpuTime = cpu ? THREADS.getCurrentThreadCpuTime() - cpuStart : time;
+            String reason = null;
+            synchronized (this) {
+                _calls++;
+                _wallTime += time;
+                _cpuTime += cpuTime;
+                _maxTime = Math.max(_maxTime, time);
+                if (failed && (++_errors >= MAX_ERRORS)) {
+                    reason = "threw " + _errors + " exceptions";
+                }
+                if (time > _budget) {
+                    _overruns++;
+                    AbbozzaLogger.err("ListenerExecutor: Listener " + _prefix + " took " + (time / 1000000L) + "ms");
+                    if (_overruns >= MAX_OVERRUNS) {
+                        reason = "exceeded its budget of " + (_budget / 1000000L) + "ms " + _overruns + " times";
+                    }
+                }
+            }
+            if (reason != null) {
+                disable(reason);
+            }
+        }
+    }
+
+    /**
+     * Disable the listener. It does not receive any messages afterwards.
+     *
+     * @param reason The reason
+     */
+    private void disable(String reason) {
+        synchronized (this) {
+            if (_disabled) {
+                return;
+            }
+            _disabled = true;
+            _reason = reason;
+        }
+        Run run = _run;
+        if (run != null) {
+            run.queue.clear();
+        }
+        String msg = "Listener " + _prefix + " disabled, it " + reason;
+        AbbozzaLogger.err("ListenerExecutor: " + msg);
+        if (_onDisable != null) {
+            _onDisable.accept(msg);
+        }
+    }
+
+    public boolean isDisabled() {
+        return _disabled;
+    }
+
+    /**
+     * Enable a disabled listener again and reset its statistics. It has to be
+     * started afterwards.
+     */
+    public void enable() {
+        stop();
+        synchronized (this) {
+            _disabled = false;
+            _reason = null;
+            _calls = 0;
+            _cpuTime = 0;
+            _wallTime = 0;
+            _maxTime = 0;
+            _overruns = 0;
+            _errors = 0;
+            _dropped = 0;
+            _maxDepth = 0;
+        }
+    }
+
+    /**
+     * Append the statistics as JSON object. Times are given in microseconds.
+     *
+     * @param buf The buffer
+     * @return The buffer
+     */
+    public synchronized StringBuilder appendJSON(StringBuilder buf) {
+        buf.append("{\"class\":");
+        LatencyStats.appendString(buf, _listener.getClass().getName());
+        buf.append(",\"disabled\":").append(_disabled);
+        if (_reason != null) {
+            buf.append(",\"reason\":");
+            LatencyStats.appendString(buf, _reason);
+        }
+        buf.append(",\"calls\":").append(_calls);
+        buf.append(",\"cpu\":").append(_cpuTime / 1000);
+        buf.append(",\"wall\":").append(_wallTime / 1000);
+        buf.append(",\"max\":").append(_maxTime / 1000);
+        buf.append(",\"overruns\":").append(_overruns);
+        buf.append(",\"errors\":").append(_errors);
+        Run run = _run;
+        buf.append(",\"queue\":").append((run != null) ? run.queue.size() : 0);
+        buf.append(",\"maxQueue\":").append(_maxDepth);
+        buf.append(",\"dropped\":").append(_dropped);
+        return buf.append('}');
+    }
+}
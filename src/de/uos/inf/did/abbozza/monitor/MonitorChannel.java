@@ -0,0 +1,148 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview The description of a channel of the table monitor.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import java.awt.Color;
+
+/**
+ * A channel has a name, a type, a unit and a scale. The type is one of the
+ * chars '0' (digital), '1' (0..1023), '2' (0..65535), '3' (-32768..32767) or
+ * '4' (-1024..1023) and determines the range of the graph. The scale is the
+ * number of decimals of fixed-point values, i.e. a value v is stored as the
+ * int v*10^scale.
+ *
+ * Channels can be hidden. The values of hidden channels are neither decoded
+ * nor drawn.
+ *
+ * @author mbrinkmeier
+ */
+public class MonitorChannel {
+
+    private static final Color COLORS[] = {
+        Color.RED,
+        new Color(0, 200, 0),
+        new Color(0, 0, 255),
+        Color.ORANGE,
+        Color.MAGENTA
+    };
+
+    private final String _name;
+    private char _type;
+    private final String _unit;
+    private final int _scale;
+    private final Color _color;
+    private boolean _visible;
+
+    /**
+     * Creates a new channel.
+     *
+     * @param index The index of the channel, used to choose its color
+     * @param name The name, or null for the default name
+     * @param type The type
+     * @param unit The unit, or null if there is none
+     * @param scale The number of decimals (0 to 9)
+     */
+    public MonitorChannel(int index, String name, char type, String unit, int scale) {
+        _name = name;
+        _type = type;
+        _unit = unit;
+        _scale = Math.max(0, Math.min(9, scale));
+        _color = getColor(index);
+        _visible = true;
+    }
+
+    /**
+     * Returns the color of the channel with the given index. The first five
+     * channels have the colors used before, the following ones are spread
+     * over the hues.
+     *
+     * @param index The index of the channel
+     * @return The color
+     */
+    public static Color getColor(int index) {
+        if (index < COLORS.length) {
+            return COLORS[index];
+        }
+        return Color.getHSBColor((index - COLORS.length) * 0.382f, 0.9f, 0.8f);
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the name of the channel or the given default.
+     *
+     * @param prefix The prefix of the default name
+     * @param index The index of the channel
+     * @return The name of the channel or prefix + (index+1)
+     */
+    public String getName(String prefix, int index) {
+        return (_name != null) ? _name : prefix + (index + 1);
+    }
+
+    public char getType() {
+        return _type;
+    }
+
+    public void setType(char type) {
+        _type = type;
+    }
+
+    public String getUnit() {
+        return _unit;
+    }
+
+    public int getScale() {
+        return _scale;
+    }
+
+    public Color getColor() {
+        return _color;
+    }
+
+    public boolean isVisible() {
+        return _visible;
+    }
+
+    public void setVisible(boolean visible) {
+        _visible = visible;
+    }
+
+    /**
+     * Checks if two channels have the same description. The visibility is
+     * not compared.
+     *
+     * @param other The other channel
+     * @return true if name, type, unit and scale are equal
+     */
+    public boolean sameAs(MonitorChannel other) {
+        return (other != null)
+                && ((_name == null) ? other._name == null : _name.equals(other._name))
+                && (_type == other._type)
+                && ((_unit == null) ? other._unit == null : _unit.equals(other._unit))
+                && (_scale == other._scale);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package de.uos.inf.did.abbozza.monitor;
 
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksDecodedPacket;
+
 /**
  *
  * @author michael
@@ -23,4 +25,24 @@ public interface MonitorListener {
 
     public void processMessage(String msg);    
     
+    /**
+     * Process a message together with the capture time of its bytes. By
+     * default the time is ignored.
+     * 
+     * @param msg The received message
+     * @param captureTime The capture time, see CaptureClock
+     */
+    public default void processMessage(String msg, long captureTime) {
+        processMessage(msg);
+    }
+    
+    /**
+     * Process a packet decoded by a ClacksDecoder, whose prefix is the one of
+     * the listener. By default it is ignored.
+     * 
+     * @param packet The packet
+     */
+    public default void processPacket(ClacksDecodedPacket packet) {
+    }
+    
 }
@@ -26,6 +26,7 @@
 package de.uos.inf.did.abbozza.monitor;
 
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksBytes;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksDecodedPacket;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksSubscriber;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
@@ -50,6 +51,26 @@ public abstract class MonitorPanel extends JPanel implements ClacksSubscriber {
      */
     public abstract void processMessage(String msg);
     
+    /**
+     * Process a message received by the monitor, together with the capture
+     * time of its bytes. By default the time is ignored.
+     * 
+     * @param msg The received message
+     * @param captureTime The capture time, see CaptureClock
+     */
+    public void processMessage(String msg, long captureTime) {
+        processMessage(msg);
+    }
+    
+    /**
+     * Process a packet decoded by a ClacksDecoder, whose prefix is the one of
+     * the panel. By default it is ignored.
+     * 
+     * @param packet The packet
+     */
+    public void processPacket(ClacksDecodedPacket packet) {
+    }
+    
     /**
      * Process bytes in the byte stream buffer.
      */
@@ -18,7 +18,6 @@
  */
 package de.uos.inf.did.abbozza.monitor;
 
-import de.uos.inf.did.abbozza.core.AbbozzaLogger;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -40,6 +39,7 @@ public class Oscillograph extends javax.swing.JPanel {
      */
     public Oscillograph(OscillographMonitor monitor) {
         _monitor = monitor;
+        _repaintLimiter = new RepaintLimiter(this);
         
         initComponents();
     }
@@ -73,8 +73,155 @@ public class Oscillograph extends javax.swing.JPanel {
       2,5,10,20,50  
     };
     
+    // The number of samples per pixel column
+    private double _zoom = 1.0;
+    // The index after the last visible sample, -1 if the view follows the samples
+    private long _viewEnd = -1;
+    
+    private static final double MIN_ZOOM = 1.0/16.0;
+    
+    // The buffers for the polyline and the envelope of a column
+    private int _xPoints[] = new int[0];
+    private int _yPoints[] = new int[0];
+    private final int _minMax[] = new int[2];
+    
+    private final RepaintLimiter _repaintLimiter;
+    
+    /**
+     * Reset zoom and pan. The view follows the incoming samples or shows the
+     * complete last capture.
+     */
+    public void resetView() {
+        _viewEnd = -1;
+        _zoom = 1.0;
+        if ( _monitor.getTriggerMode() != OscillographMonitor.TRIGGER_NONE ) {
+            int width = Math.max(1,getWidth());
+            _zoom = Math.max(1.0, (double) (_monitor.getPreTrigger() + _monitor.getPostTrigger()) / width);
+        }
+        repaint();
+    }
+    
+    /**
+     * Shift the view by the given number of pixels. If the view is shifted
+     * beyond the newest sample, it follows the incoming samples again.
+     * 
+     * @param dx The number of pixels. Positive values move into the past.
+     */
+    public void pan(int dx) {
+        long end = getViewEnd() - Math.round(dx * _zoom);
+        SampleHistory history = _monitor.getHistory();
+        if ( end >= history.getNext() ) {
+            _viewEnd = -1;
+        } else {
+            _viewEnd = Math.max(history.getFirst() + 1, end);
+        }
+        repaint();
+    }
+    
+    /**
+     * Zoom in or out, keeping the sample under the given pixel column fixed.
+     * 
+     * @param steps Positive values zoom out, negative values zoom in
+     * @param x The pixel column to be kept fixed
+     */
+    public void zoom(int steps, int x) {
+        int width = Math.max(1,getWidth());
+        double max = Math.max(1.0, (double) _monitor.getHistory().getCapacity() / width);
+        double zoom = _zoom * Math.pow(2, steps);
+        zoom = Math.max(MIN_ZOOM, Math.min(max, zoom));
+        if ( _viewEnd >= 0 ) {
+            // The sample under x is (width-x)*_zoom samples before the end
+            _viewEnd = Math.round(_viewEnd - (width - x) * (_zoom - zoom));
+            _viewEnd = Math.max(_monitor.getHistory().getFirst() + 1, _viewEnd);
+        }
+        _zoom = zoom;
+        repaint();
+    }
+    
+    /**
+     * Returns the index after the last sample shown at the right border.
+     * 
+     * @return The index of the right border
+     */
+    private long getViewEnd() {
+        if ( _viewEnd >= 0 ) {
+            return _viewEnd;
+        }
+        if ( _monitor.hasCapture() ) {
+            return _monitor.getCaptureEnd();
+        }
+        return _monitor.getHistory().getNext();
+    }
+    
+    /**
+     * Request a repaint. Repaints are limited to the display refresh rate.
+     */
+    public void requestRepaint() {
+        _repaintLimiter.requestRepaint();
+    }
+    
+    /**
+     * Computes the y coordinate of a value.
+     */
+    private int toY(int val, int min, int span, int height) {
+        return height - ((int) (height * ((long) val-min)/span));
+    }
+    
+    /**
+     * Fills the point buffers with the polyline for the samples between
+     * start and end. If a column contains several samples, the minimum and
+     * maximum of the column are added, resulting in the envelope of the
+     * samples.
+     * 
+     * @return The number of points
+     */
+    private int computePolyline(SampleHistory history, long start, long end, int width, int height, int min, int span) {
+        long first = Math.max(start, history.getFirst());
+        if ( first >= end ) return 0;
+        
+        int n = 0;
+        if ( _zoom <= 1.0 ) {
+            // At most one sample per column
+            int count = (int) (end - first);
+            ensurePoints(count);
+            for (long idx = first; idx < end; idx++) {
+                _xPoints[n] = (int) ((idx - start) / _zoom);
+                _yPoints[n] = toY(history.get(idx),min,span,height);
+                n++;
+            }
+        } else {
+            ensurePoints(2 * width + 2);
+            int lastY = -1;
+            int x0 = (int) ((first - start) / _zoom);
+            for (int x = x0; x < width; x++) {
+                long from = start + (long) Math.floor(x * _zoom);
+                long to = Math.min(end, start + (long) Math.floor((x+1) * _zoom));
+                if ( !history.minMax(from, to, _minMax) ) continue;
+                int yMin = toY(_minMax[0],min,span,height);
+                int yMax = toY(_minMax[1],min,span,height);
+                // Start with the extremum closer to the previous point
+                if ( Math.abs(lastY - yMax) < Math.abs(lastY - yMin) ) {
+                    _xPoints[n] = x; _yPoints[n++] = yMax;
+                    _xPoints[n] = x; _yPoints[n++] = yMin;
+                    lastY = yMin;
+                } else {
+                    _xPoints[n] = x; _yPoints[n++] = yMin;
+                    _xPoints[n] = x; _yPoints[n++] = yMax;
+                    lastY = yMax;
+                }
+            }
+        }
+        return n;
+    }
+    
+    private void ensurePoints(int count) {
+        if ( _xPoints.length < count ) {
+            _xPoints = new int[count];
+            _yPoints = new int[count];
+        }
+    }
+    
     public void paint(Graphics graphics) {
-        try { 
        Graphics2D gr = (Graphics2D) graphics;
        
        int width = this.getWidth();
@@ -106,35 +253,31 @@ public class Oscillograph extends javax.swing.JPanel {
            tick += scale;
        }
        
-       // draw points
-       gr.setColor(Color.BLACK);
+       SampleHistory history = _monitor.getHistory();
+       if ( history.size() == 0 ) return;
        
-
-       int size = _monitor.getBufSize();
-       if ( size == 0 ) return;
+       long end = Math.min(getViewEnd(), history.getNext());
+       long start = end - Math.round(width * _zoom);
        
-       int sidx;
-       int eidx;
-       int off;
-       if ( size < width ) {
-           sidx = 0;
-           eidx = size;
-           off = 0;
-       } else {
-           eidx = size;
-           sidx = size-width;
-           off = -sidx;
-       }
-       int val = _monitor.getInt(sidx);
-       int oy = height - ((int) (height * (val-min)/span));
-       for (int idx = sidx+1; idx < eidx; idx++) {
-           val = _monitor.getInt(idx);
-           int yc = height - ((int) (height * (val-min)/span));
-           gr.drawLine(idx+off-1,oy,idx+off,yc);
-           oy = yc;
-           // gr.fillRect(idx+off,yc,1,1);
+       // draw trigger level and trigger position
+       if ( _monitor.getTriggerMode() != OscillographMonitor.TRIGGER_NONE ) {
+           gr.setColor(Color.ORANGE);
+           y = toY(_monitor.getTriggerLevel(),min,span,height);
+           gr.drawLine(0,y,width,y);
+           if ( _monitor.hasCapture() ) {
+               int x = (int) ((_monitor.getCaptureTrigger() - start) / _zoom);
+               gr.drawLine(x,0,x,height);
+           }
        }
-       String sval = Integer.toString(_monitor.getInt(eidx-1));
+       
+       // draw the samples as one polyline
+       int n = computePolyline(history, start, end, width, height, min, span);
+       if ( n == 0 ) return;
+       gr.setColor(Color.BLACK);
+       gr.drawPolyline(_xPoints, _yPoints, n);
+       
+       int oy = toY(history.get(end-1),min,span,height);
+       String sval = Integer.toString(history.get(end-1));
        gr.drawString(sval , width - gr.getFontMetrics().stringWidth(sval), oy - gr.getFontMetrics().getHeight()/2 );
        
        sval = Integer.toString(max);
@@ -142,12 +285,6 @@ public class Oscillograph extends javax.swing.JPanel {
 
        sval = Integer.toString(min);
        gr.drawString(sval, width - gr.getFontMetrics().stringWidth(sval), height);
-       
-        } catch (Exception ex) {
-            AbbozzaLogger.err("OscillographMonitor: Exception");
-            ex.printStackTrace(System.out);
-        }
-        
     }
     
 }
@@ -20,19 +20,35 @@ package de.uos.inf.did.abbozza.monitor;
 
 import de.uos.inf.did.abbozza.core.AbbozzaLogger;
 import de.uos.inf.did.abbozza.core.AbbozzaLocale;
-import de.uos.inf.did.abbozza.monitor.clacks.ByteRingBuffer;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksBytes;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksDecodedPacket;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksIntDecoder;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksIntStreamDecoder;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksMessage;
-import de.uos.inf.did.abbozza.monitor.clacks.ClacksParseNANException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import javax.swing.ButtonGroup;
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.SwingUtilities;
 
 /**
+ * Shows the ints in the clacks format sent by the board. They are decoded by
+ * a ClacksIntStreamDecoder registered at the service, hence the bytes are
+ * parsed once by the thread of the service and the panel only receives the
+ * decoded values.
  *
  * @author mbrinkmeier
  */
 public class OscillographMonitor extends MonitorPanel {   
+    // The prefix of the packets decoded for the panel
+    public static final String PREFIX = "oscillograph";
+    
     // Attributes for the view
     private int _minValue;
     private int _maxValue;
@@ -41,14 +57,29 @@ public class OscillographMonitor extends MonitorPanel {
     private boolean _scaleKnown;
     private boolean _resetRequested;
     private boolean _resetScaleRequested;
-    private ByteRingBuffer _byteBuffer;
+    private ClacksIntStreamDecoder _decoder;
+    
+    // The trigger modes
+    public static final int TRIGGER_NONE = 0;
+    public static final int TRIGGER_RISING = 1;
+    public static final int TRIGGER_FALLING = 2;
+    public static final int TRIGGER_LEVEL = 3;
+    
+    // The default number of samples kept in the history
+    public static final int DEFAULT_HISTORY = 4 * 1024 * 1024;
     
-    // Attributes for the ring buffer
-    private final int _bufSize = 2048;
-    private int _buf[];
-    private int _head; // The position from which the first int is read
-    private int _tail; // The index at which the next int is written
-    private int _size; // The number of ints in buffer
+    // Attributes for the history
+    private SampleHistory _history;
+    
+    // Attributes for the trigger
+    private int _triggerMode = TRIGGER_NONE;
+    private int _triggerLevel = 0;
+    private int _preTrigger = 256;   // The number of samples before the trigger
+    private int _postTrigger = 768;  // The number of samples after the trigger
+    private long _pendingTrigger;    // The index of the trigger waiting for its post samples
+    private long _captureStart;      // The first index of the last complete capture
+    private long _captureTrigger;    // The trigger index of the last complete capture
+    private long _captureEnd;        // The index after the last complete capture
     
     /**
      * Creates new form OszillosgraphMonitor
@@ -56,21 +87,72 @@ public class OscillographMonitor extends MonitorPanel {
     public OscillographMonitor() {
         _scaleKnown = false;
         
-        // Initialize the ring buffer
-        _buf = new int[_bufSize];
-        _size = 0;
-        _head = 0;
-        _tail = 0;
+        // Initialize the history
+        int capacity = AbbozzaServer.getConfig().getOptionInt("monitor.osci_history");
+        if ( capacity <= 0 ) capacity = DEFAULT_HISTORY;
+        _history = new SampleHistory(capacity);
+        clearTrigger();
         
         _minValue = -64;
         _maxValue = 63;
         computeScale();
         
-        _byteBuffer = new ByteRingBuffer(2048);
+        _decoder = new ClacksIntStreamDecoder(PREFIX);
         
         initComponents();
+        initTriggerMenu();
         
+        OscillographMouseListener mouseListener = new OscillographMouseListener();
         oszi.addMouseListener(new MonitorMouseListener(this));
+        oszi.addMouseListener(mouseListener);
+        oszi.addMouseMotionListener(mouseListener);
+        oszi.addMouseWheelListener(mouseListener);
+    }
+    
+    
+    /**
+     * Add the trigger and zoom items to the popup menu.
+     */
+    private void initTriggerMenu() {
+        JMenu triggerMenu = new JMenu(AbbozzaLocale.entry("gui.osci_trigger"));
+        ButtonGroup group = new ButtonGroup();
+        String[] keys = { "gui.osci_trigger_none", "gui.osci_trigger_rising", "gui.osci_trigger_falling", "gui.osci_trigger_level" };
+        for ( int mode = 0; mode < keys.length; mode++ ) {
+            final int m = mode;
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(AbbozzaLocale.entry(keys[mode]), mode == _triggerMode);
+            item.addActionListener((evt) -> setTriggerMode(m));
+            group.add(item);
+            triggerMenu.add(item);
+        }
+        triggerMenu.addSeparator();
+        JMenuItem levelItem = new JMenuItem(AbbozzaLocale.entry("gui.osci_trigger_set_level"));
+        levelItem.addActionListener((evt) -> {
+            String level = JOptionPane.showInputDialog(this, AbbozzaLocale.entry("gui.osci_trigger_set_level"), _triggerLevel);
+            if ( level == null ) return;
+            try {
+                setTriggerLevel(Integer.parseInt(level.trim()));
+            } catch (NumberFormatException ex) {
+                AbbozzaLogger.err("OscillographMonitor: Illegal trigger level " + level);
+            }
+        });
+        triggerMenu.add(levelItem);
+        JMenuItem windowItem = new JMenuItem(AbbozzaLocale.entry("gui.osci_trigger_set_window"));
+        windowItem.addActionListener((evt) -> {
+            String window = JOptionPane.showInputDialog(this, AbbozzaLocale.entry("gui.osci_trigger_set_window"), _preTrigger + " " + _postTrigger);
+            if ( window == null ) return;
+            try {
+                String values[] = window.trim().split("[\\s,/]+");
+                setTriggerWindow(Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                AbbozzaLogger.err("OscillographMonitor: Illegal trigger window " + window);
+            }
+        });
+        triggerMenu.add(windowItem);
+        _popup.add(triggerMenu);
+        
+        JMenuItem zoomItem = new JMenuItem(AbbozzaLocale.entry("gui.osci_reset_zoom"));
+        zoomItem.addActionListener((evt) -> ((Oscillograph) oszi).resetView());
+        _popup.add(zoomItem);
     }
 
         
@@ -170,7 +252,7 @@ public class OscillographMonitor extends MonitorPanel {
     public void connect(AbbozzaMonitor monitor) {
         _resetRequested = false;
         _resetScaleRequested = false;
-        monitor.subscribeToClacks(this);
+        monitor.getClacksService().addDecoder(_decoder);
         resetScale();
         oszi.repaint();
         AbbozzaLogger.err("Oscillograph connected");
@@ -192,12 +274,22 @@ public class OscillographMonitor extends MonitorPanel {
         // Do nothing
     }
     
+    /**
+     * The bytes are decoded by the service, see processPacket().
+     */
     @Override
     public void process(ClacksBytes bytes) {
-        byte buf[] = bytes.getBytes();
-        
-        for ( int i = 0; i < buf.length; i++ ) {
-            _byteBuffer.put(buf[i]);
+    }
+
+    /**
+     * Add the ints decoded from a chunk of bytes.
+     * 
+     * @param packet The packet containing the ints
+     */
+    @Override
+    public void processPacket(ClacksDecodedPacket packet) {
+        if ( !(packet.getValue() instanceof int[]) ) {
+            return;
         }
         
         if ( _resetRequested ) {
@@ -212,20 +304,24 @@ public class OscillographMonitor extends MonitorPanel {
             resetScale();
         }
                 
-        // Parse 4 byte values using the clacks format
-        while ( _byteBuffer.getSize() >= 6 ) {
-            try {
-                int v = _byteBuffer.getClacksInt();
-                pushInt(v);
-            } catch (ClacksParseNANException ex) {
-                // Just ignore it and tr the next one
-            }
+        for ( int val : (int[]) packet.getValue() ) {
+            pushInt(val);
         }
         
-        oszi.repaint();
+        ((Oscillograph) oszi).requestRepaint();
     }
 
     
+    /**
+     * Returns the decoder used for the byte stream. It provides the counters
+     * for resyncs and checksum errors.
+     * 
+     * @return The decoder
+     */
+    public ClacksIntDecoder getDecoder() {
+        return _decoder.getDecoder();
+    }
+    
     /**
      * No popup mneu
      * 
@@ -237,26 +333,33 @@ public class OscillographMonitor extends MonitorPanel {
     }
         
     /**
-     * The operations for the ring buffer
+     * The operations for the history and the trigger
      */
     
     /**
-     * Add an int to the buffer
+     * Add an int to the history and check the trigger.
      * 
      * @param val The int to be added
      */
     private void pushInt(int val) {
-        _buf[_tail] = val;
-        if ( _tail != _head ) {
-          _tail = (_tail+1) % _bufSize;
-          _size++;
-        } else if ( _size != 0 ) {
-          // Forget the first int
-          _tail = (_tail+1) % _bufSize;
-          _head = _tail;
-        } else {
-            _tail = ( _tail +1 ) % _bufSize;
-            _size = 1;
+        long index = _history.getNext();
+        int last = _history.size() > 0 ? _history.get(index-1) : val;
+        _history.add(val);
+        
+        // Check the trigger
+        if ( _triggerMode != TRIGGER_NONE ) {
+            if ( _pendingTrigger < 0 ) {
+                if ( isTriggered(last, val) ) {
+                    _pendingTrigger = index;
+                }
+            }
+            if ( (_pendingTrigger >= 0) && (index >= _pendingTrigger + _postTrigger - 1) ) {
+                // The capture is complete, rearm the trigger
+                _captureTrigger = _pendingTrigger;
+                _captureStart = Math.max(_history.getFirst(), _pendingTrigger - _preTrigger);
+                _captureEnd = index + 1;
+                _pendingTrigger = -1;
+            }
         }
         
         // Check max and min value
@@ -269,34 +372,118 @@ public class OscillographMonitor extends MonitorPanel {
             computeScale();
         }
     }
-        
+    
+    /**
+     * Check if the step from last to val fires the trigger.
+     * 
+     * The level mode fires if the level is crossed in either direction.
+     * 
+     * @param last The previous sample
+     * @param val The current sample
+     * @return true if the trigger fires
+     */
+    private boolean isTriggered(int last, int val) {
+        switch ( _triggerMode ) {
+            case TRIGGER_RISING:
+                return (last < _triggerLevel) && (val >= _triggerLevel);
+            case TRIGGER_FALLING:
+                return (last > _triggerLevel) && (val <= _triggerLevel);
+            case TRIGGER_LEVEL:
+                return ((last < _triggerLevel) && (val >= _triggerLevel))
+                        || ((last > _triggerLevel) && (val <= _triggerLevel));
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Forget the pending trigger and the last capture.
+     */
+    private void clearTrigger() {
+        _pendingTrigger = -1;
+        _captureTrigger = -1;
+        _captureStart = -1;
+        _captureEnd = -1;
+    }
+    
+    /**
+     * Set the trigger mode. The last capture is dropped.
+     * 
+     * @param mode One of TRIGGER_NONE, TRIGGER_RISING, TRIGGER_FALLING or TRIGGER_LEVEL
+     */
+    public void setTriggerMode(int mode) {
+        _triggerMode = mode;
+        clearTrigger();
+        ((Oscillograph) oszi).resetView();
+    }
+    
+    public int getTriggerMode() {
+        return _triggerMode;
+    }
+    
     /**
-     * Get the current number of ints in the buffer
+     * Set the trigger level. The last capture is dropped.
      * 
-     * @return The number of ints in the buffer
+     * @param level The new level
      */
-    public int getBufSize() {
-        return _size;
+    public void setTriggerLevel(int level) {
+        _triggerLevel = level;
+        clearTrigger();
+        oszi.repaint();
+    }
+    
+    public int getTriggerLevel() {
+        return _triggerLevel;
+    }
+    
+    /**
+     * Set the size of the capture window around the trigger.
+     * 
+     * @param pre The number of samples before the trigger
+     * @param post The number of samples after the trigger, including the trigger sample
+     */
+    public void setTriggerWindow(int pre, int post) {
+        _preTrigger = Math.max(0, pre);
+        _postTrigger = Math.max(1, post);
+        clearTrigger();
+    }
+    
+    public int getPreTrigger() {
+        return _preTrigger;
+    }
+    
+    public int getPostTrigger() {
+        return _postTrigger;
     }
     
     /**
-     * Checks if the buffer is empty
+     * Checks if a complete capture is available and still in the history.
      * 
-     * @return true if the buffer is empty.
+     * @return true if a capture is available
      */
-    private boolean isEmpty() {
-        return ( _size == 0 );
+    public boolean hasCapture() {
+        return (_triggerMode != TRIGGER_NONE) && (_captureStart >= 0) && _history.contains(_captureStart);
+    }
+    
+    public long getCaptureStart() {
+        return _captureStart;
     }
     
+    public long getCaptureTrigger() {
+        return _captureTrigger;
+    }
+    
+    public long getCaptureEnd() {
+        return _captureEnd;
+    }
+        
     /**
-     * Return the int at the given index, counted from _head.
+     * Get the history of received ints.
      * 
-     * @param index The index of the value to be fetched
-     * @return  Returns the integer at the given index of the buffer.
+     * @return The history
      */
-    public int getInt(int index) {
-        int pos = (index + _head) % _bufSize;
-        return _buf[pos];
+    public SampleHistory getHistory() {
+        return _history;
     }
     
     /**
@@ -319,14 +506,15 @@ public class OscillographMonitor extends MonitorPanel {
      * Reset the scale
      */
     public void resetScale() {
-        if ( _size == 0 ) {
+        if ( _history.size() == 0 ) {
           _minValue = -10;   
           _maxValue = 10;   
           _scaleKnown = false;
           _scale = 2;
         } else {
-            _maxValue = getInt(_size)+10;
-            _minValue = getInt(_size)-10;
+            int last = _history.get(_history.getNext()-1);
+            _maxValue = last+10;
+            _minValue = last-10;
             computeScale();
         }
     }
@@ -373,9 +561,8 @@ public class OscillographMonitor extends MonitorPanel {
     
     
     public void reset() {
-        _head = 0;
-        _tail = 0;
-        _size = 0;
+        _history.clear();
+        clearTrigger();
         _scaleKnown = false;
         _scale = 5;
         _minValue = -10;
@@ -384,6 +571,41 @@ public class OscillographMonitor extends MonitorPanel {
 
 
     @Override
-    public void disconnect(AbbozzaMonitor monitor) {}
+    public void disconnect(AbbozzaMonitor monitor) {
+        monitor.getClacksService().removeDecoder(_decoder);
+    }
+    
+    
+    /**
+     * Mouse wheel zooms, dragging pans and a double click resets the view.
+     */
+    private class OscillographMouseListener extends MouseAdapter {
+        
+        private int _dragX;
+        
+        @Override
+        public void mousePressed(MouseEvent e) {
+            _dragX = e.getX();
+        }
+        
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            if ( !SwingUtilities.isLeftMouseButton(e) ) return;
+            ((Oscillograph) oszi).pan(e.getX() - _dragX);
+            _dragX = e.getX();
+        }
+        
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            if ( SwingUtilities.isLeftMouseButton(e) && (e.getClickCount() == 2) ) {
+                ((Oscillograph) oszi).resetView();
+            }
+        }
+        
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            ((Oscillograph) oszi).zoom(e.getWheelRotation(), e.getX());
+        }
+    }
     
 }
@@ -0,0 +1,285 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview The bytes received from the board.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the last bytes received from the board together with the capture
+ * time of each chunk, independent of what the protocol view shows.
+ *
+ * The bytes are addressed by their absolute position since the capture was
+ * cleared. They are kept in a ring buffer growing up to its capacity (option
+ * monitor.capture_size, default 8MB), afterwards the oldest bytes are
+ * dropped. The start of each chunk is kept in a second ring buffer.
+ *
+ * The capture is not synchronized, it is used by the event dispatch thread.
+ *
+ * @author mbrinkmeier
+ */
+public class ProtocolCapture {
+
+    public static final int DEFAULT_SIZE = 8 * 1024 * 1024;
+    private static final int INITIAL_SIZE = 64 * 1024;
+    private static final int INITIAL_CHUNKS = 1024;
+
+    private final int _maxSize;
+    private final int _maxChunks;
+
+    // The bytes with absolute positions from _start to _end
+    private byte _buf[];
+    private long _start;
+    private long _end;
+
+    // The absolute start and the capture time of the chunks
+    private long _chunkStart[];
+    private long _chunkTime[];
+    private int _first;
+    private int _count;
+
+    // Counts the calls of clear()
+    private long _clears = -1;
+
+    public ProtocolCapture() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a capture.
+     *
+     * @param size The maximal number of bytes
+     */
+    public ProtocolCapture(int size) {
+        _maxSize = Math.max(1024, size);
+        _maxChunks = Math.max(INITIAL_CHUNKS, _maxSize / 8);
+        clear();
+    }
+
+    /**
+     * Remove all bytes.
+     */
+    public final void clear() {
+        _buf = new byte[Math.min(INITIAL_SIZE, _maxSize)];
+        _chunkStart = new long[INITIAL_CHUNKS];
+        _chunkTime = new long[INITIAL_CHUNKS];
+        _start = 0;
+        _end = 0;
+        _first = 0;
+        _count = 0;
+        _clears++;
+    }
+
+    /**
+     * Append a chunk of bytes.
+     *
+     * @param bytes The bytes
+     * @param time The capture time of the bytes
+     */
+    public void append(byte[] bytes, long time) {
+        if (bytes.length == 0) {
+            return;
+        }
+        int off = 0;
+        int len = bytes.length;
+        if (len > _maxSize) {
+            // Only the tail fits
+            off = len - _maxSize;
+            len = _maxSize;
+            _end += off;
+            dropBytes(_end);
+        }
+        while ((_end - _start + len > _buf.length) && (_buf.length < _maxSize)) {
+            growBytes();
+        }
+        if (_end - _start + len > _buf.length) {
+            dropBytes(_end + len - _buf.length);
+        }
+        if (_count == _chunkStart.length) {
+            if (_count < _maxChunks) {
+                growChunks();
+            } else {
+                dropBytes(getChunkStart(1));
+            }
+        }
+        int idx = (_first + _count) % _chunkStart.length;
+        _chunkStart[idx] = _end;
+        _chunkTime[idx] = time;
+        _count++;
+
+        int pos = (int) (_end % _buf.length);
+        int first = Math.min(len, _buf.length - pos);
+        System.arraycopy(bytes, off, _buf, pos, first);
+        System.arraycopy(bytes, off + first, _buf, 0, len - first);
+        _end += len;
+    }
+
+    /**
+     * Drop all bytes before the given position and the chunks ending there.
+     */
+    private void dropBytes(long pos) {
+        _start = Math.max(_start, pos);
+        while ((_count > 1) && (getChunkStart(1) <= _start)) {
+            _first = (_first + 1) % _chunkStart.length;
+            _count--;
+        }
+        if ((_count == 1) && (_start >= _end)) {
+            _first = 0;
+            _count = 0;
+        }
+    }
+
+    private void growBytes() {
+        int size = (int) Math.min(_maxSize, 2L * _buf.length);
+        byte buf[] = new byte[size];
+        for (long pos = _start; pos < _end; pos++) {
+            buf[(int) (pos % size)] = _buf[(int) (pos % _buf.length)];
+        }
+        _buf = buf;
+    }
+
+    private void growChunks() {
+        int size = (int) Math.min(_maxChunks, 2L * _chunkStart.length);
+        long start[] = new long[size];
+        long time[] = new long[size];
+        for (int i = 0; i < _count; i++) {
+            int idx = (_first + i) % _chunkStart.length;
+            start[i] = _chunkStart[idx];
+            time[i] = _chunkTime[idx];
+        }
+        _chunkStart = start;
+        _chunkTime = time;
+        _first = 0;
+    }
+
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Returns the number of times the capture was cleared. Positions are
+     * only comparable as long as it does not change.
+     *
+     * @return The number
+     */
+    public long getClears() {
+        return _clears;
+    }
+
+    /**
+     * Returns the position of the oldest byte kept.
+     *
+     * @return The position
+     */
+    public long getStart() {
+        return _start;
+    }
+
+    /**
+     * Returns the position after the last byte.
+     *
+     * @return The position
+     */
+    public long getEnd() {
+        return _end;
+    }
+
+    public byte get(long pos) {
+        return _buf[(int) (pos % _buf.length)];
+    }
+
+    /**
+     * Copy bytes.
+     *
+     * @param pos The position of the first byte, at least getStart()
+     * @param dst The destination
+     * @param off The offset in the destination
+     * @param len The maximal number of bytes
+     * @return The number of bytes copied
+     */
+    public int read(long pos, byte[] dst, int off, int len) {
+        len = (int) Math.max(0, Math.min(len, _end - pos));
+        int from = (int) (pos % _buf.length);
+        int first = Math.min(len, _buf.length - from);
+        System.arraycopy(_buf, from, dst, off, first);
+        System.arraycopy(_buf, 0, dst, off + first, len - first);
+        return len;
+    }
+
+    public int getChunkCount() {
+        return _count;
+    }
+
+    /**
+     * Returns the position of the first byte of a chunk still kept.
+     *
+     * @param chunk The chunk, 0 is the oldest one
+     * @return The position
+     */
+    public long getChunkStart(int chunk) {
+        return Math.max(_start, _chunkStart[(_first + chunk) % _chunkStart.length]);
+    }
+
+    public long getChunkTime(int chunk) {
+        return _chunkTime[(_first + chunk) % _chunkStart.length];
+    }
+
+    /**
+     * Returns the chunk containing a byte.
+     *
+     * @param pos The position of the byte
+     * @return The chunk or -1 if the byte is not kept
+     */
+    public int getChunk(long pos) {
+        if ((pos < _start) || (pos >= _end)) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = _count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (getChunkStart(mid) <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Write all bytes kept.
+     *
+     * @param out The stream
+     * @throws IOException If the bytes could not be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        int from = (int) (_start % _buf.length);
+        int len = (int) (_end - _start);
+        int first = Math.min(len, _buf.length - from);
+        out.write(_buf, from, first);
+        out.write(_buf, 0, len - first);
+    }
+}
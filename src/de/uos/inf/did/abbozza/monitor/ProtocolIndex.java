@@ -0,0 +1,227 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A search index for the bytes of a ProtocolCapture.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Finds byte sequences in a ProtocolCapture without scanning all bytes.
+ *
+ * The capture is divided into blocks of BLOCK bytes. For each block a
+ * signature of BITS bits records the sequences of three bytes starting in
+ * it, each setting one bit chosen by a hash. A pattern can only start in a
+ * block if the signatures of the block and the following one contain the
+ * bits of all its three byte sequences. Only the bytes of such blocks are
+ * compared with the pattern.
+ *
+ * The signatures are kept in a ring covering the capacity of the capture,
+ * i.e. the index needs BITS / (8 * BLOCK) bytes per byte of the capture.
+ * update() adds the bytes appended since its last call, bytes dropped by the
+ * capture are skipped. Patterns shorter than three bytes are searched by
+ * scanning.
+ *
+ * The index is not synchronized, it is used by the event dispatch thread.
+ *
+ * @author mbrinkmeier
+ */
+public class ProtocolIndex {
+
+    public static final int BLOCK = 512;
+    private static final int WORDS = 32;
+    private static final int BITS = WORDS * 64;
+    private static final int SHIFT = 32 - Integer.numberOfTrailingZeros(BITS);
+
+    private final ProtocolCapture _capture;
+    private final int _blocks;
+    private final long _signatures[];
+    private long _clears;
+    private long _indexed;     // The sequences starting before are indexed
+    private long _lastBlock;   // The last block with a valid signature
+    private int _b0;           // The two bytes before _indexed
+    private int _b1;
+
+    /**
+     * Creates an index for a capture.
+     *
+     * @param capture The capture
+     */
+    public ProtocolIndex(ProtocolCapture capture) {
+        _capture = capture;
+        _blocks = capture.getMaxSize() / BLOCK + 2;
+        _signatures = new long[_blocks * WORDS];
+        reset();
+    }
+
+    private void reset() {
+        Arrays.fill(_signatures, 0);
+        _clears = _capture.getClears();
+        _indexed = 0;
+        _lastBlock = -1;
+    }
+
+    private static int hash(int b0, int b1, int b2) {
+        return (((b0 << 16) | (b1 << 8) | b2) * 0x9E3779B1) >>> SHIFT;
+    }
+
+    /**
+     * Index the bytes appended to the capture since the last call.
+     */
+    public void update() {
+        if (_clears != _capture.getClears()) {
+            reset();
+        }
+        long end = _capture.getEnd();
+        long pos = Math.max(_indexed, _capture.getStart());
+        if (pos + 2 >= end) {
+            return;
+        }
+        if (pos != _indexed) {
+            // Bytes were dropped before they were indexed
+            _b0 = _capture.get(pos) & 0xFF;
+            _b1 = _capture.get(pos + 1) & 0xFF;
+        } else if (pos == 0) {
+            _b0 = _capture.get(0) & 0xFF;
+            _b1 = _capture.get(1) & 0xFF;
+        }
+        for (; pos + 2 < end; pos++) {
+            long block = pos / BLOCK;
+            if (block > _lastBlock) {
+                for (long b = Math.max(_lastBlock + 1, block - _blocks + 1); b <= block; b++) {
+                    int off = (int) (b % _blocks) * WORDS;
+                    Arrays.fill(_signatures, off, off + WORDS, 0);
+                }
+                _lastBlock = block;
+            }
+            int b2 = _capture.get(pos + 2) & 0xFF;
+            int bit = hash(_b0, _b1, b2);
+            _signatures[(int) (block % _blocks) * WORDS + (bit >>> 6)] |= 1L << bit;
+            _b0 = _b1;
+            _b1 = b2;
+        }
+        _indexed = pos;
+    }
+
+    /**
+     * Find the next occurence of a pattern.
+     *
+     * @param pattern The pattern
+     * @param from The first position to check
+     * @return The position of the occurence or -1
+     */
+    public long findNext(byte[] pattern, long from) {
+        update();
+        long first = Math.max(from, _capture.getStart());
+        long last = _capture.getEnd() - pattern.length;
+        if ((pattern.length == 0) || (first > last)) {
+            return -1;
+        }
+        if (pattern.length < 3) {
+            return scan(pattern, first, last, 1);
+        }
+        long mask[] = getMask(pattern);
+        for (long block = first / BLOCK; block * BLOCK <= last; block++) {
+            if (isCandidate(block, mask)) {
+                long pos = scan(pattern, Math.max(first, block * BLOCK), Math.min(last, (block + 1) * BLOCK - 1), 1);
+                if (pos >= 0) {
+                    return pos;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the previous occurence of a pattern.
+     *
+     * @param pattern The pattern
+     * @param before The occurence has to start before this position
+     * @return The position of the occurence or -1
+     */
+    public long findPrevious(byte[] pattern, long before) {
+        update();
+        long first = _capture.getStart();
+        long last = Math.min(before - 1, _capture.getEnd() - pattern.length);
+        if ((pattern.length == 0) || (first > last)) {
+            return -1;
+        }
+        if (pattern.length < 3) {
+            return scan(pattern, last, first, -1);
+        }
+        long mask[] = getMask(pattern);
+        for (long block = last / BLOCK; (block + 1) * BLOCK > first; block--) {
+            if (isCandidate(block, mask)) {
+                long pos = scan(pattern, Math.min(last, (block + 1) * BLOCK - 1), Math.max(first, block * BLOCK), -1);
+                if (pos >= 0) {
+                    return pos;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The bits of the sequences starting in the first BLOCK bytes of the
+     * pattern. They start in the same block as the pattern or the next one.
+     */
+    private long[] getMask(byte[] pattern) {
+        long mask[] = new long[WORDS];
+        int len = Math.min(pattern.length, BLOCK + 2);
+        for (int i = 0; i + 2 < len; i++) {
+            int bit = hash(pattern[i] & 0xFF, pattern[i + 1] & 0xFF, pattern[i + 2] & 0xFF);
+            mask[bit >>> 6] |= 1L << bit;
+        }
+        return mask;
+    }
+
+    private boolean isCandidate(long block, long[] mask) {
+        int off = (int) (block % _blocks) * WORDS;
+        int next = (int) ((block + 1) % _blocks) * WORDS;
+        boolean hasNext = block + 1 <= _lastBlock;
+        for (int i = 0; i < WORDS; i++) {
+            long sig = _signatures[off + i] | (hasNext ? _signatures[next + i] : 0);
+            if ((mask[i] & ~sig) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare the pattern with the bytes starting at the positions from
+     * first to last.
+     */
+    private long scan(byte[] pattern, long first, long last, int step) {
+        for (long pos = first; (step > 0) ? pos <= last : pos >= last; pos += step) {
+            int i = 0;
+            while ((i < pattern.length) && (_capture.get(pos + i) == pattern[i])) {
+                i++;
+            }
+            if (i == pattern.length) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview The lines of the protocol.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+/**
+ * Keeps the last lines of the protocol, each with a style.
+ *
+ * The characters are kept in a ring buffer and the lines are given by their
+ * start in a second ring buffer. Both grow up to their capacity, afterwards
+ * the oldest lines are dropped. Hence the memory is bounded, no matter how
+ * long the monitor runs. Lines are numbered from the oldest line still kept,
+ * getDropped() returns the number of lines dropped before it.
+ *
+ * The log is not synchronized, it is used by the event dispatch thread.
+ *
+ * @author mbrinkmeier
+ */
+public class ProtocolLog {
+
+    public static final int DEFAULT_LINES = 1000000;
+    public static final int DEFAULT_CHARS = 32 * 1024 * 1024;
+    // Longer lines are continued in the next line
+    public static final int MAX_LINE = 4096;
+    private static final int INITIAL_LINES = 1024;
+    private static final int INITIAL_CHARS = 64 * 1024;
+
+    private final int _maxLines;
+    private final int _maxChars;
+
+    // The characters with absolute positions from _textStart to _textEnd
+    private char _text[];
+    private long _textStart;
+    private long _textEnd;
+
+    // The absolute start and the style of the lines
+    private long _lineStart[];
+    private byte _lineStyle[];
+    private int _first;
+    private int _count;
+    private long _dropped;
+
+    // True if the last line is not terminated yet
+    private boolean _open;
+    private int _maxLength;
+
+    public ProtocolLog() {
+        this(DEFAULT_LINES, DEFAULT_CHARS);
+    }
+
+    /**
+     * Creates a log.
+     *
+     * @param maxLines The maximal number of lines
+     * @param maxChars The maximal number of characters
+     */
+    public ProtocolLog(int maxLines, int maxChars) {
+        _maxLines = Math.max(2, maxLines);
+        _maxChars = Math.max(2 * MAX_LINE, maxChars);
+        clear();
+    }
+
+    /**
+     * Remove all lines.
+     */
+    public final void clear() {
+        _text = new char[Math.min(INITIAL_CHARS, _maxChars)];
+        _lineStart = new long[Math.min(INITIAL_LINES, _maxLines)];
+        _lineStyle = new byte[_lineStart.length];
+        _textStart = 0;
+        _textEnd = 0;
+        _first = 0;
+        _count = 0;
+        _dropped = 0;
+        _open = false;
+        _maxLength = 0;
+    }
+
+    /**
+     * Append text. Each line feed terminates a line, carriage returns are
+     * ignored. If the style differs from the one of the unterminated last
+     * line, a new line is started.
+     *
+     * @param text The text
+     * @param style The style
+     */
+    public void append(String text, int style) {
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            if (c == '\r') {
+                continue;
+            }
+            if (c == '\n') {
+                if (!_open) {
+                    startLine(style);
+                }
+                _open = false;
+                continue;
+            }
+            if (!_open || (_lineStyle[index(_count - 1)] != style) || (getLength(_count - 1) >= MAX_LINE)) {
+                startLine(style);
+            }
+            appendChar(c);
+        }
+    }
+
+    private int index(int line) {
+        return (_first + line) % _lineStart.length;
+    }
+
+    private void startLine(int style) {
+        if (_count == _lineStart.length) {
+            if (_count < _maxLines) {
+                growLines();
+            } else {
+                dropLine();
+            }
+        }
+        int idx = index(_count);
+        _lineStart[idx] = _textEnd;
+        _lineStyle[idx] = (byte) style;
+        _count++;
+        _open = true;
+    }
+
+    private void appendChar(char c) {
+        if (_textEnd - _textStart == _text.length) {
+            if (_text.length < _maxChars) {
+                growText();
+            } else {
+                // Never drop the line being written
+                while ((_count > 1) && (_textEnd - _textStart == _text.length)) {
+                    dropLine();
+                }
+            }
+        }
+        _text[(int) (_textEnd % _text.length)] = c;
+        _textEnd++;
+        _maxLength = Math.max(_maxLength, (int) (_textEnd - _lineStart[index(_count - 1)]));
+    }
+
+    private void growLines() {
+        int size = (int) Math.min(_maxLines, 2L * _lineStart.length);
+        long start[] = new long[size];
+        byte style[] = new byte[size];
+        for (int i = 0; i < _count; i++) {
+            start[i] = _lineStart[index(i)];
+            style[i] = _lineStyle[index(i)];
+        }
+        _lineStart = start;
+        _lineStyle = style;
+        _first = 0;
+    }
+
+    private void growText() {
+        int size = (int) Math.min(_maxChars, 2L * _text.length);
+        char text[] = new char[size];
+        for (long pos = _textStart; pos < _textEnd; pos++) {
+            text[(int) (pos % size)] = _text[(int) (pos % _text.length)];
+        }
+        _text = text;
+    }
+
+    private void dropLine() {
+        _textStart = (_count > 1) ? _lineStart[index(1)] : _textEnd;
+        _first = (_first + 1) % _lineStart.length;
+        _count--;
+        _dropped++;
+        if (_count == 0) {
+            _open = false;
+        }
+    }
+
+    public int getLineCount() {
+        return _count;
+    }
+
+    /**
+     * Returns the number of lines dropped since the log was cleared.
+     *
+     * @return The number of lines
+     */
+    public long getDropped() {
+        return _dropped;
+    }
+
+    /**
+     * Returns the length of the longest line appended so far.
+     *
+     * @return The number of characters
+     */
+    public int getMaxLength() {
+        return _maxLength;
+    }
+
+    public int getLength(int line) {
+        long end = (line + 1 < _count) ? _lineStart[index(line + 1)] : _textEnd;
+        return (int) (end - _lineStart[index(line)]);
+    }
+
+    public int getStyle(int line) {
+        return _lineStyle[index(line)];
+    }
+
+    /**
+     * Copy the characters of a line.
+     *
+     * @param line The line
+     * @param buf The buffer, at least getLength(line) long
+     * @return The number of characters
+     */
+    public int getChars(int line, char[] buf) {
+        long start = _lineStart[index(line)];
+        int len = getLength(line);
+        int from = (int) (start % _text.length);
+        int first = Math.min(len, _text.length - from);
+        System.arraycopy(_text, from, buf, 0, first);
+        System.arraycopy(_text, 0, buf, first, len - first);
+        return len;
+    }
+
+    public String getLine(int line) {
+        char buf[] = new char[getLength(line)];
+        return new String(buf, 0, getChars(line, buf));
+    }
+}
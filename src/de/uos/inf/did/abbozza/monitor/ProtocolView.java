@@ -0,0 +1,357 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A view of the protocol, painting only the visible lines.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.UIManager;
+
+/**
+ * Shows the lines of a ProtocolLog. Only the lines inside the clip are
+ * painted and appending a line only changes the preferred height, hence the
+ * costs do not depend on the length of the protocol.
+ *
+ * If the view shows the last line, it follows appended lines. Otherwise it
+ * stays at the shown lines, even if older lines are dropped. Whole lines can
+ * be selected with the mouse and copied.
+ *
+ * The capacity is given by the options monitor.protocol_lines (default
+ * 1000000 lines) and monitor.protocol_chars (default 32M characters).
+ *
+ * @author mbrinkmeier
+ */
+public class ProtocolView extends JComponent implements Scrollable {
+
+    public static final int INPUT = 0;
+    public static final int OUTPUT = 1;
+    public static final int INFO = 2;
+    public static final int ERROR = 3;
+
+    private static final int MAX_COPY = 100000;
+    private static final int MARGIN = 3;
+
+    private static final Color[] COLORS = {null, Color.BLUE, Color.GREEN, Color.RED};
+    private static final int[] FONT_STYLES = {Font.PLAIN, Font.BOLD, Font.BOLD, Font.ITALIC};
+
+    private final ProtocolLog _log;
+    private final Font[] _fonts = new Font[FONT_STYLES.length];
+    private int _lineHeight;
+    private int _ascent;
+    private int _charWidth;
+    private char _buf[] = new char[ProtocolLog.MAX_LINE];
+
+    // The selected lines, counted including the dropped ones
+    private long _selectionStart = -1;
+    private long _selectionEnd = -1;
+
+    public ProtocolView() {
+        int lines = ProtocolLog.DEFAULT_LINES;
+        int chars = ProtocolLog.DEFAULT_CHARS;
+        if (AbbozzaServer.getInstance() != null) {
+            int val = AbbozzaServer.getConfig().getOptionInt("monitor.protocol_lines");
+            if (val > 0) {
+                lines = val;
+            }
+            val = AbbozzaServer.getConfig().getOptionInt("monitor.protocol_chars");
+            if (val > 0) {
+                chars = val;
+            }
+        }
+        _log = new ProtocolLog(lines, chars);
+
+        setOpaque(true);
+        setFocusable(true);
+        setBackground(UIManager.getColor("TextPane.background"));
+        setForeground(UIManager.getColor("TextPane.foreground"));
+        setFont(UIManager.getFont("TextPane.font"));
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (e.getButton() == MouseEvent.BUTTON1) {
+                    requestFocusInWindow();
+                    _selectionStart = lineAt(e.getY());
+                    _selectionEnd = _selectionStart;
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                _selectionEnd = lineAt(e.getY());
+                scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK), "copy");
+        getActionMap().put("copy", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copy();
+            }
+        });
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_A, InputEvent.CTRL_DOWN_MASK), "selectAll");
+        getActionMap().put("selectAll", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                _selectionStart = _log.getDropped();
+                _selectionEnd = _log.getDropped() + _log.getLineCount() - 1;
+                repaint();
+            }
+        });
+    }
+
+    /**
+     * Returns the style for the name used by the monitor.
+     *
+     * @param style "input", "output", "info" or "error"
+     * @return The style
+     */
+    public static int getStyle(String style) {
+        if (style == null) {
+            return INPUT;
+        }
+        switch (style) {
+            case "output":
+                return OUTPUT;
+            case "info":
+                return INFO;
+            case "error":
+                return ERROR;
+            default:
+                return INPUT;
+        }
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        if (font == null) {
+            return;
+        }
+        for (int i = 0; i < FONT_STYLES.length; i++) {
+            _fonts[i] = font.deriveFont(FONT_STYLES[i]);
+        }
+        FontMetrics metrics = getFontMetrics(_fonts[OUTPUT]);
+        _lineHeight = Math.max(1, metrics.getHeight());
+        _ascent = metrics.getAscent();
+        _charWidth = Math.max(1, metrics.charWidth('m'));
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Append text to the protocol. Has to be called by the event dispatch
+     * thread.
+     *
+     * @param text The text
+     * @param style The style
+     */
+    public void append(String text, String style) {
+        boolean follow = isAtEnd();
+        long dropped = _log.getDropped();
+        int count = _log.getLineCount();
+        int width = _log.getMaxLength();
+        _log.append(text, getStyle(style));
+        int shift = (int) (_log.getDropped() - dropped);
+        if ((count == _log.getLineCount()) && (shift == 0) && (width == _log.getMaxLength())) {
+            // Only the last line changed
+            repaintLine(count - 1);
+            return;
+        }
+        revalidate();
+        JViewport viewport = getViewport();
+        if (viewport == null) {
+            repaint();
+            return;
+        }
+        // The view has no children, hence its layout is cheap
+        viewport.doLayout();
+        Rectangle view = viewport.getViewRect();
+        if (follow) {
+            view.y = Math.max(0, getPreferredSize().height - view.height);
+        } else {
+            // Keep the shown lines in place
+            view.y = Math.max(0, view.y - shift * _lineHeight);
+        }
+        viewport.setViewPosition(view.getLocation());
+        repaint();
+    }
+
+    /**
+     * Remove all lines.
+     */
+    public void clear() {
+        _log.clear();
+        _selectionStart = -1;
+        _selectionEnd = -1;
+        revalidate();
+        repaint();
+    }
+
+    public ProtocolLog getLog() {
+        return _log;
+    }
+
+    /**
+     * Copy the selected lines to the clipboard.
+     */
+    public void copy() {
+        if (_selectionStart < 0) {
+            return;
+        }
+        long dropped = _log.getDropped();
+        int from = (int) Math.max(0, Math.min(_selectionStart, _selectionEnd) - dropped);
+        int to = (int) Math.min(_log.getLineCount() - 1, Math.max(_selectionStart, _selectionEnd) - dropped);
+        to = Math.min(to, from + MAX_COPY - 1);
+        if (from > to) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int line = from; line <= to; line++) {
+            text.append(_log.getLine(line)).append('\n');
+        }
+        StringSelection selection = new StringSelection(text.toString());
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
+    }
+
+    private long lineAt(int y) {
+        int line = Math.max(0, Math.min(_log.getLineCount() - 1, y / _lineHeight));
+        return _log.getDropped() + line;
+    }
+
+    private JViewport getViewport() {
+        return (getParent() instanceof JViewport) ? (JViewport) getParent() : null;
+    }
+
+    private boolean isAtEnd() {
+        JViewport viewport = getViewport();
+        if (viewport == null) {
+            return true;
+        }
+        Rectangle view = viewport.getViewRect();
+        return view.y + view.height >= getHeight() - _lineHeight;
+    }
+
+    private void repaintLine(int line) {
+        repaint(0, line * _lineHeight, getWidth(), _lineHeight);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        int count = _log.getLineCount();
+        int first = Math.max(0, clip.y / _lineHeight);
+        int last = Math.min(count - 1, (clip.y + clip.height) / _lineHeight);
+        long dropped = _log.getDropped();
+        long selFrom = Math.min(_selectionStart, _selectionEnd) - dropped;
+        long selTo = Math.max(_selectionStart, _selectionEnd) - dropped;
+        Color disabled = UIManager.getColor("TextPane.inactiveForeground");
+        if (disabled == null) {
+            disabled = Color.GRAY;
+        }
+
+        for (int line = first; line <= last; line++) {
+            int y = line * _lineHeight;
+            if ((_selectionStart >= 0) && (line >= selFrom) && (line <= selTo)) {
+                g.setColor(UIManager.getColor("TextPane.selectionBackground"));
+                g.fillRect(clip.x, y, clip.width, _lineHeight);
+            }
+            int style = _log.getStyle(line);
+            int len = _log.getChars(line, _buf);
+            g.setFont(_fonts[style]);
+            if (!isEnabled()) {
+                g.setColor(disabled);
+            } else if (COLORS[style] != null) {
+                g.setColor(COLORS[style]);
+            } else {
+                g.setColor(getForeground());
+            }
+            g.drawChars(_buf, 0, len, MARGIN, y + _ascent);
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(2 * MARGIN + _log.getMaxLength() * _charWidth, _log.getLineCount() * _lineHeight);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return (orientation == SwingConstants.VERTICAL) ? _lineHeight : _charWidth;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return Math.max(_lineHeight, visibleRect.height - _lineHeight);
+        }
+        return Math.max(_charWidth, visibleRect.width - _charWidth);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        JViewport viewport = getViewport();
+        return (viewport != null) && (viewport.getWidth() > getPreferredSize().width);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        JViewport viewport = getViewport();
+        return (viewport != null) && (viewport.getHeight() > getPreferredSize().height);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview Limits the repaints of a component to the display refresh rate.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Repaint requests are collected and executed at most once per display frame.
+ * The first request starts a single shot timer, further requests until it
+ * fires are merged into the same repaint.
+ *
+ * @author mbrinkmeier
+ */
+public class RepaintLimiter {
+
+    private static final int DEFAULT_RATE = 60;
+
+    private final JComponent _component;
+    private final Runnable _update;
+    private final Timer _timer;
+    private volatile boolean _dirty;
+
+    /**
+     * Creates a new limiter for the given component.
+     *
+     * @param component The component to be repainted
+     */
+    public RepaintLimiter(JComponent component) {
+        this(component, null);
+    }
+
+    /**
+     * Creates a new limiter for the given component.
+     *
+     * @param component The component to be repainted
+     * @param update An operation executed on the EDT before each repaint,
+     * e.g. to adapt the size of the component. May be null.
+     */
+    public RepaintLimiter(JComponent component, Runnable update) {
+        _component = component;
+        _update = update;
+        _dirty = false;
+        _timer = new Timer(getFrameDelay(), (evt) -> {
+            if (_dirty) {
+                _dirty = false;
+                if (_update != null) {
+                    _update.run();
+                }
+                _component.repaint();
+            }
+        });
+        _timer.setRepeats(false);
+    }
+
+    /**
+     * Request a repaint. It may be called from any thread.
+     */
+    public void requestRepaint() {
+        _dirty = true;
+        if (!_timer.isRunning()) {
+            _timer.start();
+        }
+    }
+
+    /**
+     * Stop the timer. Pending repaints are dropped.
+     */
+    public void stop() {
+        _timer.stop();
+        _dirty = false;
+    }
+
+    /**
+     * Returns the duration of a display frame in milliseconds. If the refresh
+     * rate of the screen is unknown, 60Hz are assumed.
+     *
+     * @return The frame duration in milliseconds
+     */
+    public static int getFrameDelay() {
+        int rate = DEFAULT_RATE;
+        try {
+            DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDisplayMode();
+            if (mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                rate = mode.getRefreshRate();
+            }
+        } catch (HeadlessException ex) {
+            // Use the default rate
+        }
+        return Math.max(1, 1000 / rate);
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * @fileoverview A deep history of int samples, stored in primitive chunks.
+ *
+ * @author michael.brinkmeier@uni-osnabrueck.de (Michael Brinkmeier)
+ */
+package de.uos.inf.did.abbozza.monitor;
+
+/**
+ * The history stores int samples in fixed size chunks of primitive arrays.
+ * Samples are addressed by their absolute index, i.e. the number of samples
+ * added before them. If the capacity is reached, the oldest chunk is
+ * dropped as a whole.
+ *
+ * For blocks of 2^6, 2^9, 2^12, 2^15 samples and for each chunk the minimum
+ * and maximum are kept. The envelope of a range is composed of the largest
+ * blocks fitting into it, hence its cost depends on the number of levels and
+ * not on the length of the range. Painting a column costs the same at every
+ * zoom level.
+ *
+ * @author mbrinkmeier
+ */
+public class SampleHistory {
+
+    public static final int CHUNK_BITS = 16;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // The sizes of the summarized blocks, the last one is a chunk
+    private static final int LEVEL_BITS[] = {6, 9, 12, 15, CHUNK_BITS};
+
+    private final int _chunks[][];
+    private final int _blockMin[][][];  // level, chunk, block
+    private final int _blockMax[][][];
+    private final long _capacity;
+    private long _first;  // The absolute index of the oldest sample
+    private long _next;   // The absolute index of the next sample
+
+    /**
+     * Creates a new history.
+     *
+     * @param capacity The number of samples to be kept. It is rounded up to
+     * a multiple of CHUNK_SIZE.
+     */
+    public SampleHistory(long capacity) {
+        int count = (int) Math.max(2, (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        _chunks = new int[count][];
+        _blockMin = new int[LEVEL_BITS.length][count][];
+        _blockMax = new int[LEVEL_BITS.length][count][];
+        _capacity = (long) count * CHUNK_SIZE;
+        _first = 0;
+        _next = 0;
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @param val The sample
+     */
+    public void add(int val) {
+        if (_next - _first >= _capacity) {
+            // Drop the oldest chunk
+            _first = _first + CHUNK_SIZE;
+        }
+        int chunk = (int) ((_next >>> CHUNK_BITS) % _chunks.length);
+        if (_chunks[chunk] == null) {
+            _chunks[chunk] = new int[CHUNK_SIZE];
+            for (int level = 0; level < LEVEL_BITS.length; level++) {
+                _blockMin[level][chunk] = new int[CHUNK_SIZE >> LEVEL_BITS[level]];
+                _blockMax[level][chunk] = new int[CHUNK_SIZE >> LEVEL_BITS[level]];
+            }
+        }
+        int pos = (int) (_next & CHUNK_MASK);
+        _chunks[chunk][pos] = val;
+
+        // Update the block summaries
+        for (int level = 0; level < LEVEL_BITS.length; level++) {
+            int block = pos >> LEVEL_BITS[level];
+            int min[] = _blockMin[level][chunk];
+            int max[] = _blockMax[level][chunk];
+            if ((pos & ((1 << LEVEL_BITS[level]) - 1)) == 0) {
+                min[block] = val;
+                max[block] = val;
+            } else if (val < min[block]) {
+                min[block] = val;
+            } else if (val > max[block]) {
+                max[block] = val;
+            }
+        }
+        _next++;
+    }
+
+    /**
+     * Returns the sample with the given absolute index. The index has to lie
+     * between getFirst() and getNext()-1.
+     *
+     * @param index The absolute index
+     * @return The sample
+     */
+    public int get(long index) {
+        return _chunks[(int) ((index >>> CHUNK_BITS) % _chunks.length)][(int) (index & CHUNK_MASK)];
+    }
+
+    /**
+     * Computes the minimum and maximum of the samples in the given range.
+     * The largest complete blocks are taken from the block summaries.
+     *
+     * @param from The absolute index of the first sample
+     * @param to The absolute index after the last sample
+     * @param result An array receiving the minimum at index 0 and the maximum
+     * at index 1
+     * @return false if the range contains no stored sample
+     */
+    public boolean minMax(long from, long to, int[] result) {
+        from = Math.max(from, _first);
+        to = Math.min(to, _next);
+        if (from >= to) {
+            return false;
+        }
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long idx = from;
+        while (idx < to) {
+            int chunk = (int) ((idx >>> CHUNK_BITS) % _chunks.length);
+            int pos = (int) (idx & CHUNK_MASK);
+            int level = LEVEL_BITS.length - 1;
+            while ((level >= 0) && (((pos & ((1 << LEVEL_BITS[level]) - 1)) != 0)
+                    || (idx + (1 << LEVEL_BITS[level]) > to))) {
+                level--;
+            }
+            if (level >= 0) {
+                int block = pos >> LEVEL_BITS[level];
+                if (_blockMin[level][chunk][block] < min) {
+                    min = _blockMin[level][chunk][block];
+                }
+                if (_blockMax[level][chunk][block] > max) {
+                    max = _blockMax[level][chunk][block];
+                }
+                idx += 1 << LEVEL_BITS[level];
+            } else {
+                int val = _chunks[chunk][pos];
+                if (val < min) {
+                    min = val;
+                }
+                if (val > max) {
+                    max = val;
+                }
+                idx++;
+            }
+        }
+        result[0] = min;
+        result[1] = max;
+        return true;
+    }
+
+    /**
+     * Checks if the sample with the given index is still kept.
+     *
+     * @param index The absolute index
+     * @return true if the sample is available
+     */
+    public boolean contains(long index) {
+        return (index >= _first) && (index < _next);
+    }
+
+    /**
+     * Returns the absolute index of the oldest sample.
+     *
+     * @return The index of the oldest sample
+     */
+    public long getFirst() {
+        return _first;
+    }
+
+    /**
+     * Returns the absolute index of the next sample to be added.
+     *
+     * @return The index of the next sample
+     */
+    public long getNext() {
+        return _next;
+    }
+
+    /**
+     * Returns the number of stored samples.
+     *
+     * @return The number of samples
+     */
+    public long size() {
+        return _next - _first;
+    }
+
+    /**
+     * Returns the maximum number of samples.
+     *
+     * @return The capacity
+     */
+    public long getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Remove all samples. The chunks are kept for reuse.
+     */
+    public void clear() {
+        _first = 0;
+        _next = 0;
+    }
+}
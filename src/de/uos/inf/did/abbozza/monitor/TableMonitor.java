@@ -50,8 +50,9 @@ public class TableMonitor extends MonitorPanel {
 
     public void setTableModel(TableMonitorModel valueTable) {
         this.tableModel = valueTable;
+        this.parser = new CsvSampleParser(valueTable);
     }
-    private StringBuffer buffer;
+    private CsvSampleParser parser;
     
     /**
      * Creates new form TableMonitor
@@ -59,9 +60,10 @@ public class TableMonitor extends MonitorPanel {
     public TableMonitor() {
         initComponents();
         
-        buffer = new StringBuffer();
         tableModel = new TableMonitorModel();
+        parser = new CsvSampleParser(tableModel);
         table.setModel(tableModel);
+        popup.add(new ChannelMenu(tableModel));
         table.addMouseListener(new MonitorMouseListener(this));
     }
 
@@ -162,52 +164,33 @@ public class TableMonitor extends MonitorPanel {
          * 
          **/
 
-        try {
-            StringBuffer buf = new StringBuffer(s);
-        
-            int idx = buf.indexOf(",");
-            if ( idx < 0 ) return;
-            String types = buf.substring(0,idx);
-            buf.delete(0,idx+1);
-            tableModel.setTypes(types);
-            
-            idx = buf.indexOf(",");
-            if ( idx < 0 ) return;
-            String ts = buf.substring(0,idx);
-            buf.delete(0,idx+1);
-            long timestamp = Long.parseLong(ts);
-
-            String val;
-            int[] values = new int[5];
-        
-            for (int i = 0; i < 4 ; i++) {
-                idx = buf.indexOf(",");
-                    if ( idx < 0 ) return;
-                val = buf.substring(0,idx);
-                buf.delete(0,idx+1);
-                values[i] = Integer.parseInt(val);
-            }
-            values[4] = Integer.parseInt(buf.toString());
-                
-            tableModel.addRow(timestamp, values);
-        } catch (Exception ex) {
-            // ex.printStackTrace(System.out);
-        }
+        parser.parse(s);
+    }
+    
+    @Override
+    public void processMessage(String s, long captureTime) {
+        parser.parse(s, captureTime);
+    }
+    
+    /**
+     * Returns the parser of the sample lines, e.g. to read its counters.
+     * 
+     * @return The parser
+     */
+    public CsvSampleParser getParser() {
+        return parser;
     }
     
     public long getTimestamp(int row) {
-        Long l = (Long) tableModel.getValueAt(row,0);
-        return l.longValue();
+        return tableModel.getTimestamp(row);
     }
     
     public short getValue(int row, int channel) {
-        Short s = (Short) tableModel.getValueAt(row,channel+1);
-        return s.shortValue();        
+        return (short) tableModel.getValue(row,channel);
     }
     
     public long getSysTime(int row) {
-        Long l = (Long) tableModel.getValueAt(row,6);
-        return l.longValue();
+        return tableModel.getSysTime(row);
     }
 
     public String getName() {
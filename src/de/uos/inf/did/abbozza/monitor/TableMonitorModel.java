@@ -24,89 +24,460 @@
  */
 package de.uos.inf.did.abbozza.monitor;
 
+import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import de.uos.inf.did.abbozza.monitor.clacks.CaptureClock;
+import de.uos.inf.did.abbozza.monitor.clacks.ClockEstimator;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Iterator;
 import java.util.Vector;
+import javax.swing.Timer;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.TableModel;
 
 /**
+ * The rows are kept in a ColumnStore. The number of rows kept on the heap is
+ * limited by the options monitor.table_rows and monitor.table_bytes. If the
+ * option monitor.table_spill is set, older rows are moved to a temporary
+ * file, otherwise they are removed from the table. The file keeps at most
+ * monitor.table_spill_rows rows.
+ *
+ * New rows can be added from any thread. They are collected and moved into
+ * the table at most once per display frame on the event dispatch thread.
+ * At most MAX_PENDING rows wait for a flush. If the event dispatch thread
+ * falls behind, further rows are dropped and counted until the next flush.
+ * Each batch is published to the listeners as a single INSERT event. Listeners
+ * which only show the newest row can register with addLatestRowListener().
+ * They receive one event for the last row per batch.
+ *
+ * The channels are described by MonitorChannels. By default there are five
+ * channels. A new set of channels can be declared with setChannels(), which
+ * clears the table. Hidden channels are not shown as columns.
+ *
+ * If a ClockEstimator is set, the timestamp of each row is converted to the
+ * host clock. Otherwise the host time of a row is its capture time.
  *
  * @author mbrinkmeier
  */
 public class TableMonitorModel implements TableModel {
 
+    public static final int DEFAULT_CHANNELS = 5;
+    public static final long DEFAULT_ROWS = 1 << 20;
+    public static final int MAX_PENDING = 1 << 16;
     
-    class Entry {
-        public long sysTime;
-        public long timestamp;
-        int[] values;
-        
-        public Entry(long ts, int[] vs, long st) {
-            timestamp = ts;
-            values = vs;           
-            sysTime = st;
-        }
-        
-        public String toString() {
-            return "" + timestamp +"|" + values[0] + "|"+ values[1] + "|"+ values[2] + "|"+ values[3] + "|"+ values[4] + "|" + sysTime;
-        }
-    }
-    
-    
-    private Vector<Entry> entries;
+    private ColumnStore store;
     private Vector<TableModelListener> listeners;
     public long maxTimestamp = 0;
     public long minTimestamp = -1;
-    char[] types;
+    private MonitorChannel[] channels;
+    private int[] columns;      // The channels shown as columns
+    private ChannelPyramid[] pyramids;
+    private long optionRows = DEFAULT_ROWS;
+    private int optionBytes = -1;
+    private boolean optionSpill = false;
+    private long optionSpillRows = ColumnStore.DEFAULT_SPILL_ROWS;
+    private Vector<TableModelListener> latestRowListeners;
+    private ClockEstimator clock;
+    private LatestValues latest;
+    
+    // The rows waiting to be moved into the store
+    private final Object pendingLock = new Object();
+    private long pendingTimestamps[] = new long[256];
+    private long pendingSysTimes[] = new long[256];
+    private int pendingValues[] = new int[256 * DEFAULT_CHANNELS];
+    private int pendingCount = 0;
+    private long pendingDropped = 0;
+    private final Timer flushTimer;
     
     
     public TableMonitorModel() {
-        entries = new Vector<Entry>();
+        if ( AbbozzaServer.getInstance() != null ) {
+            int rows = AbbozzaServer.getConfig().getOptionInt("monitor.table_rows");
+            if ( rows > 0 ) optionRows = rows;
+            optionBytes = AbbozzaServer.getConfig().getOptionInt("monitor.table_bytes");
+            optionSpill = AbbozzaServer.getConfig().getOption("monitor.table_spill");
+            int spillRows = AbbozzaServer.getConfig().getOptionInt("monitor.table_spill_rows");
+            if ( spillRows > 0 ) optionSpillRows = spillRows;
+        }
         listeners = new Vector<TableModelListener>();
-        types = new char[5];
-        types[0] = '2';
-        types[1] = '2';
-        types[2] = '2';
-        types[3] = '2';
-        types[4] = '2';
+        latestRowListeners = new Vector<TableModelListener>();
+        flushTimer = new Timer(RepaintLimiter.getFrameDelay(), (evt) -> flush());
+        flushTimer.setRepeats(false);
+        channels = new MonitorChannel[DEFAULT_CHANNELS];
+        for (int i = 0; i < DEFAULT_CHANNELS; i++) {
+            channels[i] = new MonitorChannel(i, null, '2', null, 0);
+        }
+        initChannels();
+    }
+    
+    /**
+     * Create the store and the pyramids for the current channels.
+     */
+    private void initChannels() {
+        long maxRows = optionRows;
+        if ( optionBytes > 0 ) maxRows = Math.min(maxRows, optionBytes / ColumnStore.getRowBytes(channels.length));
+        if ( store != null ) store.close();
+        store = new ColumnStore(channels.length, maxRows, optionSpill, optionSpillRows);
+        pyramids = new ChannelPyramid[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            pyramids[i] = new ChannelPyramid();
+        }
+        maxTimestamp = 0;
+        minTimestamp = -1;
+        updateColumns();
+    }
+    
+    private void updateColumns() {
+        int count = 0;
+        for (int i = 0; i < channels.length; i++) {
+            if ( channels[i].isVisible() ) count++;
+        }
+        columns = new int[count];
+        count = 0;
+        for (int i = 0; i < channels.length; i++) {
+            if ( channels[i].isVisible() ) columns[count++] = i;
+        }
+    }
+    
+    /**
+     * Declare a new set of channels. If it differs from the current one, the
+     * table is cleared. Has to be called on the event dispatch thread.
+     * 
+     * @param chans The new channels
+     * @return true if the channels changed
+     */
+    public boolean setChannels(MonitorChannel[] chans) {
+        if ( chans.length == channels.length ) {
+            boolean same = true;
+            for (int i = 0; i < chans.length; i++) {
+                same = same && channels[i].sameAs(chans[i]);
+            }
+            if ( same ) return false;
+        }
+        synchronized (pendingLock) {
+            pendingCount = 0;
+            pendingValues = new int[pendingTimestamps.length * chans.length];
+            channels = chans;
+        }
+        initChannels();
+        fireTableChanged(TableModelEvent.HEADER_ROW,TableModelEvent.HEADER_ROW,TableModelEvent.ALL_COLUMNS,TableModelEvent.UPDATE);
+        return true;
+    }
+    
+    public int getChannelCount() {
+        return channels.length;
+    }
+    
+    public MonitorChannel getChannel(int channel) {
+        return channels[channel];
+    }
+    
+    /**
+     * Show or hide a channel. Has to be called on the event dispatch thread.
+     * 
+     * @param channel The channel
+     * @param visible true, if it should be shown
+     */
+    public void setChannelVisible(int channel, boolean visible) {
+        if ( channels[channel].isVisible() == visible ) return;
+        channels[channel].setVisible(visible);
+        updateColumns();
+        fireTableChanged(TableModelEvent.HEADER_ROW,TableModelEvent.HEADER_ROW,TableModelEvent.ALL_COLUMNS,TableModelEvent.UPDATE);
+    }
+    
+    public boolean isChannelVisible(int channel) {
+        return channels[channel].isVisible();
     }
 
 
     public void clear() {
-        int size = entries.size();
-        entries.clear();
+        synchronized (pendingLock) {
+            pendingCount = 0;
+            pendingDropped = 0;
+        }
+        store.clear();
+        for (int i = 0; i < pyramids.length; i++) {
+            pyramids[i].clear();
+        }
+        maxTimestamp = 0;
+        minTimestamp = -1;
         fireTableChanged(0,0,0,TableModelEvent.DELETE);
     }
     
     public void setTypes(String ty) {
-        if (ty.length() != 5) return;
-        for (int i = 0; i < 5; i++) {
-            types[i] = ty.charAt(i);
+        if (ty.length() != channels.length) return;
+        for (int i = 0; i < channels.length; i++) {
+            channels[i].setType(ty.charAt(i));
         }
     }
     
+    public void setType(int col, char type) {
+        channels[col].setType(type);
+    }
+    
     public char getType(int col) {
         if (col < 0) return ' ';
-        else return types[col];
+        else return channels[col].getType();
     }
     
+    /**
+     * Add a row, captured now. It may be called from any thread. The row
+     * becomes visible with the next flush.
+     * 
+     * @param ts The timestamp sent by the board
+     * @param vs The values of the channels, at least getChannelCount()
+     */
     public void addRow(long ts, int[] vs) {
-        long recTime = System.currentTimeMillis();
-        entries.add(new Entry(ts,vs,recTime));
-        if ( ts > maxTimestamp ) maxTimestamp = ts;
-        if ( minTimestamp < 0 ) minTimestamp = ts;
-        if ( ts < minTimestamp )  minTimestamp = ts;
-        fireTableChanged(entries.size()-1,entries.size()-1,0,TableModelEvent.INSERT);
+        addRow(ts, vs, CaptureClock.now());
     }
     
+    /**
+     * Add a row. It may be called from any thread. The row becomes visible
+     * with the next flush. If MAX_PENDING rows are waiting, it is dropped.
+     * 
+     * @param ts The timestamp sent by the board
+     * @param vs The values of the channels, at least getChannelCount()
+     * @param recTime The capture time of the row, see CaptureClock
+     */
+    public void addRow(long ts, int[] vs, long recTime) {
+        synchronized (pendingLock) {
+            int count = channels.length;
+            if ( vs.length < count ) return;
+            if ( pendingCount == MAX_PENDING ) {
+                pendingDropped++;
+                return;
+            }
+            if ( pendingCount == pendingTimestamps.length ) {
+                int len = 2 * pendingCount;
+                pendingTimestamps = Arrays.copyOf(pendingTimestamps, len);
+                pendingSysTimes = Arrays.copyOf(pendingSysTimes, len);
+                pendingValues = Arrays.copyOf(pendingValues, len * count);
+            }
+            pendingTimestamps[pendingCount] = ts;
+            pendingSysTimes[pendingCount] = recTime;
+            System.arraycopy(vs, 0, pendingValues, pendingCount * count, count);
+            pendingCount++;
+        }
+        if ( !flushTimer.isRunning() ) {
+            flushTimer.start();
+        }
+    }
+    
+    /**
+     * Move the pending rows into the store and notify the listeners. Called
+     * on the event dispatch thread by the flush timer.
+     */
+    private void flush() {
+        int before = store.size();
+        int dropped = 0;
+        synchronized (pendingLock) {
+            if ( pendingDropped > 0 ) {
+                AbbozzaLogger.err("TableMonitorModel: " + pendingDropped + " rows dropped, the table could not keep up");
+                pendingDropped = 0;
+            }
+            if ( pendingCount == 0 ) return;
+            int count = channels.length;
+            long hostTime = 0;
+            for (int row = 0; row < pendingCount; row++) {
+                long ts = pendingTimestamps[row];
+                hostTime = pendingSysTimes[row];
+                if ( clock != null ) {
+                    long corrected = clock.toHost(ts);
+                    if ( corrected != Long.MIN_VALUE ) hostTime = corrected;
+                }
+                dropped += store.add(ts, pendingValues, row * count, pendingSysTimes[row], hostTime);
+                for (int i = 0; i < count; i++) {
+                    pyramids[i].add(pendingValues[row * count + i]);
+                }
+                if ( ts > maxTimestamp ) maxTimestamp = ts;
+                if ( minTimestamp < 0 ) minTimestamp = ts;
+                if ( ts < minTimestamp )  minTimestamp = ts;
+            }
+            if ( latest != null ) {
+                int row = pendingCount - 1;
+                latest.setRow(new LatestValues.Row(pendingTimestamps[row], pendingSysTimes[row], hostTime,
+                        Arrays.copyOfRange(pendingValues, row * count, (row + 1) * count), channels));
+            }
+            pendingCount = 0;
+        }
+        int last = store.size()-1;
+        int first = before;
+        if ( dropped > 0 ) {
+            for (int i = 0; i < pyramids.length; i++) {
+                pyramids[i].drop(store.getOffset());
+            }
+            minTimestamp = store.getTimestamp(0);
+            // Rows dropped before the listeners knew them are not reported
+            int known = Math.min(dropped, before);
+            if ( known > 0 ) {
+                fireTableChanged(0,known-1,0,TableModelEvent.DELETE);
+            }
+            first = before - known;
+        }
+        if ( first <= last ) {
+            fireTableChanged(first,last,0,TableModelEvent.INSERT);
+            TableModelEvent event = new TableModelEvent(this,last,last,TableModelEvent.ALL_COLUMNS,TableModelEvent.INSERT);
+            Enumeration<TableModelListener> els = latestRowListeners.elements();
+            while (els.hasMoreElements()) {
+                els.nextElement().tableChanged(event);
+            }
+        }
+    }
+    
+    /**
+     * Returns the value of a channel without boxing it.
+     * 
+     * @param row The row
+     * @param channel The channel
+     * @return The value
+     */
+    public int getValue(int row, int channel) {
+        return store.getValue(row,channel);
+    }
+    
+    /**
+     * Returns the timestamp of a row without boxing it.
+     * 
+     * @param row The row
+     * @return The timestamp
+     */
+    public long getTimestamp(int row) {
+        return store.getTimestamp(row);
+    }
+    
+    /**
+     * Returns the system time of the reception of a row without boxing it.
+     * 
+     * @param row The row
+     * @return The system time in milliseconds
+     */
+    public long getSysTime(int row) {
+        return CaptureClock.toMillis(store.getSysTime(row));
+    }
+    
+    /**
+     * Returns the capture time of the bytes of a row.
+     * 
+     * @param row The row
+     * @return The capture time in nanoseconds since the epoch
+     */
+    public long getCaptureTime(int row) {
+        return store.getSysTime(row);
+    }
+    
+    /**
+     * Returns the time of the host clock at which the board took the
+     * timestamp of the row. If no clock estimate was available, it is the
+     * capture time.
+     * 
+     * @param row The row
+     * @return The host time in nanoseconds since the epoch
+     */
+    public long getHostTime(int row) {
+        return store.getHostTime(row);
+    }
+    
+    /**
+     * Set the estimator used to convert the timestamps of new rows to the
+     * host clock.
+     * 
+     * @param estimator The estimator or null
+     */
+    public void setClock(ClockEstimator estimator) {
+        clock = estimator;
+    }
+    
+    /**
+     * Set the cache receiving the last row of each flush.
+     * 
+     * @param values The cache or null
+     */
+    public void setLatestValues(LatestValues values) {
+        latest = values;
+    }
+    
+    /**
+     * Returns the absolute index of row 0, i.e. the number of rows removed
+     * from the beginning of the table.
+     * 
+     * @return The absolute index of the first row
+     */
+    public long getRowOffset() {
+        return store.getOffset();
+    }
+    
+    /**
+     * Returns the first row with a timestamp not smaller than the given one.
+     * The timestamps are assumed to be non-decreasing.
+     * 
+     * @param ts The timestamp
+     * @return The index of the row, or the row count if there is none
+     */
+    public int findRow(long ts) {
+        int low = 0;
+        int high = store.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (store.getTimestamp(mid) < ts) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Returns the min/max pyramid of a channel.
+     * 
+     * @param channel The channel
+     * @return The pyramid
+     */
+    public ChannelPyramid getPyramid(int channel) {
+        return pyramids[channel];
+    }
+    
+    /**
+     * Computes the minimum and maximum of a group of 2^level rows. The group
+     * is given by its absolute index, i.e. it consists of the absolute rows
+     * index*2^level to (index+1)*2^level-1. Removed rows are ignored.
+     * 
+     * @param channel The channel
+     * @param level The size of the group
+     * @param index The absolute index of the group
+     * @param result An array receiving the minimum at index 0 and the maximum
+     * at index 1
+     * @return false if the group contains no row
+     */
+    public boolean getMinMax(int channel, int level, long index, int[] result) {
+        ChannelPyramid pyramid = pyramids[channel];
+        if ( (level >= ChannelPyramid.BASE_LEVEL) && (level <= pyramid.getLevels()) ) {
+            if ( (index < pyramid.getStart(level)) || (index >= pyramid.getLength(level)) ) return false;
+            result[0] = pyramid.getMin(level,index);
+            result[1] = pyramid.getMax(level,index);
+            return true;
+        }
+        long offset = store.getOffset();
+        int from = (int) Math.max(0, (index << level) - offset);
+        int to = (int) Math.min(store.size(), ((index+1) << level) - offset);
+        if ( from >= to ) return false;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int row = from; row < to; row++) {
+            int val = store.getValue(row,channel);
+            if ( val < min ) min = val;
+            if ( val > max ) max = val;
+        }
+        result[0] = min;
+        result[1] = max;
+        return true;
+    }
     
     public long getMaxTimestamp() {
         return maxTimestamp;
@@ -118,30 +489,44 @@ public class TableMonitorModel implements TableModel {
 
     @Override
     public int getRowCount() {
-        return entries.size();
+        return store.size();
     }
 
     @Override
     public int getColumnCount() {
-        return 7;
+        return columns.length + 3;
+    }
+    
+    /**
+     * Returns the channel shown in the given column.
+     * 
+     * @param columnIndex The column
+     * @return The channel or -1 for the columns Time, SysTime and HostTime
+     */
+    public int getColumnChannel(int columnIndex) {
+        if ( (columnIndex < 1) || (columnIndex > columns.length) ) return -1;
+        return columns[columnIndex-1];
     }
 
     @Override
     public String getColumnName(int columnIndex) {
-        switch (columnIndex) {
-            case 6: return "SysTime";
-            case 0: return "Time";
-            default: return "Channel " + columnIndex;
+        if ( columnIndex == 0 ) return "Time";
+        int channel = getColumnChannel(columnIndex);
+        if ( channel < 0 ) return (columnIndex == columns.length + 1) ? "SysTime" : "HostTime";
+        MonitorChannel chan = channels[channel];
+        String name = chan.getName("Channel ", channel);
+        if ( (chan.getUnit() != null) && (chan.getUnit().length() > 0) ) {
+            name = name + " [" + chan.getUnit() + "]";
         }
+        return name;
     }
 
     @Override
     public Class<?> getColumnClass(int columnIndex) {
-        switch (columnIndex) {
-            case 0: return Long.class;
-            case 6: return LocalDateTime.class;
-            default: return Short.class;
-        }
+        if ( columnIndex == 0 ) return Long.class;
+        int channel = getColumnChannel(columnIndex);
+        if ( channel < 0 ) return LocalDateTime.class;
+        return (channels[channel].getScale() > 0) ? Double.class : Integer.class;
     }
 
     @Override
@@ -151,33 +536,41 @@ public class TableMonitorModel implements TableModel {
 
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-        Entry entry = entries.get(rowIndex);
-        switch (columnIndex) {
-            case 0 : return new Long(entry.timestamp);
-            case 6 : return LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.sysTime), ZoneId.systemDefault());
-            default : return new Integer(entry.values[columnIndex-1]);
+        if ( columnIndex == 0 ) return Long.valueOf(store.getTimestamp(rowIndex));
+        int channel = getColumnChannel(columnIndex);
+        if ( channel < 0 ) {
+            long time = (columnIndex == columns.length + 1) ? store.getSysTime(rowIndex) : store.getHostTime(rowIndex);
+            return LocalDateTime.ofInstant(Instant.ofEpochSecond(0,time), ZoneId.systemDefault());
+        }
+        int scale = channels[channel].getScale();
+        if ( scale > 0 ) {
+            return Double.valueOf(store.getValue(rowIndex,channel) / Math.pow(10,scale));
         }
+        return Integer.valueOf(store.getValue(rowIndex,channel));
     }
 
     @Override
     public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-        if ( rowIndex < entries.size() ) {
-            Entry entry = entries.get(rowIndex);
-            switch (columnIndex) {
-                case 0 : 
-                    if ( aValue instanceof Long ) {
-                        entry.timestamp = ((Long) aValue).longValue();
-                    }
-                    break;
-                case 6 : 
-                    if ( aValue instanceof Long ) {
-                        entry.sysTime = ((Long) aValue).longValue();
-                    }
-                    break;
-                default :
-                    if ( aValue instanceof Short ) {
-                        entry.values[columnIndex-1] = ((Short) aValue).shortValue();
+        if ( rowIndex < store.size() ) {
+            int channel = getColumnChannel(columnIndex);
+            if ( columnIndex == 0 ) {
+                if ( aValue instanceof Long ) {
+                    store.setTimestamp(rowIndex,((Long) aValue).longValue());
+                }
+            } else if ( channel < 0 ) {
+                // The same type as returned by getValueAt()
+                if ( aValue instanceof LocalDateTime ) {
+                    Instant instant = ((LocalDateTime) aValue).atZone(ZoneId.systemDefault()).toInstant();
+                    long time = instant.getEpochSecond() * 1000000000L + instant.getNano();
+                    if ( columnIndex == columns.length + 1 ) {
+                        store.setSysTime(rowIndex,time);
+                    } else {
+                        store.setHostTime(rowIndex,time);
                     }
+                }
+            } else if ( aValue instanceof Number ) {
+                double scale = Math.pow(10,channels[channel].getScale());
+                store.setValue(rowIndex,channel,(int) Math.round(((Number) aValue).doubleValue() * scale));
             }
             fireTableChanged(rowIndex,rowIndex,columnIndex,TableModelEvent.UPDATE);
         }
@@ -191,6 +584,18 @@ public class TableMonitorModel implements TableModel {
     @Override
     public void removeTableModelListener(TableModelListener l) {
         listeners.remove(l);
+        latestRowListeners.remove(l);
+    }
+    
+    /**
+     * Add a listener which is only interested in the newest row. Instead of
+     * the INSERT event for the whole batch it receives an event for the last
+     * row. All other events are delivered as usual.
+     * 
+     * @param l The listener
+     */
+    public void addLatestRowListener(TableModelListener l) {
+        latestRowListeners.add(l);
     }
     
     private void fireTableChanged(int firstRow, int lastRow, int column, int type) {
@@ -199,17 +604,50 @@ public class TableMonitorModel implements TableModel {
         while (els.hasMoreElements()) {
             els.nextElement().tableChanged(event);
         }
+        if ( type != TableModelEvent.INSERT ) {
+            els = latestRowListeners.elements();
+            while (els.hasMoreElements()) {
+                els.nextElement().tableChanged(event);
+            }
+        }
     }
     
     public void save(FileWriter writer) throws IOException {
-        Enumeration<Entry> el = entries.elements();
-        while ( el.hasMoreElements() ) {
-            writer.write(el.nextElement().toString()+"\n");
+        StringBuilder line = new StringBuilder();
+        for (int row = 0; row < store.size(); row++) {
+            line.setLength(0);
+            line.append(store.getTimestamp(row));
+            for (int i = 0; i < channels.length; i++) {
+                line.append('|');
+                appendFixed(line,store.getValue(row,i),channels[i].getScale());
+            }
+            line.append('|');
+            CaptureClock.appendMillis(line,store.getSysTime(row)).append('|');
+            CaptureClock.appendMillis(line,store.getHostTime(row)).append('\n');
+            writer.write(line.toString());
         }
     }
     
-    public Enumeration<Entry> getEntries() {
-        return entries.elements();
+    /**
+     * Append a fixed-point value.
+     * 
+     * @param line The buffer
+     * @param value The value scaled by 10^scale
+     * @param scale The number of decimals
+     */
+    static void appendFixed(StringBuilder line, int value, int scale) {
+        if ( scale == 0 ) {
+            line.append(value);
+            return;
+        }
+        long abs = Math.abs((long) value);
+        long pow = 1;
+        for (int i = 0; i < scale; i++) pow = pow * 10;
+        if ( value < 0 ) line.append('-');
+        line.append(abs / pow).append('.');
+        String frac = Long.toString(abs % pow);
+        for (int i = frac.length(); i < scale; i++) line.append('0');
+        line.append(frac);
     }
     
 }
@@ -0,0 +1,89 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+/**
+ * The clock used to stamp received bytes.
+ *
+ * System.currentTimeMillis() has a coarse resolution on some systems and may
+ * jump if the system time is adjusted. Hence the capture time is measured
+ * with System.nanoTime(), anchored once to the wall clock. It is given in
+ * nanoseconds since the epoch, so that it can be compared with wall clock
+ * times and intervals between two stamps are exact.
+ *
+ * @author mbrinkmeier
+ */
+public class CaptureClock {
+
+    private static final long ANCHOR_NANOS = System.nanoTime();
+    private static final long ANCHOR_WALL = System.currentTimeMillis() * 1000000L;
+
+    private CaptureClock() {
+    }
+
+    /**
+     * Returns the current capture time.
+     *
+     * @return The time in nanoseconds since the epoch
+     */
+    public static long now() {
+        return ANCHOR_WALL + (System.nanoTime() - ANCHOR_NANOS);
+    }
+
+    /**
+     * Converts a capture time to milliseconds since the epoch.
+     *
+     * @param time The capture time
+     * @return The time in milliseconds
+     */
+    public static long toMillis(long time) {
+        return Math.floorDiv(time, 1000000L);
+    }
+
+    /**
+     * Converts a capture time to microseconds since the epoch.
+     *
+     * @param time The capture time
+     * @return The time in microseconds
+     */
+    public static long toMicros(long time) {
+        return Math.floorDiv(time, 1000L);
+    }
+
+    /**
+     * Appends a capture time as milliseconds with three decimals, i.e. with
+     * a resolution of a microsecond.
+     *
+     * @param buf The buffer
+     * @param time The capture time
+     * @return The buffer
+     */
+    public static StringBuilder appendMillis(StringBuilder buf, long time) {
+        long micros = toMicros(time);
+        long frac = Math.floorMod(micros, 1000L);
+        buf.append(Math.floorDiv(micros, 1000L)).append('.');
+        if (frac < 100) {
+            buf.append('0');
+        }
+        if (frac < 10) {
+            buf.append('0');
+        }
+        return buf.append(frac);
+    }
+}
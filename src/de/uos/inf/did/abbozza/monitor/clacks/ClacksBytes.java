@@ -29,7 +29,7 @@ import jssc.SerialPortException;
  */
 public class ClacksBytes implements ClacksPacket {
    
-    private long timestamp; // The time the bytes were received
+    private long timestamp; // The capture time of the bytes, see CaptureClock
     private byte[] buffer;  // The received bytes
     
     public ClacksBytes(long ts, byte[] buf) {
@@ -38,10 +38,15 @@ public class ClacksBytes implements ClacksPacket {
     }
     
     public ClacksBytes(String msg) {
-        timestamp = System.currentTimeMillis();
+        timestamp = CaptureClock.now();
         buffer = msg.getBytes();
     }
     
+    /**
+     * Returns the capture time in nanoseconds since the epoch.
+     * 
+     * @return The capture time
+     */
     public long getTimestamp() { return timestamp; }
     
     public byte[] getBytes() { return buffer; }
@@ -106,13 +111,16 @@ public class ClacksBytes implements ClacksPacket {
         // Then parse them an publish the resulting packets
         // Then run them through the parser
         ClacksPacketParser parser = service.getParser();
-        parser.addBytes(buffer);
+        parser.addBytes(buffer, timestamp);
         
         // The parser parses clacks packets from the byte sequence
         ClacksPacket packet;
         while ( ( packet = parser.parse() ) != null  ) {
             packet.processFromPort(service);
         }               
+        
+        // Finally the registered decoders get the bytes
+        service.decode(buffer, timestamp);
     }
 
     
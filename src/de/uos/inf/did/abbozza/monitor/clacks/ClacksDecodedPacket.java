@@ -0,0 +1,83 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
+
+/**
+ * A packet produced by a ClacksDecoder. Like a message it has a prefix, which
+ * selects the monitor panel and listener receiving it. The decoded value may
+ * be of any type; decoders may also subclass the packet.
+ *
+ * @author mbrinkmeier
+ */
+public class ClacksDecodedPacket implements ClacksPacket {
+
+    private final String prefix;
+    private final Object value;
+    private final long captureTime;
+
+    public ClacksDecodedPacket(String prefix, Object value, long captureTime) {
+        this.prefix = prefix;
+        this.value = value;
+        this.captureTime = captureTime;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the capture time of the bytes containing the packet.
+     *
+     * @return The capture time in nanoseconds since the epoch
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    @Override
+    public void process(ClacksSubscriber subscriber) {
+        subscriber.process(this);
+    }
+
+    @Override
+    public void process(AbbozzaMonitor monitor) {
+        monitor.process(this);
+    }
+
+    @Override
+    public void process(ClacksSerialPort serialPort) {
+        // Do nothing
+    }
+
+    @Override
+    public void processFromPort(ClacksService service) {
+        service.publishPacket(this);
+    }
+
+    @Override
+    public void processToPort(ClacksService service) {
+        // Do nothing
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import java.util.function.Consumer;
+
+/**
+ * A decoder for a protocol on the byte stream of the board.
+ *
+ * Decoders are registered at the ClacksService, e.g. by plugins declaring a
+ * decoder in their plugin.xml. Each received chunk of bytes is passed to all
+ * decoders by the thread of the service, right after the text parser. Hence
+ * a decoder sees every byte exactly once, in order and never on the event
+ * dispatch thread. Frames spanning several chunks have to be kept by the
+ * decoder.
+ *
+ * The decoded packets are published to the monitor and the subscribers.
+ *
+ * @author mbrinkmeier
+ */
+public interface ClacksDecoder {
+
+    /**
+     * Decode a chunk of received bytes. The buffer must not be changed or
+     * kept.
+     *
+     * @param buf The buffer
+     * @param off The index of the first byte
+     * @param len The number of bytes
+     * @param captureTime The capture time of the chunk, see CaptureClock
+     * @param out The consumer for the decoded packets
+     */
+    public void decode(byte[] buf, int off, int len, long captureTime, Consumer<ClacksDecodedPacket> out);
+
+    /**
+     * Forget partial frames, e.g. after the port was reopened.
+     */
+    public default void reset() {
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import java.util.function.IntConsumer;
+
+/**
+ * This decoder extracts ints in the clacks format from a byte stream.
+ *
+ * Each int is sent as a frame of six bytes: the sync byte 42, four data bytes
+ * (most significant first) and a checksum, which is the xor of the data bytes.
+ *
+ * In contrast to ByteRingBuffer.getClacksInt() the decoder does not throw
+ * exceptions. If a frame is misaligned or its checksum is wrong, it searches
+ * forward for the next sync byte and counts the event. Incomplete frames are
+ * kept until the next chunk arrives.
+ *
+ * @author mbrinkmeier
+ */
+public class ClacksIntDecoder {
+
+    public static final byte SYNC = 42;
+    public static final int FRAME_LENGTH = 6;
+
+    private final byte _frame[];  // The bytes of the current (partial) frame
+    private int _fill;            // The number of bytes in _frame
+    private boolean _inSync;      // false, while bytes are skipped
+
+    // Counters
+    private long _frames;
+    private long _resyncs;
+    private long _checksumErrors;
+    private long _skippedBytes;
+
+    public ClacksIntDecoder() {
+        _frame = new byte[FRAME_LENGTH];
+        reset();
+    }
+
+    /**
+     * Decode the given bytes and pass each complete and valid int to the
+     * consumer.
+     *
+     * @param buf The received bytes
+     * @param consumer The consumer for the decoded ints
+     * @return The number of decoded ints
+     */
+    public int decode(byte[] buf, IntConsumer consumer) {
+        return decode(buf, 0, buf.length, consumer);
+    }
+
+    /**
+     * Decode a range of the given bytes and pass each complete and valid int to
+     * the consumer.
+     *
+     * @param buf The received bytes
+     * @param off The index of the first byte
+     * @param len The number of bytes
+     * @param consumer The consumer for the decoded ints
+     * @return The number of decoded ints
+     */
+    public int decode(byte[] buf, int off, int len, IntConsumer consumer) {
+        int count = 0;
+        int end = off + len;
+        int pos = off;
+
+        while (pos < end) {
+            if (_fill == 0) {
+                // Search for the sync byte
+                byte b = buf[pos++];
+                if (b == SYNC) {
+                    _frame[0] = b;
+                    _fill = 1;
+                    _inSync = true;
+                } else {
+                    skipped(1);
+                }
+                continue;
+            }
+
+            // Complete the current frame as far as possible
+            int n = Math.min(FRAME_LENGTH - _fill, end - pos);
+            System.arraycopy(buf, pos, _frame, _fill, n);
+            _fill += n;
+            pos += n;
+
+            if (_fill == FRAME_LENGTH) {
+                if (checkFrame()) {
+                    consumer.accept(frameValue());
+                    _frames++;
+                    count++;
+                    _fill = 0;
+                } else {
+                    _checksumErrors++;
+                    resync();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drop the sync byte of the current frame and search the remaining bytes
+     * for the next sync byte. It is moved to the front and the partial frame
+     * starting there is completed by the following bytes. If there is no
+     * further sync byte, the frame is dropped.
+     */
+    private void resync() {
+        skipped(1);
+        for (int start = 1; start < _fill; start++) {
+            if (_frame[start] == SYNC) {
+                System.arraycopy(_frame, start, _frame, 0, _fill - start);
+                _fill = _fill - start;
+                _inSync = true;
+                return;
+            }
+            skipped(1);
+        }
+        _fill = 0;
+    }
+
+    /**
+     * Count skipped bytes. Each run of skipped bytes is counted as one resync.
+     *
+     * @param n The number of skipped bytes
+     */
+    private void skipped(int n) {
+        _skippedBytes += n;
+        if (_inSync) {
+            _inSync = false;
+            _resyncs++;
+        }
+    }
+
+    private boolean checkFrame() {
+        return _frame[5] == (byte) (_frame[1] ^ _frame[2] ^ _frame[3] ^ _frame[4]);
+    }
+
+    private int frameValue() {
+        return (_frame[1] & 0xFF) << 24
+                | (_frame[2] & 0xFF) << 16
+                | (_frame[3] & 0xFF) << 8
+                | (_frame[4] & 0xFF);
+    }
+
+    /**
+     * Forget the partial frame, e.g. after the port was reopened. The
+     * counters are kept.
+     */
+    public void clearFrame() {
+        _fill = 0;
+        _inSync = true;
+    }
+
+    /**
+     * Forget the partial frame and reset the counters.
+     */
+    public void reset() {
+        _fill = 0;
+        _inSync = true;
+        _frames = 0;
+        _resyncs = 0;
+        _checksumErrors = 0;
+        _skippedBytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes of an incomplete frame waiting for the next
+     * chunk.
+     *
+     * @return The number of pending bytes
+     */
+    public int getPending() {
+        return _fill;
+    }
+
+    /**
+     * Returns the number of successfully decoded frames.
+     *
+     * @return The number of frames
+     */
+    public long getFrames() {
+        return _frames;
+    }
+
+    /**
+     * Returns the number of resynchronizations, i.e. runs of skipped bytes.
+     *
+     * @return The number of resyncs
+     */
+    public long getResyncs() {
+        return _resyncs;
+    }
+
+    /**
+     * Returns the number of frames dropped because of a wrong checksum.
+     *
+     * @return The number of checksum errors
+     */
+    public long getChecksumErrors() {
+        return _checksumErrors;
+    }
+
+    /**
+     * Returns the number of bytes skipped while searching for a sync byte.
+     *
+     * @return The number of skipped bytes
+     */
+    public long getSkippedBytes() {
+        return _skippedBytes;
+    }
+}
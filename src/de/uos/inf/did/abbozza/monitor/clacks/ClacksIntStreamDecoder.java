@@ -0,0 +1,85 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the ints in the clacks format, see ClacksIntDecoder, on the thread
+ * of the service. The ints decoded from a chunk of bytes are published as a
+ * single ClacksDecodedPacket, whose value is an int[].
+ *
+ * The counters of the wrapped decoder are updated by the thread of the
+ * service. Other threads may read slightly outdated values.
+ *
+ * @author mbrinkmeier
+ */
+public class ClacksIntStreamDecoder implements ClacksDecoder {
+
+    private final String _prefix;
+    private final ClacksIntDecoder _decoder;
+    private int _values[];
+    private int _count;
+
+    /**
+     * Creates a decoder.
+     *
+     * @param prefix The prefix of the decoded packets
+     */
+    public ClacksIntStreamDecoder(String prefix) {
+        _prefix = prefix;
+        _decoder = new ClacksIntDecoder();
+        _values = new int[64];
+    }
+
+    @Override
+    public void decode(byte[] buf, int off, int len, long captureTime, Consumer<ClacksDecodedPacket> out) {
+        _count = 0;
+        _decoder.decode(buf, off, len, this::add);
+        if (_count > 0) {
+            out.accept(new ClacksDecodedPacket(_prefix, Arrays.copyOf(_values, _count), captureTime));
+        }
+    }
+
+    private void add(int val) {
+        if (_count == _values.length) {
+            _values = Arrays.copyOf(_values, 2 * _count);
+        }
+        _values[_count++] = val;
+    }
+
+    /**
+     * Forget the partial frame. The counters are kept.
+     */
+    @Override
+    public void reset() {
+        _decoder.clearFrame();
+    }
+
+    /**
+     * Returns the wrapped decoder, which provides the counters for resyncs
+     * and checksum errors.
+     *
+     * @return The decoder
+     */
+    public ClacksIntDecoder getDecoder() {
+        return _decoder;
+    }
+}
@@ -31,11 +31,24 @@ public class ClacksMessage implements ClacksPacket {
     
     private String prefix;
     private String msg;
+    private long captureTime;
     
     
     public ClacksMessage(String p, String m) {
+        this(p, m, CaptureClock.now());
+    }
+    
+    /**
+     * Creates a message with the given capture time.
+     * 
+     * @param p The prefix
+     * @param m The message
+     * @param time The capture time of the last byte, see CaptureClock
+     */
+    public ClacksMessage(String p, String m, long time) {
         prefix = p;
         msg = m;
+        captureTime = time;
     }
     
     public String getPrefix() {
@@ -47,6 +60,15 @@ public class ClacksMessage implements ClacksPacket {
         return msg;
     }
     
+    /**
+     * Returns the capture time of the bytes completing the message.
+     * 
+     * @return The capture time in nanoseconds since the epoch
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+    
     
     @Override
     public void process(AbbozzaMonitor monitor) {
@@ -78,6 +100,7 @@ public class ClacksMessage implements ClacksPacket {
         if ( prefix.startsWith("_") ) {
             service.sendResponse(this);   
         } else {
+            service.getLatestValues().putMessage(prefix, msg, captureTime);
             service.publishPacket(this);
         }
     }
@@ -18,6 +18,8 @@
  */
 package de.uos.inf.did.abbozza.monitor.clacks;
 
+import java.util.Arrays;
+
 /**
  *
  * @author michael
@@ -25,13 +27,62 @@ package de.uos.inf.did.abbozza.monitor.clacks;
 public class ClacksPacketParser {
 
     private StringBuffer unprocessed;
+    
+    // The capture times of the chunks in unprocessed. The chunk i ends
+    // before the index markEnd[i].
+    private int markEnd[] = new int[16];
+    private long markTime[] = new long[16];
+    private int marks = 0;
 
     public ClacksPacketParser() {
         unprocessed = new StringBuffer();
     }
 
     public void addBytes(byte[] bytes) {
+        addBytes(bytes, CaptureClock.now());
+    }
+    
+    /**
+     * Add received bytes.
+     * 
+     * @param bytes The bytes
+     * @param time Their capture time
+     */
+    public void addBytes(byte[] bytes, long time) {
         unprocessed.append(new String(bytes));
+        if ( marks == markEnd.length ) {
+            markEnd = Arrays.copyOf(markEnd, 2 * marks);
+            markTime = Arrays.copyOf(markTime, 2 * marks);
+        }
+        markEnd[marks] = unprocessed.length();
+        markTime[marks] = time;
+        marks++;
+    }
+    
+    /**
+     * Returns the capture time of the chunk containing the given index.
+     */
+    private long captureTime(int index) {
+        for (int i = 0; i < marks; i++) {
+            if ( index < markEnd[i] ) return markTime[i];
+        }
+        return (marks > 0) ? markTime[marks-1] : CaptureClock.now();
+    }
+    
+    /**
+     * Remove the first chars from unprocessed and adapt the marks.
+     */
+    private void consume(int count) {
+        unprocessed.delete(0, count);
+        int j = 0;
+        for (int i = 0; i < marks; i++) {
+            if ( markEnd[i] > count ) {
+                markEnd[j] = markEnd[i] - count;
+                markTime[j] = markTime[i];
+                j++;
+            }
+        }
+        marks = j;
     }
     
 
@@ -48,18 +99,20 @@ public class ClacksPacketParser {
             end = unprocessed.indexOf("]]", start + 2);
             if (end >= 0) {
                 cmd = unprocessed.substring(start + 2, end);
-                unprocessed.delete(0, end + 2);
+                long time = captureTime(end + 1);
+                consume(end + 2);
                 int space = cmd.indexOf(' ');
                 if (space >= 0) {
                     prefix = cmd.substring(0, space);
                     
                     cmd = cmd.substring(space + 1, cmd.length());
-                    packet = new ClacksMessage(prefix, cmd);
+                    packet = new ClacksMessage(prefix, cmd, time);
                 }
             }
         } else {
             // Remove everything
             unprocessed.setLength(0);
+            marks = 0;
         }       
         return packet;
     }
@@ -0,0 +1,82 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
+
+/**
+ * The answer to a command polled by the PollScheduler. It is only delivered
+ * to the subscribers.
+ *
+ * @author mbrinkmeier
+ */
+public class ClacksPollResult implements ClacksPacket {
+
+    private final String command;
+    private final String response;
+    private final long captureTime;
+
+    public ClacksPollResult(String command, String response, long captureTime) {
+        this.command = command;
+        this.response = response;
+        this.captureTime = captureTime;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    /**
+     * Returns the capture time of the answer.
+     *
+     * @return The capture time in nanoseconds since the epoch
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    @Override
+    public void process(ClacksSubscriber subscriber) {
+        subscriber.process(this);
+    }
+
+    @Override
+    public void process(AbbozzaMonitor monitor) {
+        // Do nothing
+    }
+
+    @Override
+    public void process(ClacksSerialPort serialPort) {
+        // Do nothing
+    }
+
+    @Override
+    public void processFromPort(ClacksService service) {
+        // Do nothing
+    }
+
+    @Override
+    public void processToPort(ClacksService service) {
+        // Do nothing
+    }
+}
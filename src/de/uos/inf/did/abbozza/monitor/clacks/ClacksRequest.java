@@ -31,6 +31,9 @@ import de.uos.inf.did.abbozza.monitor.clacks.ClacksSerialPort;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksService;
 import de.uos.inf.did.abbozza.monitor.clacks.ClacksSubscriber;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 import jssc.SerialPortException;
 
 /**
@@ -46,13 +49,30 @@ public class ClacksRequest implements ClacksPacket {
     private SerialHandler _handler;
     private long _timeout;
     private long _stoptime;
-    private int _state;
+    private volatile int _state;
     private String _response;
+    private Consumer<ClacksRequest> _callback;
+    private final long _stamps[];
+    private List<ClacksRequest> _followers;
+    private String _client;
+    private boolean _released;
     
     public static final int WAITING = 0;
     public static final int TIMEDOUT = -1;
     public static final int RESPONSE_READY = 1;
     public static final int DONE = 2;
+    
+    // The timeout to be derived from the round trip times of the command
+    public static final long AUTO_TIMEOUT = -1;
+    
+    // The stages of the lifecycle of a request
+    public static final int ACCEPTED = 0;   // The request was created
+    public static final int QUEUED = 1;     // It was queued for the port
+    public static final int WRITTEN = 2;    // It is written to the port
+    public static final int RECEIVED = 3;   // The response bytes were captured
+    public static final int PARSED = 4;     // The response was parsed
+    public static final int ANSWERED = 5;   // The response was delivered
+    public static final int STAGES = 6;
  
     /*
     public Message(String id, String msg) {
@@ -65,6 +85,8 @@ public class ClacksRequest implements ClacksPacket {
     */
     
     public ClacksRequest(String id, String msg, HttpExchange exchg, SerialHandler handler, long timeout) {
+        _stamps = new long[STAGES];
+        _stamps[ACCEPTED] = CaptureClock.now();
         _id = id;
         _msg = msg;
         int a = _msg.indexOf('_');
@@ -86,6 +108,21 @@ public class ClacksRequest implements ClacksPacket {
         }
     }
     
+    /**
+     * Creates a request issued by the monitor itself. Instead of answering
+     * a http request, the callback is called if the response arrived or the
+     * request timed out.
+     * 
+     * @param id The id of the request
+     * @param msg The message
+     * @param callback The callback
+     * @param timeout The timeout in milliseconds
+     */
+    public ClacksRequest(String id, String msg, Consumer<ClacksRequest> callback, long timeout) {
+        this(id, msg, null, null, timeout);
+        _callback = callback;
+    }
+    
     public String getMsg() {
         return _msg;
     }
@@ -93,6 +130,30 @@ public class ClacksRequest implements ClacksPacket {
     public String getID() {
         return _id;
     }
+    
+    /**
+     * Returns the command of the request, i.e. its first word.
+     * 
+     * @return The command
+     */
+    public String getCommand() {
+        return getCommand(_msg);
+    }
+    
+    /**
+     * Returns the first word of a message, ignoring surrounding brackets.
+     * 
+     * @param msg The message
+     * @return The command
+     */
+    public static String getCommand(String msg) {
+        String cmd = msg.replace("[[","").replace("]]","").trim();
+        int pos = cmd.indexOf(' ');
+        if ( pos >= 0 ) {
+            cmd = cmd.substring(0,pos);
+        }
+        return cmd;
+    }
 
     public String toString() {
         if ( _id.length() > 0 ) {
@@ -125,6 +186,10 @@ public class ClacksRequest implements ClacksPacket {
         return _timeout;
     }
     
+    public void setTimeout(long timeout) {
+        _timeout = timeout;
+    }
+    
     public void startTimeOut() {
         _stoptime = System.currentTimeMillis() + _timeout;
     }
@@ -148,6 +213,108 @@ public class ClacksRequest implements ClacksPacket {
     public void setResponse(String resp) {
         _response = resp;
     }
+    
+    public Consumer<ClacksRequest> getCallback() {
+        return _callback;
+    }
+    
+    /**
+     * Returns the capture time at which the request was written to the port.
+     * 
+     * @return The capture time, see CaptureClock
+     */
+    public long getSentTime() {
+        return _stamps[WRITTEN];
+    }
+    
+    /**
+     * Returns the capture time of the bytes completing the response.
+     * 
+     * @return The capture time, see CaptureClock
+     */
+    public long getResponseTime() {
+        return _stamps[RECEIVED];
+    }
+    
+    public void setResponseTime(long time) {
+        _stamps[RECEIVED] = time;
+    }
+    
+    /**
+     * Record that the request reached a stage of its lifecycle now.
+     * 
+     * @param stage The stage
+     */
+    public void stamp(int stage) {
+        _stamps[stage] = CaptureClock.now();
+    }
+    
+    /**
+     * Returns the time at which the request reached a stage.
+     * 
+     * @param stage The stage
+     * @return The capture time or 0 if the stage was not reached
+     */
+    public long getStamp(int stage) {
+        return _stamps[stage];
+    }
+    
+    /**
+     * Returns the client, which issued the request.
+     * 
+     * @return The client or null for requests of the monitor itself
+     */
+    public String getClient() {
+        return _client;
+    }
+    
+    public void setClient(String client) {
+        _client = client;
+    }
+    
+    /**
+     * Mark the request as released from the limits of its client.
+     * 
+     * @return false if it was released before
+     */
+    public synchronized boolean release() {
+        boolean released = _released;
+        _released = true;
+        return !released;
+    }
+    
+    /**
+     * Attach an identical request, which gets the same response.
+     * 
+     * @param request The request
+     */
+    public void addFollower(ClacksRequest request) {
+        if ( _followers == null ) {
+            _followers = new ArrayList<>();
+        }
+        _followers.add(request);
+    }
+    
+    /**
+     * Returns the attached identical requests.
+     * 
+     * @return The list of requests, which may be empty
+     */
+    public List<ClacksRequest> getFollowers() {
+        if ( _followers == null ) {
+            _followers = new ArrayList<>();
+        }
+        return _followers;
+    }
+    
+    /**
+     * Returns true, if the response was already delivered.
+     * 
+     * @return true if the stage ANSWERED was reached
+     */
+    public boolean isAnswered() {
+        return _stamps[ANSWERED] != 0;
+    }
 
     @Override
     public void process(ClacksSubscriber subscriber) {
@@ -164,6 +331,7 @@ public class ClacksRequest implements ClacksPacket {
         ClacksStatus status;
         String msg = "[[" + _id + " " + _msg + "]]\n";
         try {
+            stamp(WRITTEN);
             serialPort.writeBytes(msg.getBytes());
             status = new ClacksStatus("-> " + msg,"output");
         } catch (SerialPortException ex) {
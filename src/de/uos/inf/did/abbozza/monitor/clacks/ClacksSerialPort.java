@@ -17,7 +17,9 @@ package de.uos.inf.did.abbozza.monitor.clacks;
 
 import de.uos.inf.did.abbozza.core.AbbozzaLocale;
 import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.JOptionPane;
 import jssc.SerialPort;
 import jssc.SerialPortException;
@@ -31,27 +33,59 @@ import jssc.SerialPortTimeoutException;
 public class ClacksSerialPort implements Runnable {
 
     private final int TIMEOUT = 10;
+    // The maximal time to wait for the release of the port
+    private static final long HANDOFF_TIMEOUT = 2000;
+    // The maximal time a thread waits for a port to be opened, before it
+    // checks again
+    private static final long READY_INTERVAL = 20;
+    // The first and the maximal delay between two checks of a device, which
+    // is not ready to be reattached
+    private static final long REATTACH_MIN_DELAY = 1;
+    private static final long REATTACH_MAX_DELAY = 50;
 
     // The serialPort
     private SerialPort serialPort;
-    private boolean stopped;
+    private volatile boolean stopped;
     private String port;
     private int rate;
 
+    // The handoff of the port to another program, e.g. the uploader
+    private final Object handoff = new Object();
+    private volatile boolean running;
+    private volatile boolean suspendRequested;
+    private volatile boolean suspended;
+    private volatile boolean resumeRequested;
+    private final AtomicBoolean reattached = new AtomicBoolean(false);
+
     // The queue for the bytes received from the serial port
     protected ConcurrentLinkedQueue<ClacksPacket> incoming;
 
     // The queue for messages to be send via the serial port
     protected ConcurrentLinkedQueue<ClacksPacket> outgoing;
 
+    // The reliable link, if the option monitor.reliable is set
+    private ReliableLink link;
+    private boolean established;
+    private volatile boolean linkReset;
+    private long captureTime;
+
     public ClacksSerialPort(ConcurrentLinkedQueue<ClacksPacket> in,
             ConcurrentLinkedQueue<ClacksPacket> out) {
         incoming = in;
         outgoing = out;
+        if ((AbbozzaServer.getInstance() != null) && AbbozzaServer.getConfig().getOption("monitor.reliable")) {
+            int window = AbbozzaServer.getConfig().getOptionInt("monitor.reliable_window");
+            link = new ReliableLink((window > 0) ? window : ReliableLink.DEFAULT_WINDOW,
+                    (bytes) -> writeFrame(bytes),
+                    (bytes) -> incoming.add(new ClacksBytes(captureTime, bytes)));
+        }
     }
 
     public void stopIt() {
-        stopped = true;
+        synchronized (handoff) {
+            stopped = true;
+            handoff.notifyAll();
+        }
     }
 
     /**
@@ -115,6 +149,11 @@ public class ClacksSerialPort implements Runnable {
         }
         ClacksStatus status = new ClacksStatus("Opened port " + port,"info");
         incoming.add(status);                                
+        // The link is restarted by the thread of the port
+        linkReset = true;
+        synchronized (handoff) {
+            handoff.notifyAll();
+        }
         return true;
     }
 
@@ -136,34 +175,161 @@ public class ClacksSerialPort implements Runnable {
     }
 
     /**
-     * Temporarily close the port, but keep the thread running
+     * Temporarily close the port, but keep the thread running. The port is
+     * closed by the thread of the port, the call returns as soon as the port
+     * is released, but waits at most HANDOFF_TIMEOUT milliseconds.
      */
     public void suspend() {
-        /*
-        AbbozzaLogger.err("ClacksSerialPort: suspend port");
-        try {
-            serialPort.closePort();
-        } catch (SerialPortException ex) {
-            AbbozzaLogger.err("ClacksSerialPort: Could not close port");
+        AbbozzaLogger.debug("ClacksSerialPort: suspend port");
+        synchronized (handoff) {
+            resumeRequested = false;
+            if (suspended) {
+                return;
+            }
+            if (!running) {
+                close();
+                suspended = true;
+                return;
+            }
+            suspendRequested = true;
+            handoff.notifyAll();
+            long deadline = System.currentTimeMillis() + HANDOFF_TIMEOUT;
+            long now;
+            while (!suspended && running && ((now = System.currentTimeMillis()) < deadline)) {
+                try {
+                    handoff.wait(deadline - now);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
         }
-         */
     }
 
     /**
-     * Reopens the port
+     * Reopens the port. The thread of the port waits until the device is
+     * ready, i.e. it is listed again and can be opened, and reattaches it.
+     * The call does not block.
      */
     public void resume() {
-        /*
-        if ( serialPort.isOpened() ) { 
-            return; 
+        AbbozzaLogger.debug("ClacksSerialPort: resume port");
+        synchronized (handoff) {
+            suspendRequested = false;
+            if (suspended) {
+                resumeRequested = true;
+                handoff.notifyAll();
+            }
         }
-         */
+    }
 
-        AbbozzaLogger.debug("ClacksSerialPort: resume port");
-        /*
-        // Open the port, but do not start the thread again.
-        open(port,rate);
-         */
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Returns true once after the port was reattached. The parsers should
+     * forget partial messages received before the port was suspended.
+     *
+     * @return true if the port was reattached since the last call
+     */
+    public boolean takeReattached() {
+        return reattached.getAndSet(false);
+    }
+
+    /**
+     * Release the port for another program. Packets written while the port
+     * is suspended are dropped.
+     */
+    private void release() {
+        close();
+        synchronized (handoff) {
+            suspendRequested = false;
+            suspended = true;
+            handoff.notifyAll();
+        }
+        incoming.add(new ClacksStatus("Released port " + port, "info"));
+    }
+
+    /**
+     * Wait while the port is suspended and reattach it after resume() was
+     * called. Until then the thread sleeps without checking the device.
+     *
+     * Afterwards the port is reattached as soon as the device is listed and
+     * can be opened. Usually this succeeds at once, since the uploader has
+     * finished. jssc does not notify about appearing devices, hence if the
+     * device is enumerated again after its reset, it is checked again after
+     * a delay growing from REATTACH_MIN_DELAY to REATTACH_MAX_DELAY. The wait
+     * ends early if the port is suspended again or stopped.
+     *
+     * @return true if the port was reattached
+     */
+    private boolean awaitReattach() {
+        long delay = REATTACH_MIN_DELAY;
+        synchronized (handoff) {
+            while (!resumeRequested && !stopped) {
+                try {
+                    handoff.wait();
+                } catch (InterruptedException ex) {
+                    return false;
+                }
+            }
+        }
+        while (!reattach()) {
+            synchronized (handoff) {
+                if (!resumeRequested || stopped) {
+                    return false;
+                }
+                try {
+                    handoff.wait(delay);
+                } catch (InterruptedException ex) {
+                    return false;
+                }
+                if (!resumeRequested || stopped) {
+                    return false;
+                }
+            }
+            delay = Math.min(REATTACH_MAX_DELAY, 2 * delay);
+        }
+        return true;
+    }
+
+    /**
+     * Reattach the port, if the device is ready.
+     *
+     * @return true if the port was reattached
+     */
+    private boolean reattach() {
+        boolean listed = false;
+        for (String name : SerialPortList.getPortNames()) {
+            listed |= name.equals(port);
+        }
+        if (!listed) {
+            return false;
+        }
+        try {
+            serialPort = new SerialPort(port);
+            serialPort.openPort();
+            serialPort.setParams(rate,
+                    SerialPort.DATABITS_8,
+                    SerialPort.STOPBITS_1,
+                    SerialPort.PARITY_NONE);
+        } catch (SerialPortException ex) {
+            // The device is still in use, e.g. by the uploader
+            close();
+            return false;
+        }
+        synchronized (handoff) {
+            if (!resumeRequested) {
+                // Suspended again in the meantime
+                close();
+                return false;
+            }
+            resumeRequested = false;
+            suspended = false;
+        }
+        linkReset = true;
+        reattached.set(true);
+        incoming.add(new ClacksStatus("Reattached port " + port, "info"));
+        return true;
     }
 
     public boolean isOpen() {
@@ -197,11 +363,51 @@ public class ClacksSerialPort implements Runnable {
 
     @Override
     public void run() {
-        stopped = false;
+        running = true;
+        try {
+            serve();
+        } finally {
+            synchronized (handoff) {
+                running = false;
+                handoff.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The loop of the thread, reading and writing the port.
+     */
+    private void serve() {
         long timeoutStart = System.currentTimeMillis();
 
         while (!stopped) {
 
+            // Hand the port over to another program and back
+            if (suspendRequested) {
+                release();
+            }
+            if (suspended) {
+                outgoing.clear();
+                if (!awaitReattach()) {
+                    continue;
+                }
+                timeoutStart = System.currentTimeMillis();
+            }
+
+            // Wait until a port is opened, open() wakes the thread
+            if (!isOpen()) {
+                outgoing.clear();
+                synchronized (handoff) {
+                    if (!stopped && !suspendRequested && !isOpen()) {
+                        try {
+                            handoff.wait(READY_INTERVAL);
+                        } catch (InterruptedException ex) {
+                        }
+                    }
+                }
+                continue;
+            }
+
             // First, check for incoming bytes, put them into a byte packet
             // and send them to the clacks service.
             try {
@@ -210,9 +416,15 @@ public class ClacksSerialPort implements Runnable {
                 if ((available >= 32) || (currentTime - timeoutStart > TIMEOUT)) {
                     Thread.sleep(0, 100);
                     if (serialPort.getInputBufferBytesCount() > 0) {
-                        ClacksBytes bytes = new ClacksBytes(currentTime, serialPort.readBytes(serialPort.getInputBufferBytesCount(),10));
+                        captureTime = CaptureClock.now();
+                        byte buffer[] = serialPort.readBytes(serialPort.getInputBufferBytesCount(),10);
                         timeoutStart = currentTime;
-                        incoming.add(bytes);
+                        if (link == null) {
+                            incoming.add(new ClacksBytes(captureTime, buffer));
+                        } else {
+                            // The link passes the payload of the frames on
+                            link.receive(buffer, 0, buffer.length, System.nanoTime());
+                        }
                     }
                 } else {
                     Thread.sleep(0, 100);
@@ -236,6 +448,18 @@ public class ClacksSerialPort implements Runnable {
                 ClacksPacket packet = outgoing.poll();
                 packet.process(this);
             }
+            
+            if (link != null) {
+                if (linkReset) {
+                    linkReset = false;
+                    link.reset();
+                }
+                link.poll(System.nanoTime());
+                if (link.isEstablished() != established) {
+                    established = link.isEstablished();
+                    incoming.add(new ClacksStatus(established ? "Reliable link established" : "Waiting for reliable link", "info"));
+                }
+            }
         }
     }
     
@@ -269,15 +493,38 @@ public class ClacksSerialPort implements Runnable {
 
 
     /**
-     * Write the bytes to the serial port.
+     * Write the bytes to the serial port. If the reliable link is used,
+     * they are queued for it.
      * 
      * @param buffer The bytes to bewritten
      * @return Ture if the write was succesfull
      * @throws SerialPortException Thi exception is thrown if an error occured.
      */
     public boolean writeBytes(byte[] buffer) throws SerialPortException {
+        if (link != null) {
+            link.send(buffer);
+            return true;
+        }
         return serialPort.writeBytes(buffer);
     }
+
+    /**
+     * Write a frame of the reliable link. Lost frames are repeated by the
+     * link, hence errors are only logged.
+     * 
+     * @param frame The encoded frame
+     */
+    private void writeFrame(byte[] frame) {
+        try {
+            serialPort.writeBytes(frame);
+        } catch (SerialPortException ex) {
+            AbbozzaLogger.err("ClacksSerialPort: Could not write frame");
+        }
+    }
+    
+    public ReliableLink getReliableLink() {
+        return link;
+    }
     
     
 }
@@ -17,23 +17,74 @@ package de.uos.inf.did.abbozza.monitor.clacks;
 
 import com.sun.net.httpserver.HttpExchange;
 import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
 import de.uos.inf.did.abbozza.handler.SerialHandler;
 import de.uos.inf.did.abbozza.monitor.AbbozzaMonitor;
+import de.uos.inf.did.abbozza.monitor.LatestValues;
 import de.uos.inf.did.abbozza.monitor.Message;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import javax.swing.SwingWorker;
 
 /**
  * This Worker provides a service for the Monitzor GUI to subscribe to the byte
  * stream provided by a serial connection.
  *
+ * The service can be started and stopped repeatedly. Each start creates a
+ * service thread, which owns the thread of the serial port and the port
+ * itself. Stopping the service waits until both threads ended and the port
+ * is closed. The subscribers, decoders and collected statistics are kept.
+ *
+ * Starting and stopping is guarded by a lock of its own, which the service
+ * thread never takes. Hence stop() can wait for the thread while it still
+ * answers requests. A run which did not end within STOP_TIMEOUT is kept, the
+ * service is not started again until it ended.
+ *
  * @author mbrinkmeier
  */
-public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket> {
+public class ClacksService {
+
+    // The maximal time to wait for the threads to end
+    private static final long STOP_TIMEOUT = 2000;
+
+    /**
+     * The worker of one run of the service. It passes the published packets
+     * to the event dispatch thread. The port and the stop flag belong to the
+     * run, hence a late run can not affect its successor.
+     */
+    private class Worker extends SwingWorker<List<ClacksPacket>, ClacksPacket> {
+
+        private final ClacksSerialPort port;
+        private volatile boolean stopRequested = false;
+
+        Worker(ClacksSerialPort port) {
+            this.port = port;
+        }
+
+        @Override
+        protected List<ClacksPacket> doInBackground() throws InterruptedException {
+            serve(this);
+            return null;
+        }
+
+        @Override
+        protected void process(List<ClacksPacket> chunks) {
+            ClacksService.this.process(chunks);
+        }
+
+        void publishPacket(ClacksPacket packet) {
+            publish(packet);
+        }
+    }
 
     // The queue for the bytes received froim the serial port
     protected ConcurrentLinkedQueue<ClacksPacket> incoming;
@@ -44,18 +95,51 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
     // The queue for messages received from the monitor or the http handler
     protected ConcurrentLinkedQueue<ClacksPacket> messages;
 
-    // The queue for waiting messages 
-    protected HashMap<String, ClacksRequest> waitingMessages;
+    // The queue for waiting messages, also accessed by the http handlers
+    protected ConcurrentHashMap<String, ClacksRequest> waitingMessages;
 
-    protected ClacksSerialPort serialPort;
+    protected volatile ClacksSerialPort serialPort;
     protected AbbozzaMonitor monitor;
-    protected Thread serialThread;
+    private final Object lifecycle = new Object();
+    private volatile Worker worker;
+    private Thread serviceThread;
     protected ClacksPacketParser parser;
+    protected ClockSync clockSync;
+    protected RttEstimator rttEstimator;
+    protected LatencyStats latencyStats;
+    protected LatestValues latestValues;
+    protected PollScheduler pollScheduler;
+    protected FairQueue fairQueue;
+    protected CopyOnWriteArrayList<ClacksDecoder> decoders;
+    private final Consumer<ClacksDecodedPacket> decodedSink = (packet) -> packet.processFromPort(this);
+
+    /**
+     * The response to a message and the time it was received.
+     */
+    protected static class Answer {
+
+        final String response;
+        final long time;
+
+        Answer(String response, long time) {
+            this.response = response;
+            this.time = time;
+        }
+    }
+
+    // The waiting requests by their message, to which identical requests
+    // are attached, and the last answer for each message, the oldest first
+    protected HashMap<String, ClacksRequest> inFlight;
+    protected LinkedHashMap<String, Answer> recentAnswers;
+    protected long freshness = 0;
 
     private String portName = null;
     private int portRate = 0;
 
-    private LinkedList<ClacksSubscriber> subscribers;
+    private CopyOnWriteArrayList<ClacksSubscriber> subscribers;
+
+    // The last id given to a request
+    private long lastRequestId = 0;
 
     /**
      * The constructor
@@ -69,54 +153,175 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
         incoming = new ConcurrentLinkedQueue<>();
         outgoing = new ConcurrentLinkedQueue<>();
         messages = new ConcurrentLinkedQueue<>();
-        waitingMessages = new HashMap<>();
+        waitingMessages = new ConcurrentHashMap<>();
 
         // Add the monitor to the list of subscribers
-        subscribers = new LinkedList<>();
-
-        // Initialize and open the serial Port
-        serialPort = new ClacksSerialPort(incoming, outgoing);
+        subscribers = new CopyOnWriteArrayList<>();
 
         parser = new ClacksPacketParser();
+
+        rttEstimator = new RttEstimator();
+        latencyStats = new LatencyStats();
+        latestValues = new LatestValues();
+        pollScheduler = new PollScheduler(this);
+        fairQueue = new FairQueue();
+        decoders = new CopyOnWriteArrayList<>();
+        inFlight = new HashMap<>();
+        recentAnswers = new LinkedHashMap<>();
+        if (AbbozzaServer.getInstance() != null) {
+            freshness = Math.max(0, AbbozzaServer.getConfig().getOptionInt("monitor.coalesce_window"));
+        }
+        clockSync = new ClockSync(this);
+    }
+
+    /**
+     * Start the service. If it is running already, nothing happens.
+     */
+    public void start() {
+        synchronized (lifecycle) {
+            if (serviceThread != null) {
+                if (serviceThread.isAlive()) {
+                    AbbozzaLogger.err("ClacksService: The last run did not stop yet");
+                    return;
+                }
+                // The last run ended after stop() gave up
+                clearRun();
+            }
+            incoming.clear();
+            outgoing.clear();
+            messages.clear();
+            serialPort = createSerialPort();
+            worker = new Worker(serialPort);
+            serviceThread = new Thread(worker, "ClacksService");
+            serviceThread.start();
+        }
+    }
+
+    /**
+     * Creates the serial port of a run.
+     *
+     * @return The port
+     */
+    protected ClacksSerialPort createSerialPort() {
+        return new ClacksSerialPort(incoming, outgoing);
     }
 
     /**
-     * The work done in the background.
+     * Stop the service and wait until its threads ended and the port is
+     * closed. If it is not running, nothing happens.
      *
-     * @return Null
+     * The lock of the service is not held while waiting, since the service
+     * thread needs it to answer requests. If the thread does not end within
+     * STOP_TIMEOUT, the run is kept and the service can not be started until
+     * it ended.
+     */
+    public void stop() {
+        synchronized (lifecycle) {
+            if (serviceThread == null) {
+                return;
+            }
+            worker.stopRequested = true;
+            serviceThread.interrupt();
+            try {
+                serviceThread.join(STOP_TIMEOUT);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (serviceThread.isAlive()) {
+                AbbozzaLogger.err("ClacksService: Service thread did not stop");
+                return;
+            }
+            clearRun();
+            AbbozzaLogger.info("ClacksService: Stopped");
+        }
+    }
+
+    /**
+     * Forget an ended run and the requests waiting for it.
      */
-    @Override
-    protected List<ClacksPacket> doInBackground() throws InterruptedException {
+    private void clearRun() {
+        serviceThread = null;
+        worker = null;
+        serialPort = null;
+        waitingMessages.clear();
+        synchronized (inFlight) {
+            inFlight.clear();
+            recentAnswers.clear();
+        }
+        pollScheduler.clear();
+        fairQueue.clear();
+    }
 
+    public boolean isRunning() {
+        synchronized (lifecycle) {
+            return (serviceThread != null) && serviceThread.isAlive();
+        }
+    }
+
+    /**
+     * The work done by the service thread. The serial port of the run is
+     * closed and its thread is stopped, when it ends.
+     *
+     * @param run The run
+     */
+    private void serve(Worker run) throws InterruptedException {
         AbbozzaLogger.err("ClacksService starting");
+        Thread portThread = new Thread(run.port, "ClacksSerialPort");
+        try {
+            servePort(run, portThread);
+        } finally {
+            // close the serial port
+            if (portThread.isAlive()) {
+                run.port.stopIt();
+                try {
+                    portThread.join(STOP_TIMEOUT);
+                } catch (InterruptedException ex) {
+                    AbbozzaLogger.err("ClacksService: Interrupted while stopping the serial port");
+                }
+            }
+            run.port.close();
+        }
+    }
+
+    private void servePort(Worker run, Thread portThread) throws InterruptedException {
+        ClacksSerialPort port = run.port;
 
         // Get port and rate if not known already
         if (portName == null) {
-            portName = serialPort.getSerialPort();
+            portName = port.getSerialPort();
         }
 
         // No port found
         if (portName == null) {
             publish(new ClacksStatus("No serial port found", "error"));
             AbbozzaLogger.err("ClacksService : No serial port found");
-            return null;
+            return;
         }
 
         if (portRate == 0) {
-            portRate = serialPort.getBaudRate();
+            portRate = port.getBaudRate();
         }
 
-        monitor.setBoardPort(portName, portRate);
+        if (monitor != null) {
+            monitor.setBoardPort(portName, portRate);
+        }
 
         // Open the port
-        serialPort.open(portName, portRate);
+        port.open(portName, portRate);
 
         // Start the thread
-        serialThread = new Thread(serialPort);
-        serialThread.start();
+        portThread.start();
 
         // Here the real work is done
-        while ((serialPort != null) && !isCancelled()) {
+        while (!run.stopRequested) {
+
+            // Forget partial messages from before the port was suspended
+            if (port.takeReattached()) {
+                parser = new ClacksPacketParser();
+                for (ClacksDecoder decoder : decoders) {
+                    decoder.reset();
+                }
+            }
 
             // Always treat at most ten packages
             // The byte chunks are published to the gui
@@ -135,52 +340,92 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
 
             // Check waiting messages for timeouts
             if (!waitingMessages.isEmpty()) {
-                for (ClacksRequest msg : waitingMessages.values()) {
+                Iterator<ClacksRequest> it = waitingMessages.values().iterator();
+                while (it.hasNext()) {
+                    ClacksRequest msg = it.next();
                     // Remove timed out requests
                     if (msg.isTimedOut()) {
-                        waitingMessages.remove(msg.getID());
-                        ClacksStatus status = new ClacksStatus("Message " + msg.getID() + " timed out", "error");
-                        publish(status);
-                        AbbozzaLogger.out("AbbozzaMonitor: Message " + msg.getID() + " timed out");
+                        it.remove();
+                        rttEstimator.timedOut(msg.getCommand());
+                        latencyStats.recordTimeout(msg);
                         msg.setResponse("timed out!");
+                        finish(msg);
+                        // Identical requests attached to it time out as well
+                        for (ClacksRequest follower : release(msg)) {
+                            follower.setResponse("timed out!");
+                            follower.setState(ClacksRequest.TIMEDOUT);
+                            finish(follower);
+                            if (follower.getCallback() != null) {
+                                follower.getCallback().accept(follower);
+                            }
+                        }
+                        if (msg.getCallback() != null) {
+                            msg.getCallback().accept(msg);
+                        } else {
+                            ClacksStatus status = new ClacksStatus("Message " + msg.getID() + " timed out", "error");
+                            publish(status);
+                            AbbozzaLogger.out("AbbozzaMonitor: Message " + msg.getID() + " timed out");
+                        }
+                    } else {
+                        // Attached requests may have shorter timeouts
+                        for (ClacksRequest follower : expireFollowers(msg)) {
+                            latencyStats.recordTimeout(follower);
+                            follower.setResponse("timed out!");
+                            follower.setState(ClacksRequest.TIMEDOUT);
+                            finish(follower);
+                            if (follower.getCallback() != null) {
+                                follower.getCallback().accept(follower);
+                            }
+                        }
                     }
                 }
             }
 
+            // Synchronize the clock of the board
+            if (port.isOpen()) {
+                clockSync.poll();
+                pollScheduler.poll(portRate);
+                fairQueue.drainTo(outgoing, portRate);
+            }
+
             // Now sleep a bit, so that other get the chance to do their work
             Thread.sleep(0, 100);
 
         }
         AbbozzaLogger.err("ClacksService stopped");
-
-        return null;
     }
 
     /**
-     * Suspend the serial connection
+     * Suspend the serial connection, i.e. release the port for another
+     * program, e.g. the uploader. The service, its subscribers and the
+     * collected data are kept. The call returns if the port is released.
      */
     public void suspendPort() {
-        if (serialPort != null) {
-            serialPort.suspend();
+        ClacksSerialPort port = serialPort;
+        if (port != null) {
+            port.suspend();
         }
     }
 
     /**
-     * Resume the serial connection
+     * Resume the serial connection. The port is reattached as soon as the
+     * device is ready again.
      */
     public void resumePort() {
-        if (serialPort != null) {
-            serialPort.resume();
+        ClacksSerialPort port = serialPort;
+        if (port != null) {
+            port.resume();
         }
     }
 
     public void setPort(String port) {
         portName = port;
-        if (serialPort != null && serialPort.isOpen()) {
-            serialPort.close();
+        ClacksSerialPort current = serialPort;
+        if (current != null && current.isOpen()) {
+            current.close();
         }
-        if (serialPort != null) {
-            serialPort.open(portName, portRate);
+        if (current != null) {
+            current.open(portName, portRate);
         }
 
     }
@@ -193,8 +438,9 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
     public void setRate(int rate) {
         if (rate != portRate) {
             portRate = rate;
-            if (serialPort != null) {
-                serialPort.setRate(rate);
+            ClacksSerialPort port = serialPort;
+            if (port != null) {
+                port.setRate(rate);
             }
         }
     }
@@ -204,10 +450,11 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
      *
      * @param chunks The list of packets to be processed
      */
-    @Override
     protected void process(List<ClacksPacket> chunks) {
         for (ClacksPacket packet : chunks) {
-            packet.process(monitor);
+            if (monitor != null) {
+                packet.process(monitor);
+            }
             for (ClacksSubscriber subscriber : subscribers) {
                 packet.process(subscriber);
             }
@@ -223,17 +470,6 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
         outgoing.add(new ClacksBytes(0, buffer));
     }
 
-    /**
-     * Close serial port if thread ends
-     */
-    @Override
-    protected void done() {
-        // close the serial port
-        serialPort.close();
-        serialPort.stopIt();
-        AbbozzaLogger.info("ClacksService: Stopped");
-    }
-
     public void subscribe(ClacksSubscriber subscriber) {
         if (subscribers.contains(subscriber)) {
             return;
@@ -250,20 +486,84 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
         publish(packet);
     }
 
+    /**
+     * Pass a packet to the event dispatch thread. Packets published while
+     * the service is not running are dropped.
+     *
+     * @param packet The packet
+     */
+    private void publish(ClacksPacket packet) {
+        Worker current = worker;
+        if (current != null) {
+            current.publishPacket(packet);
+        }
+    }
+
     public ClacksPacketParser getParser() {
         return parser;
     }
 
+    /**
+     * Register a decoder for the received bytes.
+     *
+     * @param decoder The decoder
+     */
+    public void addDecoder(ClacksDecoder decoder) {
+        if ((decoder != null) && !decoders.contains(decoder)) {
+            decoders.add(decoder);
+        }
+    }
+
+    public void removeDecoder(ClacksDecoder decoder) {
+        decoders.remove(decoder);
+    }
+
+    /**
+     * Pass received bytes to the registered decoders. A decoder throwing an
+     * exception is removed.
+     *
+     * @param buf The bytes
+     * @param captureTime The capture time of the bytes
+     */
+    public void decode(byte[] buf, long captureTime) {
+        for (ClacksDecoder decoder : decoders) {
+            try {
+                decoder.decode(buf, 0, buf.length, captureTime, decodedSink);
+            } catch (RuntimeException ex) {
+                AbbozzaLogger.err("ClacksService: Decoder " + decoder.getClass().getName() + " failed and is removed");
+                AbbozzaLogger.stackTrace(ex);
+                decoders.remove(decoder);
+            }
+        }
+    }
+
     public void sendPacket(ClacksPacket packet) {
         messages.add(packet);
     }
 
     public ClacksRequest processRequest(String msg, HttpExchange exchg, SerialHandler handler, long timeout) {
+        return processRequest(msg, exchg, handler, timeout, exchg.getRemoteAddress().getAddress().getHostAddress());
+    }
+
+    /**
+     * Process a request of a client of the serial handler. The requests of
+     * each client are limited and queued separately, see FairQueue. If the
+     * client exceeds its limits, the exchange is answered with 429.
+     *
+     * @param msg The message
+     * @param exchg The http exchange
+     * @param handler The handler
+     * @param timeout The timeout, 0 if no answer is expected
+     * @param client The client
+     * @return The request or null if the exchange was already answered
+     */
+    public ClacksRequest processRequest(String msg, HttpExchange exchg, SerialHandler handler, long timeout, String client) {
         ClacksRequest request = null;
         ClacksStatus status = new ClacksStatus("Received request from " + exchg.getRemoteAddress() + " : " + exchg.getRequestURI().toString(), "info");
         publish(status);
 
-        if (!serialPort.isOpen()) {
+        ClacksSerialPort port = serialPort;
+        if ((port == null) || !port.isOpen()) {
             if (handler != null) {
                 try {
                     handler.sendResponse(exchg, 400, "text/plain", "No board connected!");
@@ -273,15 +573,25 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
                 return null;
             }
         }
-        if (timeout > 0) {
-            String id = "_" + Long.toHexString(System.currentTimeMillis());
+        if (!fairQueue.admit(client)) {
+            if (handler != null) {
+                try {
+                    exchg.getResponseHeaders().set("Retry-After", Integer.toString(fairQueue.getRetryAfter(client)));
+                    handler.sendResponse(exchg, 429, "text/plain", "Too many requests!");
+                } catch (IOException ex) {
+                    AbbozzaLogger.stackTrace(ex);
+                }
+            }
+            return null;
+        }
+        if ((timeout > 0) || (timeout == ClacksRequest.AUTO_TIMEOUT)) {
+            String id = nextRequestId();
             request = new ClacksRequest(id, msg, exchg, handler, timeout);
-            request.startTimeOut();
-            waitingMessages.put(request.getID(), request);
-            outgoing.add(request);
+            request.setClient(client);
+            submit(request);
         } else {
             ClacksMessage cmsg = new ClacksMessage("", msg +"\n");
-            outgoing.add(cmsg);
+            fairQueue.enqueue(client, cmsg, msg.length() + 1, true);
             try {
                 handler.sendResponse(exchg, 200, "text/plain", "ok");
             } catch (IOException ex) {
@@ -291,6 +601,202 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
         return request;
     }
 
+    /**
+     * Send a request issued by the monitor itself. The callback is called from
+     * the thread of the service, if the response arrived or the request timed
+     * out.
+     *
+     * @param msg The message
+     * @param callback The callback
+     * @param timeout The timeout in milliseconds or
+     * ClacksRequest.AUTO_TIMEOUT
+     * @return The request
+     */
+    public ClacksRequest sendInternalRequest(String msg, Consumer<ClacksRequest> callback, long timeout) {
+        ClacksRequest request = new ClacksRequest(nextRequestId(), msg, callback, timeout);
+        submit(request);
+        return request;
+    }
+
+    /**
+     * Queue a waiting request for the port.
+     *
+     * If an identical request, i.e. one with the same message, is still
+     * waiting for its response, the request is attached to it instead of
+     * being written again. It gets the same response or times out with it.
+     * If the option monitor.coalesce_window is set, a request is answered
+     * directly if an identical one was answered no longer than the given
+     * number of milliseconds ago.
+     *
+     * @param request The request
+     */
+    private void submit(ClacksRequest request) {
+        if (request.getTimeout() == ClacksRequest.AUTO_TIMEOUT) {
+            request.setTimeout(rttEstimator.getTimeout(request.getCommand()));
+        }
+        request.startTimeOut();
+        Answer fresh = null;
+        synchronized (inFlight) {
+            ClacksRequest leader = inFlight.get(request.getMsg());
+            if (leader != null) {
+                leader.addFollower(request);
+                request.stamp(ClacksRequest.QUEUED);
+                return;
+            }
+            pruneAnswers();
+            fresh = recentAnswers.get(request.getMsg());
+            if (fresh == null) {
+                inFlight.put(request.getMsg(), request);
+            }
+        }
+        if (fresh != null) {
+            request.setResponse(fresh.response);
+            request.setResponseTime(fresh.time);
+            deliver(request);
+            return;
+        }
+        waitingMessages.put(request.getID(), request);
+        request.stamp(ClacksRequest.QUEUED);
+        if (request.getClient() != null) {
+            fairQueue.enqueue(request.getClient(), request, request.getID().length() + request.getMsg().length() + 6, false);
+        } else {
+            outgoing.add(request);
+        }
+    }
+
+    /**
+     * Release a finished request from the limits of its client.
+     *
+     * @param request The request
+     */
+    private void finish(ClacksRequest request) {
+        if ((request.getClient() != null) && request.release()) {
+            fairQueue.release(request.getClient());
+        }
+    }
+
+    /**
+     * Remove a request from the requests in flight.
+     *
+     * @param request The request
+     * @return The requests attached to it
+     */
+    private List<ClacksRequest> release(ClacksRequest request) {
+        synchronized (inFlight) {
+            inFlight.remove(request.getMsg(), request);
+            if ((freshness > 0) && (request.getState() != ClacksRequest.TIMEDOUT)) {
+                // Reinsert it to keep the map ordered by time
+                recentAnswers.remove(request.getMsg());
+                recentAnswers.put(request.getMsg(), new Answer(request.getResponse(), request.getResponseTime()));
+                pruneAnswers();
+            }
+            return request.getFollowers();
+        }
+    }
+
+    /**
+     * Remove the requests attached to a waiting request, which timed out.
+     *
+     * @param request The waiting request
+     * @return The timed out requests
+     */
+    private List<ClacksRequest> expireFollowers(ClacksRequest request) {
+        List<ClacksRequest> expired = null;
+        synchronized (inFlight) {
+            Iterator<ClacksRequest> it = request.getFollowers().iterator();
+            while (it.hasNext()) {
+                ClacksRequest follower = it.next();
+                if (follower.isTimedOut()) {
+                    it.remove();
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(follower);
+                }
+            }
+        }
+        return (expired != null) ? expired : Collections.<ClacksRequest>emptyList();
+    }
+
+    /**
+     * Remove the answers older than the freshness. Has to be called while
+     * holding the lock of inFlight.
+     */
+    private void pruneAnswers() {
+        long oldest = CaptureClock.now() - freshness * 1000000L;
+        Iterator<Answer> it = recentAnswers.values().iterator();
+        while (it.hasNext() && (it.next().time < oldest)) {
+            it.remove();
+        }
+    }
+
+    /**
+     * Deliver the response of a request to the http exchange or the
+     * callback.
+     *
+     * @param request The request
+     * @return true if the response could be delivered
+     */
+    private boolean deliver(ClacksRequest request) {
+        try {
+            if (request.getHandler() == null) {
+                request.setState(Message.RESPONSE_READY);
+                if (request.getCallback() != null) {
+                    request.getCallback().accept(request);
+                }
+                request.stamp(ClacksRequest.ANSWERED);
+                return true;
+            }
+            // The state is set afterwards, so that the handler
+            // does not answer the exchange a second time
+            request.getHandler().sendResponse(request.getHttpExchange(), 200, "text/plain", request.getResponse());
+            request.stamp(ClacksRequest.ANSWERED);
+            return true;
+        } catch (IOException ex) {
+            AbbozzaLogger.err("ClacksService: Could not send response");
+            return false;
+        } finally {
+            finish(request);
+            request.setState(Message.RESPONSE_READY);
+        }
+    }
+
+    /**
+     * Returns a new id for a request. The ids are derived from the current
+     * time, but two requests in the same millisecond get different ids.
+     *
+     * @return The id
+     */
+    private synchronized String nextRequestId() {
+        long id = Math.max(System.currentTimeMillis(), lastRequestId + 1);
+        lastRequestId = id;
+        return "_" + Long.toHexString(id);
+    }
+
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    public LatestValues getLatestValues() {
+        return latestValues;
+    }
+
+    public PollScheduler getPollScheduler() {
+        return pollScheduler;
+    }
+
+    public FairQueue getFairQueue() {
+        return fairQueue;
+    }
+
     /**
      * Send the message to the serial port
      *
@@ -368,17 +874,27 @@ public class ClacksService extends SwingWorker<List<ClacksPacket>, ClacksPacket>
             AbbozzaLogger.out("ClacksService: Checking response for message id " + id);
             ClacksRequest request = waitingMessages.get(id);
             if (request != null) {
-                try {
-                    String mesg = msg.getMsg().trim();
-                    AbbozzaLogger.out("AbbozzaMonitor: Try to send " + msg);
-                    waitingMessages.remove(id);
-                    // try {
-                    request.setResponse(mesg);
-                    request.setState(Message.RESPONSE_READY);
-                    request.getHandler().sendResponse(request.getHttpExchange(), 200, "text/plain", mesg);
-                    publish(new ClacksStatus("Answered " + mesg + "to request", "info"));
-                } catch (IOException ex) {
-                    AbbozzaLogger.err("ClacksService: Could not send response");
+                String mesg = msg.getMsg().trim();
+                AbbozzaLogger.out("AbbozzaMonitor: Try to send " + msg);
+                waitingMessages.remove(id);
+                request.setResponse(mesg);
+                request.setResponseTime(msg.getCaptureTime());
+                request.stamp(ClacksRequest.PARSED);
+                if (request.getSentTime() > 0) {
+                    rttEstimator.addSample(request.getCommand(), request.getResponseTime() - request.getSentTime());
+                }
+                List<ClacksRequest> followers = release(request);
+                if (deliver(request)) {
+                    latencyStats.record(request);
+                    if (request.getHandler() != null) {
+                        publish(new ClacksStatus("Answered " + mesg + "to request", "info"));
+                    }
+                }
+                // Fan the response out to the identical requests
+                for (ClacksRequest follower : followers) {
+                    follower.setResponse(mesg);
+                    follower.setResponseTime(msg.getCaptureTime());
+                    deliver(follower);
                 }
             }
         }
@@ -16,7 +16,8 @@
 package de.uos.inf.did.abbozza.monitor.clacks;
 
 /**
- * A Clacks subscriber only can receive byte packets.
+ * A Clacks subscriber only can receive byte packets, the answers to polled
+ * commands and decoded packets.
  * 
  * @author mbrinkmeier
  */
@@ -24,4 +25,20 @@ public interface ClacksSubscriber {
     
     public void process(ClacksBytes bytes);
     
+    /**
+     * Receive the answer to a polled command. By default it is ignored.
+     * 
+     * @param result The answer
+     */
+    public default void process(ClacksPollResult result) {
+    }
+    
+    /**
+     * Receive a packet decoded by a ClacksDecoder. By default it is ignored.
+     * 
+     * @param packet The packet
+     */
+    public default void process(ClacksDecodedPacket packet) {
+    }
+    
 }
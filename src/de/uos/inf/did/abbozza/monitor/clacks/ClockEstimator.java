@@ -0,0 +1,239 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+/**
+ * Estimates the relation between the clock of the board (its millis()) and
+ * the capture clock of the host.
+ *
+ * Each sample consists of the capture time at which a request was sent, the
+ * board time contained in the answer and the capture time of the answer. As
+ * in NTP the board time is assumed to belong to the middle of the round trip.
+ * Samples with a long round trip are less reliable and ignored, if shorter
+ * ones are available.
+ *
+ * The board time is modelled as a linear function of the host time, i.e.
+ * board = a + b * host. The offset a and the rate b are fitted by least
+ * squares over the last WINDOW samples. The deviation of b from 1 is the
+ * drift of the board's oscillator.
+ *
+ * If the board time runs backwards, the board was reset. The samples are
+ * dropped, the rate is kept, since it is a property of the oscillator.
+ *
+ * @author mbrinkmeier
+ */
+public class ClockEstimator {
+
+    public static final int WINDOW = 32;
+    // The minimal time span covered by the samples to estimate the drift
+    private static final double MIN_SPAN = 1000.0;
+    // The maximal accepted drift
+    private static final double MAX_DRIFT = 0.01;
+
+    private final long _host[];     // The capture time of the middle of the round trip
+    private final long _board[];    // The board time in milliseconds
+    private final long _rtt[];      // The round trip time in nanoseconds
+    private int _count;
+    private int _next;
+    private long _lastBoard;
+    private int _resets;
+
+    // The current model: board = _a + _b * (host - _origin) / 1e6
+    private boolean _valid;
+    private long _origin;
+    private double _a;
+    private double _b;
+    private long _minRtt;
+
+    public ClockEstimator() {
+        _host = new long[WINDOW];
+        _board = new long[WINDOW];
+        _rtt = new long[WINDOW];
+        _resets = 0;
+        _b = 1.0;
+        clear();
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @param sent The capture time at which the request was sent
+     * @param board The board time in the answer in milliseconds
+     * @param received The capture time of the answer
+     * @return true, if a reset of the board was detected
+     */
+    public synchronized boolean addSample(long sent, long board, long received) {
+        if (received < sent) {
+            return false;
+        }
+        boolean reset = false;
+        if ((_lastBoard >= 0) && (board < _lastBoard)) {
+            double rate = _b;
+            clear();
+            _b = rate;
+            _resets++;
+            reset = true;
+        }
+        _lastBoard = board;
+
+        _host[_next] = sent + (received - sent) / 2;
+        _board[_next] = board;
+        _rtt[_next] = received - sent;
+        _next = (_next + 1) % WINDOW;
+        if (_count < WINDOW) {
+            _count++;
+        }
+        estimate();
+        return reset;
+    }
+
+    /**
+     * Fit the model to the samples whose round trip time is at most twice
+     * the minimal one.
+     */
+    private void estimate() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < _count; i++) {
+            min = Math.min(min, _rtt[i]);
+        }
+        long limit = 2 * min + 1000000L;
+
+        // The first selected sample is used as origin to keep the numbers small
+        int first = -1;
+        int n = 0;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        double xmin = Double.MAX_VALUE, xmax = -Double.MAX_VALUE;
+        for (int i = 0; i < _count; i++) {
+            if (_rtt[i] > limit) {
+                continue;
+            }
+            if (first < 0) {
+                first = i;
+            }
+            double x = (_host[i] - _host[first]) / 1e6;
+            double y = _board[i] - _board[first];
+            n++;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+            xmin = Math.min(xmin, x);
+            xmax = Math.max(xmax, x);
+        }
+        if (n == 0) {
+            return;
+        }
+
+        double b = _b;
+        double det = n * sxx - sx * sx;
+        if ((n >= 2) && (xmax - xmin >= MIN_SPAN) && (det > 0)) {
+            double fit = (n * sxy - sx * sy) / det;
+            if (Math.abs(fit - 1.0) <= MAX_DRIFT) {
+                b = fit;
+            }
+        }
+        _origin = _host[first];
+        _a = _board[first] + (sy - b * sx) / n;
+        _b = b;
+        _minRtt = min;
+        _valid = true;
+    }
+
+    /**
+     * Converts a board time to the capture time of the host.
+     *
+     * @param board The board time in milliseconds
+     * @return The host time in nanoseconds since the epoch, or Long.MIN_VALUE
+     * if no estimate is available
+     */
+    public synchronized long toHost(long board) {
+        if (!_valid) {
+            return Long.MIN_VALUE;
+        }
+        return _origin + Math.round((board - _a) / _b * 1e6);
+    }
+
+    /**
+     * Converts a capture time of the host to the board time.
+     *
+     * @param host The host time in nanoseconds since the epoch
+     * @return The board time in milliseconds
+     */
+    public synchronized double toBoard(long host) {
+        return _a + _b * (host - _origin) / 1e6;
+    }
+
+    /**
+     * Returns the offset of the board clock, i.e. board time minus host time
+     * in milliseconds, at the given host time.
+     *
+     * @param host The host time in nanoseconds since the epoch
+     * @return The offset in milliseconds
+     */
+    public synchronized double getOffset(long host) {
+        return toBoard(host) - host / 1e6;
+    }
+
+    /**
+     * Returns the drift of the board clock.
+     *
+     * @return The drift in parts per million
+     */
+    public synchronized double getDrift() {
+        return (_b - 1.0) * 1e6;
+    }
+
+    public synchronized boolean isValid() {
+        return _valid;
+    }
+
+    /**
+     * Returns the minimal round trip time of the current samples.
+     *
+     * @return The round trip time in nanoseconds
+     */
+    public synchronized long getMinRtt() {
+        return _minRtt;
+    }
+
+    public synchronized int getSamples() {
+        return _count;
+    }
+
+    /**
+     * Returns the number of detected resets of the board.
+     *
+     * @return The number of resets
+     */
+    public synchronized int getResets() {
+        return _resets;
+    }
+
+    /**
+     * Drop all samples and the estimate.
+     */
+    public final synchronized void clear() {
+        _count = 0;
+        _next = 0;
+        _lastBoard = -1;
+        _valid = false;
+        _minRtt = 0;
+        _b = 1.0;
+    }
+}
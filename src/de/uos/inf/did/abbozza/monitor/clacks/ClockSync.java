@@ -0,0 +1,133 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import de.uos.inf.did.abbozza.core.AbbozzaLogger;
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+
+/**
+ * Periodically asks the board for its millis() and feeds the answers into a
+ * ClockEstimator.
+ *
+ * The board has to answer the request [[_id millis]] with [[_id t]], where t
+ * is its current millis(). Since not every sketch does this, the
+ * synchronization has to be switched on by the option monitor.clock_sync.
+ * The period in milliseconds is given by monitor.clock_sync_period.
+ *
+ * @author mbrinkmeier
+ */
+public class ClockSync {
+
+    public static final String COMMAND = "millis";
+    public static final long DEFAULT_PERIOD = 2000;
+
+    private final ClacksService _service;
+    private final ClockEstimator _estimator;
+    private boolean _enabled;
+    private long _period;
+    private long _next;
+    private volatile boolean _pending;
+    private int _timeouts;
+    private int _errors;
+
+    public ClockSync(ClacksService service) {
+        _service = service;
+        _estimator = new ClockEstimator();
+        _enabled = false;
+        _period = DEFAULT_PERIOD;
+        if (AbbozzaServer.getInstance() != null) {
+            _enabled = AbbozzaServer.getConfig().getOption("monitor.clock_sync");
+            int period = AbbozzaServer.getConfig().getOptionInt("monitor.clock_sync_period");
+            if (period > 0) {
+                _period = period;
+            }
+        }
+        _next = 0;
+        _pending = false;
+    }
+
+    /**
+     * Sends a request if the period is over and no request is pending. It is
+     * called by the loop of the ClacksService.
+     */
+    public void poll() {
+        if (!_enabled || _pending) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < _next) {
+            return;
+        }
+        _next = now + _period;
+        _pending = true;
+        _service.sendInternalRequest(COMMAND, this::handleResponse, ClacksRequest.AUTO_TIMEOUT);
+    }
+
+    private void handleResponse(ClacksRequest request) {
+        _pending = false;
+        if (request.getState() == ClacksRequest.TIMEDOUT) {
+            _timeouts++;
+            return;
+        }
+        if (request.getSentTime() == 0) {
+            // The request was answered together with an identical one
+            return;
+        }
+        long board;
+        try {
+            board = Long.parseLong(request.getResponse().trim());
+        } catch (NumberFormatException ex) {
+            _errors++;
+            AbbozzaLogger.err("ClockSync: Illegal answer " + request.getResponse());
+            return;
+        }
+        if (_estimator.addSample(request.getSentTime(), board, request.getResponseTime())) {
+            AbbozzaLogger.info("ClockSync: Reset of board detected");
+        }
+    }
+
+    public ClockEstimator getEstimator() {
+        return _estimator;
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        _enabled = enabled;
+    }
+
+    /**
+     * Set the period of the synchronization.
+     *
+     * @param period The period in milliseconds
+     */
+    public void setPeriod(long period) {
+        _period = period;
+    }
+
+    public int getTimeouts() {
+        return _timeouts;
+    }
+
+    public int getErrors() {
+        return _errors;
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Queue;
+
+/**
+ * Shares the serial port fairly between the clients of the serial handler.
+ *
+ * Each client has its own queue. The queues are served by deficit round
+ * robin: in each round a client may send QUANTUM bytes, unused bytes are
+ * carried to the next round as long as the client has packets waiting. The
+ * packets are handed to the port at most at the speed of the line, so that
+ * the backlog stays in the queues of the clients and not in the port.
+ *
+ * Before a request is accepted, the client is checked against two limits:
+ * the number of requests per second (option monitor.client_rate, default
+ * 10) and the number of requests not yet answered (option
+ * monitor.client_inflight, default 4). Requests exceeding them are
+ * rejected.
+ *
+ * Requests which timed out while waiting in the queue of their client are
+ * dropped instead of being written. The service has already answered them
+ * and released them from the limits of their client.
+ *
+ * @author mbrinkmeier
+ */
+public class FairQueue {
+
+    public static final int QUANTUM = 64;
+    public static final int DEFAULT_RATE = 10;
+    public static final int DEFAULT_INFLIGHT = 4;
+    // The number of clients above which idle ones are forgotten
+    private static final int MAX_IDLE_CLIENTS = 32;
+
+    private static class Item {
+
+        final ClacksPacket packet;
+        final int bytes;
+        final boolean release;
+
+        Item(ClacksPacket packet, int bytes, boolean release) {
+            this.packet = packet;
+            this.bytes = bytes;
+            this.release = release;
+        }
+    }
+
+    private static class Client {
+
+        final ArrayDeque<Item> items = new ArrayDeque<>();
+        int deficit = 0;
+        boolean granted = false;
+        boolean active = false;
+        int inFlight = 0;
+        double tokens;
+        long lastRefill;
+        long rejected = 0;
+    }
+
+    private final HashMap<String, Client> _clients;
+    private final ArrayDeque<Client> _active;
+    private int _rate;
+    private int _maxInFlight;
+    private double _lineTokens;
+    private long _lastLineRefill;
+
+    public FairQueue() {
+        _clients = new HashMap<>();
+        _active = new ArrayDeque<>();
+        _rate = DEFAULT_RATE;
+        _maxInFlight = DEFAULT_INFLIGHT;
+        if (AbbozzaServer.getInstance() != null) {
+            int val = AbbozzaServer.getConfig().getOptionInt("monitor.client_rate");
+            if (val > 0) {
+                _rate = val;
+            }
+            val = AbbozzaServer.getConfig().getOptionInt("monitor.client_inflight");
+            if (val > 0) {
+                _maxInFlight = val;
+            }
+        }
+        _lineTokens = 0;
+        _lastLineRefill = System.nanoTime();
+    }
+
+    /**
+     * Check the limits of a client and count the request as in flight, if it
+     * is admitted. Each admitted request has to be released later.
+     *
+     * @param client The client
+     * @return true if the request is admitted
+     */
+    public synchronized boolean admit(String client) {
+        long now = System.nanoTime();
+        Client cl = _clients.get(client);
+        if (cl == null) {
+            if (_clients.size() >= MAX_IDLE_CLIENTS) {
+                prune(now);
+            }
+            cl = new Client();
+            cl.tokens = _rate;
+            cl.lastRefill = now;
+            _clients.put(client, cl);
+        }
+        cl.tokens = Math.min(_rate, cl.tokens + (now - cl.lastRefill) * _rate / 1e9);
+        cl.lastRefill = now;
+        if ((cl.tokens < 1.0) || (cl.inFlight >= _maxInFlight)) {
+            cl.rejected++;
+            return false;
+        }
+        cl.tokens -= 1.0;
+        cl.inFlight++;
+        return true;
+    }
+
+    /**
+     * Release an admitted request, after it was answered or timed out.
+     *
+     * @param client The client
+     */
+    public synchronized void release(String client) {
+        Client cl = _clients.get(client);
+        if (cl == null) {
+            return;
+        }
+        if (cl.inFlight > 0) {
+            cl.inFlight--;
+        }
+    }
+
+    /**
+     * Forget the clients which are idle and whose rate limit is not in
+     * effect anymore.
+     *
+     * @param now The current time in nanoseconds
+     */
+    private void prune(long now) {
+        _clients.values().removeIf((cl) -> (cl.inFlight == 0) && !cl.active
+                && (cl.tokens + (now - cl.lastRefill) * _rate / 1e9 >= _rate));
+    }
+
+    /**
+     * Returns the time until the client may send the next request.
+     *
+     * @param client The client
+     * @return The time in seconds
+     */
+    public synchronized int getRetryAfter(String client) {
+        Client cl = _clients.get(client);
+        if ((cl == null) || (cl.tokens >= 1.0)) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.ceil((1.0 - cl.tokens) / _rate));
+    }
+
+    /**
+     * Append a packet to the queue of a client.
+     *
+     * @param client The client
+     * @param packet The packet
+     * @param bytes The number of bytes written for the packet
+     * @param release If true, the request is released as soon as the packet
+     * is handed to the port, since no answer is expected
+     */
+    public synchronized void enqueue(String client, ClacksPacket packet, int bytes, boolean release) {
+        Client cl = _clients.get(client);
+        if (cl == null) {
+            cl = new Client();
+            cl.tokens = _rate;
+            cl.lastRefill = System.nanoTime();
+            _clients.put(client, cl);
+        }
+        cl.items.add(new Item(packet, bytes, release));
+        if (!cl.active) {
+            cl.active = true;
+            _active.add(cl);
+        }
+    }
+
+    /**
+     * Move packets to the port, as far as the line can take them. Requests
+     * which timed out are dropped.
+     *
+     * @param out The queue of the port
+     * @param baudRate The baud rate of the line
+     * @return The number of moved packets
+     */
+    public synchronized int drainTo(Queue<ClacksPacket> out, int baudRate) {
+        if (_active.isEmpty()) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        // Ten bits per byte, allow bursts of a tenth of a second
+        double rate = baudRate / 10.0;
+        double capacity = Math.max(256, rate / 10);
+        _lineTokens = Math.min(capacity, _lineTokens + (now - _lastLineRefill) * rate / 1e9);
+        _lastLineRefill = now;
+
+        int count = 0;
+        while (!_active.isEmpty()) {
+            Client cl = _active.peekFirst();
+            if (!cl.granted) {
+                cl.deficit += QUANTUM;
+                cl.granted = true;
+            }
+            Item head = cl.items.peek();
+            if (isStale(head)) {
+                cl.items.poll();
+                if (cl.items.isEmpty()) {
+                    deactivate(cl);
+                }
+                continue;
+            }
+            if (head.bytes > cl.deficit) {
+                // The next client's turn
+                cl.granted = false;
+                _active.pollFirst();
+                _active.addLast(cl);
+                continue;
+            }
+            if ((head.bytes > _lineTokens) && (_lineTokens < capacity)) {
+                break;
+            }
+            cl.items.poll();
+            cl.deficit -= head.bytes;
+            _lineTokens -= head.bytes;
+            out.add(head.packet);
+            if (head.release && (cl.inFlight > 0)) {
+                cl.inFlight--;
+            }
+            count++;
+            if (cl.items.isEmpty()) {
+                deactivate(cl);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether an item is a request which timed out.
+     */
+    private static boolean isStale(Item item) {
+        return (item.packet instanceof ClacksRequest)
+                && (((ClacksRequest) item.packet).getState() == ClacksRequest.TIMEDOUT);
+    }
+
+    /**
+     * Remove the client at the head of the active ones, whose queue is
+     * empty.
+     */
+    private void deactivate(Client cl) {
+        cl.deficit = 0;
+        cl.granted = false;
+        cl.active = false;
+        _active.pollFirst();
+    }
+
+    /**
+     * Returns the number of requests rejected for a client.
+     *
+     * @param client The client
+     * @return The number of rejected requests
+     */
+    public synchronized long getRejected(String client) {
+        Client cl = _clients.get(client);
+        return (cl == null) ? 0 : cl.rejected;
+    }
+
+    public synchronized void clear() {
+        _clients.clear();
+        _active.clear();
+    }
+}
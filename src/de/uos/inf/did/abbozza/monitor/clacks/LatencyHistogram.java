@@ -0,0 +1,155 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+/**
+ * A histogram of latencies with a bounded relative error, in the manner of
+ * HdrHistogram.
+ *
+ * The values are given in microseconds. Values below SUB_BUCKETS are counted
+ * exactly. Above, each power of two is split into SUB_BUCKETS/2 buckets of
+ * equal width, hence a bucket is at most 1/16 of its value wide. The buckets
+ * cover values up to 2^40 microseconds, i.e. about twelve days.
+ *
+ * @author mbrinkmeier
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_BITS = 40;
+
+    private final long _counts[];
+    private long _total;
+    private long _max;
+    private long _sum;
+
+    public LatencyHistogram() {
+        _counts = new long[SUB_BUCKETS + (MAX_BITS - SUB_BITS) * HALF];
+        _total = 0;
+        _max = 0;
+        _sum = 0;
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // The position of the highest bit, at least SUB_BITS
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exp - SUB_BITS + 1;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+        long sub = (bucket - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        long value = Math.max(0, nanos / 1000);
+        int bucket = Math.min(bucket(value), _counts.length - 1);
+        _counts[bucket]++;
+        _total++;
+        _sum += value;
+        if (value > _max) {
+            _max = value;
+        }
+    }
+
+    /**
+     * Returns the value below which the given fraction of the latencies lie.
+     * It is the upper end of the bucket, i.e. the error is at most 1/16.
+     *
+     * @param fraction The fraction, e.g. 0.99
+     * @return The latency in microseconds
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (_total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * _total);
+        rank = Math.max(1, Math.min(_total, rank));
+        long seen = 0;
+        for (int i = 0; i < _counts.length; i++) {
+            seen += _counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), _max);
+            }
+        }
+        return _max;
+    }
+
+    public synchronized long getCount() {
+        return _total;
+    }
+
+    /**
+     * Returns the largest recorded latency.
+     *
+     * @return The latency in microseconds
+     */
+    public synchronized long getMax() {
+        return _max;
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return The latency in microseconds
+     */
+    public synchronized double getMean() {
+        return (_total == 0) ? 0 : (double) _sum / _total;
+    }
+
+    /**
+     * Append the statistics as JSON object.
+     *
+     * @param buf The buffer
+     * @return The buffer
+     */
+    public synchronized StringBuilder appendJSON(StringBuilder buf) {
+        buf.append("{\"count\":").append(_total);
+        buf.append(",\"mean\":").append(Math.round(getMean()));
+        buf.append(",\"p50\":").append(getPercentile(0.5));
+        buf.append(",\"p99\":").append(getPercentile(0.99));
+        buf.append(",\"p999\":").append(getPercentile(0.999));
+        buf.append(",\"max\":").append(_max);
+        return buf.append('}');
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < _counts.length; i++) {
+            _counts[i] = 0;
+        }
+        _total = 0;
+        _max = 0;
+        _sum = 0;
+    }
+}
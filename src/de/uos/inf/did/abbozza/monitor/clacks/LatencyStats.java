@@ -0,0 +1,159 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the latencies of answered requests per command.
+ *
+ * The lifecycle of a request is split into the segments between its stages:
+ * <ul>
+ * <li>accept: from the creation to the queue</li>
+ * <li>queue: waiting in the queue of the host until written to the port</li>
+ * <li>roundtrip: from writing to the capture of the response, i.e. the
+ * serial link and the sketch</li>
+ * <li>parse: from the capture of the response to its parsing</li>
+ * <li>deliver: from the parsing to the delivery of the response</li>
+ * </ul>
+ * and the total time. The roundtrip of the command millis, used by the clock
+ * synchronization, is almost only the serial link. Comparing it with the
+ * roundtrip of other commands separates the link from the sketch.
+ *
+ * @author mbrinkmeier
+ */
+public class LatencyStats {
+
+    public static final String SEGMENTS[] = {"accept", "queue", "roundtrip", "parse", "deliver"};
+
+    private static class CommandStats {
+
+        final LatencyHistogram segments[];
+        final LatencyHistogram total;
+        long timeouts;
+
+        CommandStats() {
+            segments = new LatencyHistogram[SEGMENTS.length];
+            for (int i = 0; i < SEGMENTS.length; i++) {
+                segments[i] = new LatencyHistogram();
+            }
+            total = new LatencyHistogram();
+            timeouts = 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, CommandStats> _commands;
+
+    public LatencyStats() {
+        _commands = new ConcurrentHashMap<>();
+    }
+
+    private CommandStats get(String command) {
+        return _commands.computeIfAbsent(command, (cmd) -> new CommandStats());
+    }
+
+    /**
+     * Record the latencies of an answered request.
+     *
+     * @param request The request
+     */
+    public void record(ClacksRequest request) {
+        CommandStats stats = get(request.getCommand());
+        for (int i = 0; i < SEGMENTS.length; i++) {
+            long from = request.getStamp(i);
+            long to = request.getStamp(i + 1);
+            if ((from != 0) && (to != 0)) {
+                stats.segments[i].record(to - from);
+            }
+        }
+        stats.total.record(request.getStamp(ClacksRequest.ANSWERED) - request.getStamp(ClacksRequest.ACCEPTED));
+    }
+
+    /**
+     * Count a timed out request.
+     *
+     * @param request The request
+     */
+    public void recordTimeout(ClacksRequest request) {
+        CommandStats stats = get(request.getCommand());
+        synchronized (stats) {
+            stats.timeouts++;
+        }
+    }
+
+    /**
+     * Returns the statistics as JSON object. For each command it contains the
+     * number of timeouts and for each segment and the total time the count,
+     * mean, p50, p99, p999 and max in microseconds.
+     *
+     * @return The JSON string
+     */
+    public String toJSON() {
+        StringBuilder buf = new StringBuilder();
+        buf.append('{');
+        boolean first = true;
+        for (Map.Entry<String, CommandStats> entry : new TreeMap<>(_commands).entrySet()) {
+            if (!first) {
+                buf.append(',');
+            }
+            first = false;
+            CommandStats stats = entry.getValue();
+            appendString(buf, entry.getKey()).append(":{\"timeouts\":");
+            synchronized (stats) {
+                buf.append(stats.timeouts);
+            }
+            for (int i = 0; i < SEGMENTS.length; i++) {
+                buf.append(",\"").append(SEGMENTS[i]).append("\":");
+                stats.segments[i].appendJSON(buf);
+            }
+            buf.append(",\"total\":");
+            stats.total.appendJSON(buf);
+            buf.append('}');
+        }
+        return buf.append('}').toString();
+    }
+
+    /**
+     * Append a string as JSON string literal.
+     *
+     * @param buf The buffer
+     * @param str The string
+     * @return The buffer
+     */
+    public static StringBuilder appendString(StringBuilder buf, String str) {
+        buf.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                buf.append('\\').append(c);
+            } else if (c < 0x20) {
+                buf.append(String.format("\\u%04x", (int) c));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.append('"');
+    }
+
+    public void clear() {
+        _commands.clear();
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sends commands to the board periodically on behalf of clients.
+ *
+ * Clients register a command with a period. Registrations of the same
+ * command by several clients share one schedule, which runs with the
+ * smallest requested period. The answers are stored in the latest values of
+ * the service under the command and published as ClacksPollResult to the
+ * subscribers.
+ *
+ * The polls may use a share of the bandwidth of the port, given in percent
+ * by the option monitor.poll_budget (default 50). A poll costs the bytes of
+ * the request and of the last answer. If the budget is used up, due polls
+ * are delayed.
+ *
+ * @author mbrinkmeier
+ */
+public class PollScheduler {
+
+    public static final int DEFAULT_BUDGET = 50;
+    public static final long MIN_PERIOD = 20;
+    // The bytes added to each request by the framing and the id
+    private static final int OVERHEAD = 20;
+
+    /**
+     * A command polled for one or more clients.
+     */
+    private class Schedule {
+
+        final String command;
+        final HashMap<String, Long> periods = new HashMap<>();
+        long period;
+        long next;
+        int answerBytes = 0;
+        boolean pending = false;
+        boolean waiting = false;
+        long polls = 0;
+        long delayed = 0;
+        long timeouts = 0;
+
+        Schedule(String command) {
+            this.command = command;
+        }
+
+        void updatePeriod() {
+            period = Long.MAX_VALUE;
+            for (long p : periods.values()) {
+                period = Math.min(period, p);
+            }
+        }
+    }
+
+    private final ClacksService _service;
+    private final HashMap<String, Schedule> _schedules;
+    private int _budget;
+    private double _tokens;
+    private long _lastRefill;
+
+    public PollScheduler(ClacksService service) {
+        _service = service;
+        _schedules = new HashMap<>();
+        _budget = DEFAULT_BUDGET;
+        if (AbbozzaServer.getInstance() != null) {
+            int budget = AbbozzaServer.getConfig().getOptionInt("monitor.poll_budget");
+            if ((budget > 0) && (budget <= 100)) {
+                _budget = budget;
+            }
+        }
+        _tokens = 0;
+        _lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Register a command for a client. A second registration of the same
+     * command by the client changes its period.
+     *
+     * @param client The client
+     * @param command The command
+     * @param period The period in milliseconds
+     */
+    public synchronized void register(String client, String command, long period) {
+        command = command.trim();
+        Schedule schedule = _schedules.get(command);
+        if (schedule == null) {
+            schedule = new Schedule(command);
+            schedule.next = System.currentTimeMillis();
+            _schedules.put(command, schedule);
+        }
+        schedule.periods.put(client, Math.max(MIN_PERIOD, period));
+        schedule.updatePeriod();
+    }
+
+    /**
+     * Remove the registration of a command by a client.
+     *
+     * @param client The client
+     * @param command The command
+     */
+    public synchronized void unregister(String client, String command) {
+        command = command.trim();
+        Schedule schedule = _schedules.get(command);
+        if (schedule == null) {
+            return;
+        }
+        schedule.periods.remove(client);
+        if (schedule.periods.isEmpty()) {
+            _schedules.remove(command);
+        } else {
+            schedule.updatePeriod();
+        }
+    }
+
+    /**
+     * Remove all registrations of a client.
+     *
+     * @param client The client
+     */
+    public synchronized void unregisterAll(String client) {
+        for (Schedule schedule : _schedules.values().toArray(new Schedule[0])) {
+            unregister(client, schedule.command);
+        }
+    }
+
+    /**
+     * Send the due commands within the budget. It is called by the loop of
+     * the ClacksService.
+     *
+     * @param baudRate The baud rate of the port
+     */
+    public void poll(int baudRate) {
+        ArrayList<Schedule> due = null;
+        synchronized (this) {
+            if (_schedules.isEmpty()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            // Ten bits per byte on the line
+            double rate = baudRate / 10.0 * _budget / 100.0 / 1000.0;
+            _tokens = Math.min(rate * 1000.0, _tokens + (now - _lastRefill) * rate);
+            _lastRefill = now;
+
+            for (Schedule schedule : _schedules.values()) {
+                if (schedule.pending || (now < schedule.next)) {
+                    continue;
+                }
+                int cost = schedule.command.length() + OVERHEAD + schedule.answerBytes;
+                if (_tokens < cost) {
+                    if (!schedule.waiting) {
+                        schedule.delayed++;
+                        schedule.waiting = true;
+                    }
+                    continue;
+                }
+                _tokens -= cost;
+                // Keep the phase, unless the schedule fell behind
+                schedule.next = Math.max(schedule.next + schedule.period, now);
+                schedule.pending = true;
+                schedule.waiting = false;
+                schedule.polls++;
+                if (due == null) {
+                    due = new ArrayList<>();
+                }
+                due.add(schedule);
+            }
+        }
+        if (due == null) {
+            return;
+        }
+        // The requests are sent without holding the lock
+        for (Schedule schedule : due) {
+            _service.sendInternalRequest(schedule.command, (request) -> handleResponse(schedule, request), ClacksRequest.AUTO_TIMEOUT);
+        }
+    }
+
+    private void handleResponse(Schedule schedule, ClacksRequest request) {
+        synchronized (this) {
+            schedule.pending = false;
+            if (request.getState() == ClacksRequest.TIMEDOUT) {
+                schedule.timeouts++;
+                return;
+            }
+            schedule.answerBytes = request.getResponse().length() + OVERHEAD;
+        }
+        _service.getLatestValues().putMessage(schedule.command, request.getResponse(), request.getResponseTime());
+        _service.publishPacket(new ClacksPollResult(schedule.command, request.getResponse(), request.getResponseTime()));
+    }
+
+    /**
+     * Returns the schedules as JSON object. For each command it contains the
+     * period, the number of clients and the numbers of polls, delayed polls
+     * and timeouts.
+     *
+     * @return The JSON string
+     */
+    public synchronized String toJSON() {
+        StringBuilder buf = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, Schedule> entry : new TreeMap<>(_schedules).entrySet()) {
+            if (!first) {
+                buf.append(',');
+            }
+            first = false;
+            Schedule schedule = entry.getValue();
+            LatencyStats.appendString(buf, entry.getKey());
+            buf.append(":{\"period\":").append(schedule.period);
+            buf.append(",\"clients\":").append(schedule.periods.size());
+            buf.append(",\"polls\":").append(schedule.polls);
+            buf.append(",\"delayed\":").append(schedule.delayed);
+            buf.append(",\"timeouts\":").append(schedule.timeouts).append('}');
+        }
+        return buf.append('}').toString();
+    }
+
+    public synchronized void clear() {
+        _schedules.clear();
+    }
+}
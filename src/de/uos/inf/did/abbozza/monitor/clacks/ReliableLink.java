@@ -0,0 +1,511 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A reliable byte stream over a lossy serial line.
+ *
+ * The stream is cut into frames of at most MAX_PAYLOAD bytes. Each frame
+ * consists of the header
+ * <pre>
+ *   type seq ack sack0 sack1 sack2 sack3
+ * </pre>
+ * the payload and a CRC-16/CCITT of header and payload. The frame is COBS
+ * encoded and terminated by a zero byte, hence a lost or corrupted byte
+ * only destroys the frame containing it.
+ *
+ * Data frames carry an 8 bit sequence number. Every frame acknowledges all
+ * data frames before ack (cumulative ACK) and the data frames ack+1+i for
+ * which bit i of sack is set (selective ACK). At most window data frames are
+ * unacknowledged. A frame is retransmitted if it is not acknowledged within
+ * the retransmission timeout or if later frames were acknowledged, but not
+ * the frame itself. Frames received out of order are kept until the gap is
+ * filled.
+ *
+ * A side starting or restarting sends SYN frames until the other side
+ * answers with SYNACK. A side receiving a SYN restarts its sequence numbers
+ * and sends its unacknowledged data again. Data frames received while
+ * waiting for the SYNACK are ignored.
+ *
+ * Both the host and the board use the same protocol. The link does no
+ * synchronization, all methods have to be called from the same thread.
+ *
+ * @author mbrinkmeier
+ */
+public class ReliableLink {
+
+    public static final int DATA = 1;
+    public static final int ACK = 2;
+    public static final int SYN = 3;
+    public static final int SYNACK = 4;
+
+    public static final int MAX_PAYLOAD = 64;
+    public static final int DEFAULT_WINDOW = 8;
+    public static final int MAX_WINDOW = 32;
+
+    private static final int HEADER = 7;
+    private static final int MAX_FRAME = HEADER + MAX_PAYLOAD + 2;
+    private static final long MIN_RTO = 20000000L;      // 20ms
+    private static final long MAX_RTO = 2000000000L;    // 2s
+    private static final long INITIAL_RTO = 200000000L; // 200ms
+
+    /**
+     * A data frame sent, but not yet acknowledged.
+     */
+    private static class Frame {
+
+        byte payload[];
+        long sentAt;
+        boolean retransmitted;
+        boolean sacked;
+        boolean due;
+    }
+
+    private final int _window;
+    private final Consumer<byte[]> _wire;
+    private final Consumer<byte[]> _deliver;
+
+    // The sender
+    private final ArrayDeque<byte[]> _pending;
+    private final Frame _frames[];
+    private int _base;
+    private int _next;
+    private boolean _synced;
+    private long _synSent;
+    private long _srtt;
+    private long _rttvar;
+    private long _rto;
+
+    // The receiver
+    private final byte _buffered[][];
+    private int _expected;
+    private boolean _ackDue;
+    private boolean _synackDue;
+
+    // The decoder of incoming frames
+    private final byte _frame[];
+    private int _frameLen;
+    private boolean _overflow;
+
+    // Statistics
+    private long _sent;
+    private long _retransmitted;
+    private long _delivered;
+    private long _duplicates;
+    private long _errors;
+
+    /**
+     * Creates a link.
+     *
+     * @param window The maximal number of unacknowledged data frames
+     * @param wire The consumer of the bytes to be written to the line
+     * @param deliver The consumer of the received payload, in order
+     */
+    public ReliableLink(int window, Consumer<byte[]> wire, Consumer<byte[]> deliver) {
+        _window = Math.max(1, Math.min(MAX_WINDOW, window));
+        _wire = wire;
+        _deliver = deliver;
+        _pending = new ArrayDeque<>();
+        _frames = new Frame[256];
+        _buffered = new byte[256][];
+        _frame = new byte[MAX_FRAME + MAX_FRAME / 254 + 2];
+        reset();
+    }
+
+    /**
+     * Start the link again, e.g. after the port was opened. Unsent and
+     * unacknowledged data is dropped and SYN frames are sent until the other
+     * side answers.
+     */
+    public final void reset() {
+        _pending.clear();
+        Arrays.fill(_frames, null);
+        Arrays.fill(_buffered, null);
+        _base = 0;
+        _next = 0;
+        _expected = 0;
+        _synced = false;
+        _synSent = 0;
+        _ackDue = false;
+        _synackDue = false;
+        _frameLen = 0;
+        _overflow = false;
+        _srtt = 0;
+        _rttvar = 0;
+        _rto = INITIAL_RTO;
+    }
+
+    /**
+     * Queue bytes for sending.
+     *
+     * @param bytes The bytes
+     */
+    public void send(byte[] bytes) {
+        for (int off = 0; off < bytes.length; off += MAX_PAYLOAD) {
+            _pending.add(Arrays.copyOfRange(bytes, off, Math.min(bytes.length, off + MAX_PAYLOAD)));
+        }
+    }
+
+    /**
+     * Process bytes received from the line. The payload of complete data
+     * frames is passed to the deliver consumer.
+     *
+     * @param buf The buffer
+     * @param off The index of the first byte
+     * @param len The number of bytes
+     * @param now The current time in nanoseconds
+     */
+    public void receive(byte[] buf, int off, int len, long now) {
+        for (int i = off; i < off + len; i++) {
+            byte b = buf[i];
+            if (b != 0) {
+                if (_frameLen < _frame.length) {
+                    _frame[_frameLen++] = b;
+                } else {
+                    _overflow = true;
+                }
+                continue;
+            }
+            if (_frameLen > 0) {
+                if (_overflow) {
+                    _errors++;
+                } else {
+                    processFrame(now);
+                }
+            }
+            _frameLen = 0;
+            _overflow = false;
+        }
+    }
+
+    private void processFrame(long now) {
+        byte frame[] = cobsDecode(_frame, _frameLen);
+        if ((frame == null) || (frame.length < HEADER + 2)
+                || (crc(frame, frame.length - 2) != (((frame[frame.length - 2] & 0xff) << 8) | (frame[frame.length - 1] & 0xff)))) {
+            _errors++;
+            return;
+        }
+        int type = frame[0];
+        int seq = frame[1] & 0xff;
+        if (type == SYN) {
+            restart();
+            _synackDue = true;
+            return;
+        }
+        if (type == SYNACK) {
+            _synced = true;
+            return;
+        }
+        if (!_synced) {
+            return;
+        }
+        int sack = ((frame[3] & 0xff) << 24) | ((frame[4] & 0xff) << 16) | ((frame[5] & 0xff) << 8) | (frame[6] & 0xff);
+        processAck(frame[2] & 0xff, sack, now);
+        if (type == DATA) {
+            processData(seq, Arrays.copyOfRange(frame, HEADER, frame.length - 2));
+        }
+    }
+
+    /**
+     * The other side restarted. Its frames are expected from 0 again and the
+     * unacknowledged frames are sent again, starting with 0.
+     */
+    private void restart() {
+        ArrayDeque<byte[]> unacked = new ArrayDeque<>();
+        for (int seq = _base; seq != _next; seq = (seq + 1) & 0xff) {
+            unacked.add(_frames[seq].payload);
+            _frames[seq] = null;
+        }
+        while (!unacked.isEmpty()) {
+            _pending.addFirst(unacked.pollLast());
+        }
+        Arrays.fill(_buffered, null);
+        _base = 0;
+        _next = 0;
+        _expected = 0;
+        _synced = true;
+    }
+
+    private void processAck(int ack, int sack, long now) {
+        int inFlight = (_next - _base) & 0xff;
+        int acked = (ack - _base) & 0xff;
+        if (acked > inFlight) {
+            // An old or invalid ack
+            return;
+        }
+        for (int i = 0; i < acked; i++) {
+            Frame frame = _frames[_base];
+            if (!frame.retransmitted) {
+                addSample(now - frame.sentAt);
+            }
+            _frames[_base] = null;
+            _base = (_base + 1) & 0xff;
+        }
+        // Mark the selectively acknowledged frames. Unacknowledged frames
+        // before the last of them were lost and are sent again, if they
+        // were sent at least a round trip ago.
+        int last = -1;
+        inFlight = (_next - _base) & 0xff;
+        for (int i = 0; i < 32; i++) {
+            if ((sack & (1 << i)) != 0) {
+                int d = i + 1;
+                if (d < inFlight) {
+                    _frames[(_base + d) & 0xff].sacked = true;
+                    last = d;
+                }
+            }
+        }
+        for (int d = 0; d < last; d++) {
+            Frame frame = _frames[(_base + d) & 0xff];
+            if (!frame.sacked && (now - frame.sentAt > _srtt)) {
+                frame.due = true;
+            }
+        }
+    }
+
+    private void processData(int seq, byte[] payload) {
+        _ackDue = true;
+        int d = (seq - _expected) & 0xff;
+        if (d >= MAX_WINDOW) {
+            _duplicates++;
+            return;
+        }
+        if (_buffered[seq] != null) {
+            _duplicates++;
+            return;
+        }
+        _buffered[seq] = payload;
+        while (_buffered[_expected] != null) {
+            byte data[] = _buffered[_expected];
+            _buffered[_expected] = null;
+            _expected = (_expected + 1) & 0xff;
+            _delivered += data.length;
+            _deliver.accept(data);
+        }
+    }
+
+    private void addSample(long rtt) {
+        if (_srtt == 0) {
+            _srtt = rtt;
+            _rttvar = rtt / 2;
+        } else {
+            _rttvar = (3 * _rttvar + Math.abs(_srtt - rtt)) / 4;
+            _srtt = (7 * _srtt + rtt) / 8;
+        }
+        _rto = Math.max(MIN_RTO, Math.min(MAX_RTO, _srtt + 4 * _rttvar));
+    }
+
+    /**
+     * Write the due frames to the line: SYN frames while the link is not
+     * established, retransmissions, new data frames within the window and
+     * acknowledgements.
+     *
+     * @param now The current time in nanoseconds
+     */
+    public void poll(long now) {
+        if (_synackDue) {
+            _synackDue = false;
+            write(SYNACK, 0, null);
+        }
+        if (!_synced) {
+            if ((_synSent == 0) || (now - _synSent >= _rto)) {
+                _synSent = now;
+                write(SYN, 0, null);
+            }
+            return;
+        }
+        boolean backoff = false;
+        for (int seq = _base; seq != _next; seq = (seq + 1) & 0xff) {
+            Frame frame = _frames[seq];
+            if (frame.sacked) {
+                continue;
+            }
+            boolean expired = now - frame.sentAt >= _rto;
+            if (frame.due || expired) {
+                backoff |= expired && !frame.due;
+                frame.due = false;
+                frame.retransmitted = true;
+                frame.sentAt = now;
+                _retransmitted++;
+                write(DATA, seq, frame.payload);
+            }
+        }
+        if (backoff) {
+            _rto = Math.min(MAX_RTO, 2 * _rto);
+        }
+        while ((((_next - _base) & 0xff) < _window) && !_pending.isEmpty()) {
+            Frame frame = new Frame();
+            frame.payload = _pending.poll();
+            frame.sentAt = now;
+            _frames[_next] = frame;
+            write(DATA, _next, frame.payload);
+            _next = (_next + 1) & 0xff;
+            _sent++;
+        }
+        if (_ackDue) {
+            write(ACK, 0, null);
+        }
+    }
+
+    private void write(int type, int seq, byte[] payload) {
+        int len = (payload == null) ? 0 : payload.length;
+        byte frame[] = new byte[HEADER + len + 2];
+        frame[0] = (byte) type;
+        frame[1] = (byte) seq;
+        frame[2] = (byte) _expected;
+        int sack = 0;
+        for (int i = 0; i < 32; i++) {
+            if (_buffered[(_expected + 1 + i) & 0xff] != null) {
+                sack |= 1 << i;
+            }
+        }
+        frame[3] = (byte) (sack >>> 24);
+        frame[4] = (byte) (sack >>> 16);
+        frame[5] = (byte) (sack >>> 8);
+        frame[6] = (byte) sack;
+        if (len > 0) {
+            System.arraycopy(payload, 0, frame, HEADER, len);
+        }
+        int crc = crc(frame, HEADER + len);
+        frame[HEADER + len] = (byte) (crc >>> 8);
+        frame[HEADER + len + 1] = (byte) crc;
+        // Every frame carries the current acknowledgement
+        _ackDue = false;
+        _wire.accept(cobsEncode(frame));
+    }
+
+    /**
+     * COBS encode a frame and append the terminating zero.
+     */
+    static byte[] cobsEncode(byte[] data) {
+        byte out[] = new byte[data.length + data.length / 254 + 2];
+        int code = 0;
+        int codePos = 0;
+        int pos = 1;
+        for (byte b : data) {
+            if (b == 0) {
+                out[codePos] = (byte) (code + 1);
+                codePos = pos++;
+                code = 0;
+            } else {
+                out[pos++] = b;
+                code++;
+                if (code == 254) {
+                    out[codePos] = (byte) 255;
+                    codePos = pos++;
+                    code = 0;
+                }
+            }
+        }
+        out[codePos] = (byte) (code + 1);
+        out[pos++] = 0;
+        return Arrays.copyOf(out, pos);
+    }
+
+    /**
+     * Decode a COBS encoded frame without its terminating zero.
+     *
+     * @return The frame or null if it is malformed
+     */
+    static byte[] cobsDecode(byte[] data, int len) {
+        byte out[] = new byte[len];
+        int pos = 0;
+        int i = 0;
+        while (i < len) {
+            int code = data[i++] & 0xff;
+            if (i + code - 1 > len) {
+                return null;
+            }
+            for (int j = 1; j < code; j++) {
+                out[pos++] = data[i++];
+            }
+            if ((code < 255) && (i < len)) {
+                out[pos++] = 0;
+            }
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    /**
+     * CRC-16/CCITT-FALSE
+     */
+    static int crc(byte[] data, int len) {
+        int crc = 0xffff;
+        for (int i = 0; i < len; i++) {
+            crc ^= (data[i] & 0xff) << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = ((crc & 0x8000) != 0) ? ((crc << 1) ^ 0x1021) : (crc << 1);
+            }
+        }
+        return crc & 0xffff;
+    }
+
+    public boolean isEstablished() {
+        return _synced;
+    }
+
+    /**
+     * Returns the number of bytes queued or unacknowledged.
+     *
+     * @return The number of bytes
+     */
+    public int getBacklog() {
+        int bytes = 0;
+        for (byte chunk[] : _pending) {
+            bytes += chunk.length;
+        }
+        for (int seq = _base; seq != _next; seq = (seq + 1) & 0xff) {
+            bytes += _frames[seq].payload.length;
+        }
+        return bytes;
+    }
+
+    public long getSent() {
+        return _sent;
+    }
+
+    public long getRetransmitted() {
+        return _retransmitted;
+    }
+
+    public long getDelivered() {
+        return _delivered;
+    }
+
+    public long getDuplicates() {
+        return _duplicates;
+    }
+
+    public long getErrors() {
+        return _errors;
+    }
+
+    /**
+     * Returns the retransmission timeout.
+     *
+     * @return The timeout in nanoseconds
+     */
+    public long getRto() {
+        return _rto;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import de.uos.inf.did.abbozza.core.AbbozzaServer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Derives timeouts for requests from the measured round trip times, like the
+ * retransmission timeout of TCP (RFC 6298).
+ *
+ * For each command, i.e. the first word of a request, a smoothed round trip
+ * time SRTT and its variation RTTVAR are kept. The timeout is
+ * SRTT + 4 * RTTVAR, bounded by the options monitor.rto_min and
+ * monitor.rto_max. Until the first answer the timeout is monitor.rto_initial.
+ * Each timeout doubles the timeout of the command, until an answer arrives.
+ *
+ * @author mbrinkmeier
+ */
+public class RttEstimator {
+
+    public static final long DEFAULT_MIN = 200;
+    public static final long DEFAULT_MAX = 10000;
+    public static final long DEFAULT_INITIAL = 3000;
+
+    /**
+     * The estimate of a single command. All times are in milliseconds.
+     */
+    public static class Entry {
+
+        private double _srtt = -1;
+        private double _rttvar = 0;
+        private long _rto;
+        private int _samples = 0;
+        private int _timeouts = 0;
+
+        private Entry(long rto) {
+            _rto = rto;
+        }
+
+        public double getSmoothedRtt() {
+            return _srtt;
+        }
+
+        public double getRttVariation() {
+            return _rttvar;
+        }
+
+        public long getTimeout() {
+            return _rto;
+        }
+
+        public int getSamples() {
+            return _samples;
+        }
+
+        public int getTimeouts() {
+            return _timeouts;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> _entries;
+    private long _min;
+    private long _max;
+    private long _initial;
+
+    public RttEstimator() {
+        _entries = new ConcurrentHashMap<>();
+        _min = DEFAULT_MIN;
+        _max = DEFAULT_MAX;
+        _initial = DEFAULT_INITIAL;
+        if (AbbozzaServer.getInstance() != null) {
+            int val = AbbozzaServer.getConfig().getOptionInt("monitor.rto_min");
+            if (val > 0) {
+                _min = val;
+            }
+            val = AbbozzaServer.getConfig().getOptionInt("monitor.rto_max");
+            if (val > 0) {
+                _max = val;
+            }
+            val = AbbozzaServer.getConfig().getOptionInt("monitor.rto_initial");
+            if (val > 0) {
+                _initial = val;
+            }
+        }
+    }
+
+    /**
+     * Set the bounds of the timeouts.
+     *
+     * @param min The smallest timeout in milliseconds
+     * @param max The largest timeout in milliseconds
+     */
+    public void setBounds(long min, long max) {
+        _min = min;
+        _max = Math.max(min, max);
+    }
+
+    private long bound(double rto) {
+        return Math.max(_min, Math.min(_max, (long) Math.ceil(rto)));
+    }
+
+    private Entry getEntry(String command) {
+        return _entries.computeIfAbsent(command, (cmd) -> new Entry(bound(_initial)));
+    }
+
+    /**
+     * Returns the timeout for a command.
+     *
+     * @param command The command
+     * @return The timeout in milliseconds
+     */
+    public long getTimeout(String command) {
+        Entry entry = _entries.get(command);
+        if (entry == null) {
+            return bound(_initial);
+        }
+        synchronized (entry) {
+            return entry._rto;
+        }
+    }
+
+    /**
+     * Add a measured round trip time.
+     *
+     * @param command The command
+     * @param rtt The round trip time in nanoseconds
+     */
+    public void addSample(String command, long rtt) {
+        double r = rtt / 1e6;
+        Entry entry = getEntry(command);
+        synchronized (entry) {
+            if (entry._srtt < 0) {
+                entry._srtt = r;
+                entry._rttvar = r / 2;
+            } else {
+                entry._rttvar = 0.75 * entry._rttvar + 0.25 * Math.abs(entry._srtt - r);
+                entry._srtt = 0.875 * entry._srtt + 0.125 * r;
+            }
+            entry._rto = bound(entry._srtt + 4 * entry._rttvar);
+            entry._samples++;
+        }
+    }
+
+    /**
+     * Back off after a timeout of the command.
+     *
+     * @param command The command
+     */
+    public void timedOut(String command) {
+        Entry entry = getEntry(command);
+        synchronized (entry) {
+            entry._rto = bound(2.0 * entry._rto);
+            entry._timeouts++;
+        }
+    }
+
+    /**
+     * Returns the estimate of a command.
+     *
+     * @param command The command
+     * @return The entry or null if the command was never sent
+     */
+    public Entry get(String command) {
+        return _entries.get(command);
+    }
+
+    public void clear() {
+        _entries.clear();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * The board side of a ReliableLink, connected to the host by a simulated
+ * serial line which loses bytes.
+ *
+ * The board answers each request [[id cmd]] with [[id cmd]] and sends the
+ * line [[table n]] with a counter n every period. It is the reference for
+ * the implementation of the protocol on the board, hence it is part of the
+ * sources and not only of the tests, which use it to simulate a lossy line.
+ *
+ * @author mbrinkmeier
+ */
+public class SimulatedBoardLink {
+
+    /**
+     * One direction of the serial line. Each byte needs ten bit times, a
+     * byte may be lost.
+     */
+    public static class Line {
+
+        private final long _byteTime;
+        private final double _loss;
+        private final Random _random;
+        private final ArrayDeque<long[]> _bytes;
+        private long _free;
+        private long _lost;
+
+        public Line(int baudRate, double loss, long seed) {
+            _byteTime = 10000000000L / baudRate;
+            _loss = loss;
+            _random = new Random(seed);
+            _bytes = new ArrayDeque<>();
+            _free = 0;
+            _lost = 0;
+        }
+
+        /**
+         * Write bytes to the line at the given time.
+         *
+         * @param bytes The bytes
+         * @param now The time in nanoseconds
+         */
+        public void write(byte[] bytes, long now) {
+            for (byte b : bytes) {
+                _free = Math.max(_free, now) + _byteTime;
+                if (_random.nextDouble() < _loss) {
+                    _lost++;
+                } else {
+                    _bytes.add(new long[]{_free, b});
+                }
+            }
+        }
+
+        /**
+         * Returns the bytes arrived until the given time.
+         *
+         * @param now The time in nanoseconds
+         * @return The bytes
+         */
+        public byte[] read(long now) {
+            int count = 0;
+            for (long[] b : _bytes) {
+                if (b[0] > now) {
+                    break;
+                }
+                count++;
+            }
+            byte buf[] = new byte[count];
+            for (int i = 0; i < count; i++) {
+                buf[i] = (byte) _bytes.poll()[1];
+            }
+            return buf;
+        }
+
+        public long getLost() {
+            return _lost;
+        }
+    }
+
+    private final ReliableLink _link;
+    private final ClacksPacketParser _parser;
+    private final long _period;
+    private long _nextLine;
+    private int _counter;
+    private long _now;
+
+    /**
+     * Creates a board.
+     *
+     * @param toHost The line to the host
+     * @param period The period of the table lines in nanoseconds, 0 if no
+     * lines are sent
+     * @param now The time of the reset of the board
+     */
+    public SimulatedBoardLink(Line toHost, long period, long now) {
+        _parser = new ClacksPacketParser();
+        _link = new ReliableLink(ReliableLink.DEFAULT_WINDOW, (bytes) -> toHost.write(bytes, now()), (bytes) -> _parser.addBytes(bytes));
+        _period = period;
+        _nextLine = now;
+        _counter = 0;
+        _now = now;
+    }
+
+    private long now() {
+        return _now;
+    }
+
+    /**
+     * Run the board at the given time: process the bytes from the host,
+     * answer the requests, send the due table line and write the due frames.
+     *
+     * @param fromHost The line from the host
+     * @param now The time in nanoseconds
+     */
+    public void loop(Line fromHost, long now) {
+        _now = now;
+        byte bytes[] = fromHost.read(now);
+        _link.receive(bytes, 0, bytes.length, now);
+        ClacksPacket packet;
+        while ((packet = _parser.parse()) != null) {
+            ClacksMessage msg = (ClacksMessage) packet;
+            _link.send(("[[" + msg.getPrefix() + " " + msg.getMsg() + "]]\n").getBytes());
+        }
+        if ((_period > 0) && (now >= _nextLine)) {
+            _nextLine += _period;
+            _link.send(("[[table " + _counter++ + "]]\n").getBytes());
+        }
+        _link.poll(now);
+    }
+
+    /**
+     * Reset the board, i.e. it forgets the state of the link.
+     */
+    public void reset() {
+        _link.reset();
+    }
+
+    public ReliableLink getLink() {
+        return _link;
+    }
+}
@@ -27,6 +27,7 @@ import de.uos.inf.did.abbozza.core.AbbozzaServer;
 import de.uos.inf.did.abbozza.core.Tools;
 import de.uos.inf.did.abbozza.handler.JarDirHandler;
 import de.uos.inf.did.abbozza.monitor.MonitorListener;
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksDecoder;
 import de.uos.inf.did.abbozza.monitor.MonitorPanel;
 import java.io.IOException;
 import java.io.InputStream;
@@ -67,6 +68,7 @@ public class Plugin {
     private PluginHandler _handler;
     private PluginMonitorPanel _monitorPanel;    
     private PluginMonitorListener _monitorListener; 
+    private PluginDecoder _decoder;
     private String _monitorPanelPrefix = "";
     private String _monitorListenerPrefix = "";
     private JarDirHandler _fileHandler;
@@ -197,6 +199,22 @@ public class Plugin {
                            AbbozzaLogger.err("Plugin " + this._id + ": Monitor listener class " + className + " does not implement MonitorListener!"); 
                         }
 
+                    // Get the decoder class
+                    } else if (childName.equals("decoder")) {
+                        String className = ((Element) child).getAttributes().getNamedItem("class").getNodeValue();                            
+                        Node prefixNode = ((Element) child).getAttributes().getNamedItem("prefix");
+                        String prefix = ( prefixNode == null ) ? this._id : prefixNode.getNodeValue();
+                        URLClassLoader classLoader = new URLClassLoader(new URL[]{_url.toURI().toURL()}, AbbozzaServer.class.getClassLoader() );
+                        Class decoderClass = classLoader.loadClass(className);
+                        try {
+                           this._decoder = (PluginDecoder) decoderClass.newInstance();
+                           this._decoder.setPlugin(this);
+                           this._decoder.setPrefix(prefix);
+                           AbbozzaLogger.info("Plugin " + this._id + ": Instance of " + className + " used as decoder");
+                        } catch (ClassCastException cce) {
+                           AbbozzaLogger.err("Plugin " + this._id + ": Decoder class " + className + " does not extend PluginDecoder!"); 
+                        }
+
                     // Get the feature tree
                     } else if (childName.equals("feature")) {
                         this._feature = child;
@@ -362,6 +380,10 @@ public class Plugin {
         return this._monitorListenerPrefix;
     }
     
+    public ClacksDecoder getDecoder() {
+        return this._decoder;
+    }
+    
     public JarDirHandler getFileHandler() {
         return this._fileHandler;
     }
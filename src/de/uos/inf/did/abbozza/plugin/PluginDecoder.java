@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 michael.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.plugin;
+
+import de.uos.inf.did.abbozza.monitor.clacks.ClacksDecoder;
+
+/**
+ * The base class of decoders provided by plugins. The decoded packets should
+ * carry the prefix given in the plugin.xml, so that they reach the monitor
+ * panel and the listener of the plugin.
+ *
+ * @author michael
+ */
+public abstract class PluginDecoder implements ClacksDecoder {
+    
+    protected Plugin _plugin;
+    protected String _prefix;
+    
+    protected Plugin getPlugin() {
+        return _plugin;
+    }
+    
+    protected void setPlugin(Plugin plugin) {
+        _plugin = plugin;
+    }
+
+    protected String getPrefix() {
+        return _prefix;
+    }
+    
+    protected void setPrefix(String prefix) {
+        _prefix = prefix;
+    }
+
+}
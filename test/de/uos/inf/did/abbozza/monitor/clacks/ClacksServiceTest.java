@@ -0,0 +1,321 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import de.uos.inf.did.abbozza.monitor.AbbozzaWebSocketServer;
+import de.uos.inf.did.abbozza.monitor.ListenerExecutor;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.Test;
+
+/**
+ * Starts and stops a ClacksService with a simulated port repeatedly and
+ * checks, that its threads end and the ports are released. The full cycle of
+ * the monitor, including the WebSocket server and the listener threads, has
+ * to return to the threads and file descriptors in use before.
+ *
+ * @author mbrinkmeier
+ */
+public class ClacksServiceTest {
+
+    /**
+     * A port without a device. Its thread only waits until it is stopped.
+     */
+    private static class FakePort extends ClacksSerialPort {
+
+        private volatile boolean open = false;
+        private volatile boolean stopped = false;
+        private volatile int closes = 0;
+
+        FakePort(ConcurrentLinkedQueue<ClacksPacket> in, ConcurrentLinkedQueue<ClacksPacket> out) {
+            super(in, out);
+        }
+
+        @Override
+        public String getSerialPort() {
+            return "fake";
+        }
+
+        @Override
+        public boolean open(String p, int r) {
+            open = true;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            closes++;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void stopIt() {
+            stopped = true;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * A service creating FakePorts.
+     */
+    private static class FakeService extends ClacksService {
+
+        final List<FakePort> ports = new ArrayList<>();
+
+        FakeService() {
+            super(null);
+        }
+
+        @Override
+        protected ClacksSerialPort createSerialPort() {
+            FakePort port = new FakePort(incoming, outgoing);
+            ports.add(port);
+            return port;
+        }
+
+        FakePort lastPort() {
+            return ports.get(ports.size() - 1);
+        }
+    }
+
+    private static int countThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && (thread.getName().equals("ClacksService") || thread.getName().equals("ClacksSerialPort"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Set<Thread> liveThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive()) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    /**
+     * Wait until all threads started since the baseline have ended.
+     */
+    private static void awaitBaseline(Set<Thread> baseline) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        Set<Thread> extra = liveThreads();
+        extra.removeAll(baseline);
+        while (!extra.isEmpty() && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(1);
+            extra = liveThreads();
+            extra.removeAll(baseline);
+        }
+        List<String> names = new ArrayList<>();
+        for (Thread thread : extra) {
+            names.add(thread.getName());
+        }
+        assertEquals("threads left " + names, 0, extra.size());
+    }
+
+    /**
+     * Returns the number of open file descriptors or -1, if it is not
+     * available.
+     */
+    private static long openDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void assertBindable(int port) throws IOException {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress("localhost", port));
+        }
+    }
+
+    private static void awaitConnectable(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket("localhost", port)) {
+                return;
+            } catch (IOException ex) {
+                Thread.sleep(1);
+            }
+        }
+        fail("WebSocket server not listening");
+    }
+
+    private static void awaitOpen(FakePort port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!port.isOpen() && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(1);
+        }
+        assertTrue("port opened", port.isOpen());
+    }
+
+    private static void awaitThreads(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((countThreads() != count) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, countThreads());
+    }
+
+    @Test
+    public void testStartStopCycles() throws InterruptedException {
+        int before = countThreads();
+        FakeService service = new FakeService();
+        for (int i = 0; i < 20; i++) {
+            service.start();
+            awaitOpen(service.lastPort());
+            assertTrue(service.isRunning());
+            // The service thread and the thread of the port
+            awaitThreads(before + 2);
+            service.stop();
+            assertFalse(service.isRunning());
+            assertFalse("port released", service.lastPort().isOpen());
+            assertEquals(before, countThreads());
+        }
+        assertEquals(20, service.ports.size());
+    }
+
+    @Test
+    public void testStartTwice() throws InterruptedException {
+        FakeService service = new FakeService();
+        service.start();
+        service.start();
+        awaitOpen(service.lastPort());
+        assertEquals(1, service.ports.size());
+        service.stop();
+        service.stop();
+        assertFalse(service.isRunning());
+    }
+
+    /**
+     * Stopping and starting again must not let the old run close the port
+     * of the new one.
+     */
+    @Test
+    public void testRestartKeepsNewPort() throws InterruptedException {
+        FakeService service = new FakeService();
+        service.start();
+        awaitOpen(service.lastPort());
+        FakePort first = service.lastPort();
+        service.stop();
+        service.start();
+        FakePort second = service.lastPort();
+        awaitOpen(second);
+        Thread.sleep(50);
+        assertFalse(first.isOpen());
+        assertTrue(second.isOpen());
+        assertEquals(0, second.closes);
+        service.stop();
+        assertFalse(second.isOpen());
+    }
+
+    /**
+     * Runs the start and stop sequence of the monitor: the listener threads,
+     * the service and the WebSocket server at its own port, with a client
+     * connected. After each stop the threads and descriptors in use before
+     * have to be reached again and the port of the WebSocket server has to
+     * be free. The first cycle loads the classes and is not counted.
+     */
+    @Test
+    public void testMonitorCycles() throws Exception {
+        int port = freePort();
+        FakeService service = new FakeService();
+        List<ListenerExecutor> listeners = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            listeners.add(new ListenerExecutor("l" + i, (msg) -> {
+            }, (reason) -> {
+            }));
+        }
+        Set<Thread> baseline = null;
+        long descriptors = -1;
+        for (int i = 0; i < 10; i++) {
+            for (ListenerExecutor listener : listeners) {
+                listener.start();
+            }
+            service.start();
+            AbbozzaWebSocketServer server = new AbbozzaWebSocketServer(service, port);
+            server.startServer();
+            awaitOpen(service.lastPort());
+            awaitConnectable(port);
+            Socket client = new Socket("localhost", port);
+            for (ListenerExecutor listener : listeners) {
+                listener.processMessage("msg", 0);
+            }
+
+            assertTrue("WebSocket server stopped", server.stopServer(1000));
+            service.stop();
+            for (ListenerExecutor listener : listeners) {
+                listener.stop();
+            }
+            client.close();
+
+            assertFalse("port released", service.lastPort().isOpen());
+            assertBindable(port);
+            if (baseline == null) {
+                baseline = liveThreads();
+                descriptors = openDescriptors();
+            } else {
+                awaitBaseline(baseline);
+                if (descriptors >= 0) {
+                    assertEquals("open descriptors", descriptors, openDescriptors());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayDeque;
+import org.junit.Test;
+
+/**
+ * Checks, that requests which timed out in the queue of their client are
+ * not written to the port.
+ *
+ * @author mbrinkmeier
+ */
+public class FairQueueTest {
+
+    /**
+     * A request with a timeout of 1ms waits behind a long packet on a slow
+     * line. After it timed out, it is dropped instead of being written.
+     */
+    @Test
+    public void testTimedOutRequestIsNotWritten() throws InterruptedException {
+        FairQueue queue = new FairQueue();
+        ArrayDeque<ClacksPacket> out = new ArrayDeque<>();
+        ClacksMessage blocker = new ClacksMessage("", "slow");
+        ClacksRequest request = new ClacksRequest("1", "toggle", (r) -> {
+        }, 1);
+        assertTrue(queue.admit("client"));
+        assertTrue(queue.admit("client"));
+        queue.enqueue("client", blocker, 200, true);
+        request.startTimeOut();
+        queue.enqueue("client", request, 20, false);
+
+        // 300 baud, the line takes 30 bytes per second
+        assertEquals(0, queue.drainTo(out, 300));
+        Thread.sleep(10);
+        // As done by the service, which answers and releases the request
+        assertTrue(request.isTimedOut());
+        queue.release("client");
+
+        // A fast line takes everything still queued
+        Thread.sleep(10);
+        assertEquals(1, queue.drainTo(out, 10000000));
+        assertEquals(1, out.size());
+        assertTrue(out.peek() == blocker);
+        assertEquals(0, queue.drainTo(out, 10000000));
+        assertEquals(1, out.size());
+    }
+}
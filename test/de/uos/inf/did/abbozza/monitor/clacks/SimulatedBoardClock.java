@@ -0,0 +1,93 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import java.util.Random;
+
+/**
+ * The clock of a simulated board. Its millis() starts at 0 if the board is
+ * reset and runs with a constant drift against the host clock. The exchange
+ * of a ping over a serial line with random delays can be simulated.
+ *
+ * @author mbrinkmeier
+ */
+public class SimulatedBoardClock {
+
+    private final double _drift;    // The drift in ppm
+    private final Random _random;
+    private final long _minDelay;   // The minimal one-way delay in nanoseconds
+    private final long _jitter;     // The maximal additional delay
+    private long _start;            // The host time of the last reset
+
+    /**
+     * Creates a simulated board, which is reset at the given time.
+     *
+     * @param start The host time of the reset in nanoseconds
+     * @param drift The drift in parts per million
+     * @param minDelay The minimal one-way delay of the serial line in
+     * nanoseconds
+     * @param jitter The maximal additional one-way delay in nanoseconds
+     * @param seed The seed of the random delays
+     */
+    public SimulatedBoardClock(long start, double drift, long minDelay, long jitter, long seed) {
+        _start = start;
+        _drift = drift;
+        _minDelay = minDelay;
+        _jitter = jitter;
+        _random = new Random(seed);
+    }
+
+    /**
+     * Returns the value of millis() on the board at the given host time.
+     *
+     * @param host The host time in nanoseconds
+     * @return The board time in milliseconds
+     */
+    public long millis(long host) {
+        return (long) Math.floor((host - _start) / 1e6 * (1.0 + _drift / 1e6));
+    }
+
+    /**
+     * Reset the board.
+     *
+     * @param host The host time of the reset
+     */
+    public void reset(long host) {
+        _start = host;
+    }
+
+    private long delay() {
+        return _minDelay + (long) (_random.nextDouble() * _random.nextDouble() * _jitter);
+    }
+
+    /**
+     * Simulate a ping sent at the given host time and feed the result into
+     * the estimator.
+     *
+     * @param sent The host time at which the request is sent
+     * @param estimator The estimator
+     * @return The host time at which the answer is received
+     */
+    public long ping(long sent, ClockEstimator estimator) {
+        long atBoard = sent + delay();
+        long received = atBoard + delay();
+        estimator.addSample(sent, millis(atBoard), received);
+        return received;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Feeds a ClockEstimator with the pings of a SimulatedBoardClock.
+ *
+ * @author mbrinkmeier
+ */
+public class SimulatedBoardClockTest {
+
+    @Test
+    public void testMillisDrift() {
+        SimulatedBoardClock board = new SimulatedBoardClock(0, 100.0, 0, 0, 1);
+        assertEquals(0, board.millis(0));
+        assertEquals(1000100, board.millis(1000000000000L));
+        board.reset(1000000000000L);
+        assertEquals(0, board.millis(1000000000000L));
+    }
+
+    /**
+     * Ten minutes with a ping every two seconds, a drift of 150ppm and a
+     * reset after five minutes. After the first minute the estimate has to
+     * stay within 2ms of the host clock.
+     */
+    @Test
+    public void testEstimateWithReset() {
+        long host = 1000000000000000000L;
+        SimulatedBoardClock board = new SimulatedBoardClock(host - 7000000000L, 150.0, 500000L, 8000000L, 42);
+        ClockEstimator estimator = new ClockEstimator();
+        for (int i = 1; i <= 300; i++) {
+            host += 2000000000L;
+            if (i == 150) {
+                board.reset(host - 1000000L);
+            }
+            board.ping(host, estimator);
+            if (i % 25 == 0) {
+                long probe = host + 1000000000L;
+                long error = estimator.toHost(board.millis(probe)) - probe;
+                assertTrue("error " + error + "ns at " + 2 * i + "s", Math.abs(error) < 2000000L);
+            }
+        }
+        assertEquals(1, estimator.getResets());
+        assertEquals(150.0, estimator.getDrift(), 50.0);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * @license
+ * abbozza!
+ *
+ * Copyright 2015 Michael Brinkmeier ( michael.brinkmeier@uni-osnabrueck.de )
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uos.inf.did.abbozza.monitor.clacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Connects a ReliableLink on the host with a SimulatedBoardLink over a
+ * serial line losing bytes.
+ *
+ * @author mbrinkmeier
+ */
+public class SimulatedBoardLinkTest {
+
+    /**
+     * Simulates 20 seconds at 500000 baud with a byte loss of 0.1%. The
+     * host sends a request every 5ms, the board a table line every 2ms and
+     * is reset after ten seconds. All answers and table lines have to
+     * arrive complete and in order.
+     */
+    @Test
+    public void testLossyLine() {
+        final long step = 100000L;
+        SimulatedBoardLink.Line toBoard = new SimulatedBoardLink.Line(500000, 0.001, 1);
+        SimulatedBoardLink.Line toHost = new SimulatedBoardLink.Line(500000, 0.001, 2);
+        SimulatedBoardLink board = new SimulatedBoardLink(toHost, 2000000L, 0);
+        ClacksPacketParser parser = new ClacksPacketParser();
+        long[] time = {0};
+        ReliableLink host = new ReliableLink(ReliableLink.DEFAULT_WINDOW, (bytes) -> toBoard.write(bytes, time[0]), (bytes) -> parser.addBytes(bytes));
+
+        int requests = 0;
+        int answers = 0;
+        int lines = 0;
+        int lastLine = -1;
+        for (long now = 0; now < 20000000000L; now += step) {
+            time[0] = now;
+            if (now == 10000000000L) {
+                board.reset();
+            }
+            if (now % 5000000L == 0) {
+                host.send(("[[_" + requests + " echo]]\n").getBytes());
+                requests++;
+            }
+            byte bytes[] = toHost.read(now);
+            host.receive(bytes, 0, bytes.length, now);
+            ClacksPacket packet;
+            while ((packet = parser.parse()) != null) {
+                ClacksMessage msg = (ClacksMessage) packet;
+                if (msg.getPrefix().equals("table")) {
+                    int n = Integer.parseInt(msg.getMsg().trim());
+                    // The counter continues after the reset of the link
+                    if (lastLine >= 0) {
+                        assertEquals("table line", lastLine + 1, n);
+                    }
+                    lastLine = n;
+                    lines++;
+                } else {
+                    assertEquals("answer", "_" + answers, msg.getPrefix());
+                    answers++;
+                }
+            }
+            host.poll(now);
+            board.loop(toBoard, now);
+        }
+        assertEquals(requests, answers);
+        assertEquals(10000, lines);
+        assertTrue(toBoard.getLost() > 0);
+        assertTrue(toHost.getLost() > 0);
+        assertTrue(host.getRetransmitted() > 0);
+        assertTrue(board.getLink().getRetransmitted() > 0);
+    }
+}